@@ -16,17 +16,22 @@ package at.fhhgb.auth.voice;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
+import android.provider.BaseColumns;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
@@ -35,18 +40,19 @@ import android.widget.Toast;
 import at.fhhgb.auth.lib.intent.IntentIntegrator.Extras;
 import at.fhhgb.auth.provider.AuthDb.Feature;
 import at.fhooe.mcm.smc.Constants;
-import at.fhooe.mcm.smc.math.matrix.Matrix;
+import at.fhooe.mcm.smc.math.Lbg;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
 import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
 import at.fhooe.mcm.smc.math.mfcc.MFCC;
 import at.fhooe.mcm.smc.math.vq.Codebook;
 import at.fhooe.mcm.smc.math.vq.KMeans;
+import at.fhooe.mcm.smc.sample.VoiceActivityDetector;
 import at.fhooe.mcm.smc.wav.WavReader;
 import at.fhooe.mcm.smc.wav.WaveRecorder;
 
-import com.google.gson.Gson;
-
 /**
- * Lets the user create a codebook (voice feature), if none exists yet. 
+ * Lets the user create a codebook and a GMM speaker model (voice features), 
+ * if none exist yet. 
  * @author thomaskaiser
  *
  */
@@ -74,6 +80,9 @@ public class CreateVoiceSample extends Activity {
 					"recording.wav");
 
 	public String codebookString;
+	public String gaussianMixtureString;
+	/** The MFCCs of the recording, pooled for the UBM once saved. */
+	private FeatureVector features;
 	
 	/** This is actually used to stop the record after the recording time is up as well. */
 	private Handler updateUiHandler = new Handler() {
@@ -135,8 +144,46 @@ public class CreateVoiceSample extends Activity {
 		}
 	}
 
+	/**
+	 * Saves codebook and GMM, replacing the user's previous features. If 
+	 * either cannot be saved, the previous features are kept unchanged.
+	 */
 	private void save() {
-		insertFeature(codebookString);
+		List<Long> previousIds = queryFeatureIds();
+		Uri codebookUri = insertFeature(codebookString);
+		Uri gaussianMixtureUri = codebookUri != null ? insertFeature(gaussianMixtureString) : null;
+		if (gaussianMixtureUri == null) {
+			if (codebookUri != null) {
+				// no codebook without its GMM
+				getContentResolver().delete(codebookUri, null, null);
+			}
+			Toast.makeText(this, "Could not save features!", Toast.LENGTH_LONG).show();
+			return;
+		}
+		for (Long id : previousIds) {
+			getContentResolver().delete(ContentUris.withAppendedId(Feature.CONTENT_URI, id), null, null);
+		}
+		new PoolTask((VoiceApplication) getApplication(), userId).execute(features);
+		finish();
+	}
+	
+	/** Returns the ids of the features saved for the user so far. */
+	private List<Long> queryFeatureIds() {
+		long modeId = ((VoiceApplication)getApplication()).getModeId();
+		Uri featuresUri = Feature.buildFeaturesForSubjectAndMode(userId, modeId);
+		List<Long> ids = new ArrayList<Long>();
+		Cursor c = getContentResolver().query(featuresUri, new String[] { BaseColumns._ID }, null, null, null);
+		try {
+			if (c.moveToFirst()) {
+				int idColumn = c.getColumnIndexOrThrow(BaseColumns._ID);
+				do {
+					ids.add(c.getLong(idColumn));
+				} while (c.moveToNext());
+			}
+		} finally {
+			c.close();
+		}
+		return ids;
 	}
 
 	private void calculateMfccs() {
@@ -157,6 +204,7 @@ public class CreateVoiceSample extends Activity {
 		if (outputFile.exists()) outputFile.delete();
 		
 		waveRecorder = new WaveRecorder(8000);
+		waveRecorder.setThreadedCapture(true);
 		waveRecorder.setOutputFile(outputFile.getAbsolutePath());
 		waveRecorder.prepare();
 		waveRecorder.start();
@@ -178,7 +226,8 @@ public class CreateVoiceSample extends Activity {
 		btnSave.setEnabled(saveEnabled);
 	}
 
-	private void insertFeature(String password) {
+	/** @return the URI of the inserted feature, or null if it was not inserted */
+	private Uri insertFeature(String password) {
 		long modeId = ((VoiceApplication)getApplication()).getModeId();
 		
 		ContentValues cv = new ContentValues();
@@ -188,22 +237,21 @@ public class CreateVoiceSample extends Activity {
 		Uri insert = getContentResolver().insert(Feature.CONTENT_URI, cv);
 		Log.i(TAG, "Inserted voice features to URI: " + insert);
 		
-		if (ContentUris.parseId(insert) != -1) {
-			finish();
-		} else {
-			Toast.makeText(this, "Could not save features!", Toast.LENGTH_LONG).show();
-		}
+		return insert != null && ContentUris.parseId(insert) != -1 ? insert : null;
 	}
 	
 	/**
 	 * This is used to get from a filename of a .wav file to
 	 * MFCCS, to a cluster of MFCC, to String representation of a 
-	 * codebook. 
+	 * codebook. The GMM speaker model is adapted from the UBM with the same 
+	 * MFCCs, or trained from them alone while there is no UBM yet.
 	 */
 	class MfccTask extends AsyncTask<String, Object, String> {
 
 		private ProgressDialog progressDialog;
 		private final Activity parentActivity;
+		private String gmmString;
+		private FeatureVector featureVector;
 		
 		public MfccTask(Activity parentActivity) {
 			this.parentActivity = parentActivity;
@@ -222,37 +270,46 @@ public class CreateVoiceSample extends Activity {
 			
 			FeatureVector pl = createFeatureVector(mfcc);
 			
-			KMeans kmeans = doClustering(pl);
+			Codebook cb = doClustering(pl);
+			featureVector = pl;
 			
-			Codebook cb = createCodebook(kmeans);
+			gmmString = VoiceApplication.formatGaussianMixture(createSpeakerModel(pl));
 			
-			Gson gson = new Gson();
-			String codebookJsonString = gson.toJson(cb, Codebook.class);
-			
-			return codebookJsonString;
+			return VoiceApplication.formatCodebook(cb);
 		}
 
-		private Codebook createCodebook(KMeans kmeans) {
-			int numberClusters = kmeans.getNumberClusters();
-			Matrix[] centers = new Matrix[numberClusters];
-			for (int i = 0; i < numberClusters; i++) {
-				centers[i] = kmeans.getCluster(i).getCenter();
+		private GaussianMixture createSpeakerModel(FeatureVector pl) {
+			VoiceApplication app = (VoiceApplication) parentActivity.getApplication();
+			GaussianMixture ubm = app.getUbm();
+			if (ubm == null) {
+				return trainGmm(pl, Constants.GMM_COMPONENTS);
 			}
-			Codebook cb = new Codebook();
-			cb.setLength(numberClusters);
-			cb.setCentroids(centers);
-			return cb;
+			publishProgress("Adapting speaker model...", 0, 1);
+			return ubm.adapt(pl, GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
 		}
 
-		private KMeans doClustering(FeatureVector pl) {
+		private GaussianMixture trainGmm(FeatureVector pl, int components) {
+			long start = System.currentTimeMillis();
+			publishProgress("Training speaker model...", 0, 1);
+			KMeans kmeans = new KMeans(components, pl, Constants.CLUSTER_MAX_ITERATIONS);
+			kmeans.runAccelerated();
+			GaussianMixture gmm = GaussianMixture.fromKMeans(kmeans, pl);
+			gmm.runEM(pl, Constants.GMM_MAX_ITERATIONS, GaussianMixture.DEFAULT_THRESHOLD);
+			Log.i(TAG, "GMM training finished after " + gmm.getIterations() + " EM iterations, avg log likelihood = " 
+					+ gmm.getAverageLogLikelihood(pl) + ", total time = " + (System.currentTimeMillis() - start) + "ms");
+			return gmm;
+		}
+
+		private Codebook doClustering(FeatureVector pl) {
 			long start;
-			KMeans kmeans = new KMeans(Constants.CLUSTER_COUNT, pl, Constants.CLUSTER_MAX_ITERATIONS);
-			Log.i(TAG, "Prepared k means clustering");
+			Lbg lbg = new Lbg(Constants.CLUSTER_COUNT, pl);
+			Log.i(TAG, "Prepared LBG clustering");
 			start = System.currentTimeMillis();
 			progressDialog.setProgressStyle(ProgressDialog.STYLE_SPINNER);
-			kmeans.run();
-			Log.i(TAG, "Clustering finished, total time = " + (System.currentTimeMillis() - start) + "ms");
-			return kmeans;
+			Codebook cb = lbg.run();
+			Log.i(TAG, "Clustering finished after " + lbg.getIterations() + " iterations, distortion = " 
+					+ lbg.getDistortion() + ", total time = " + (System.currentTimeMillis() - start) + "ms");
+			return cb;
 		}
 
 		private FeatureVector createFeatureVector(double[][] mfcc) {
@@ -267,54 +324,55 @@ public class CreateVoiceSample extends Activity {
 			return pl;
 		}
 
-		private short createSample(byte[] buffer) {
-			short sample = 0;
-			// hardcoded two bytes here
-			short b1 = buffer[0];
-			short b2 = buffer[1];
-			b2 <<= 8;
-			sample = (short) (b1 | b2);
-			return sample;
-		}
-
 		private double[][] calculateMfcc(double[] samples) {
 			MFCC mfccCalculator = new MFCC(Constants.SAMPLERATE, Constants.WINDOWSIZE,
 					Constants.COEFFICIENTS, false, Constants.MINFREQ + 1, Constants.MAXFREQ, Constants.FILTERS);
+			VoiceActivityDetector vad = new VoiceActivityDetector(Constants.WINDOWSIZE);
 			
 			int hopSize = Constants.WINDOWSIZE / 2;
 			int mfccCount = (samples.length / hopSize) - 1;
-			double[][] mfcc = new double[mfccCount][Constants.COEFFICIENTS];
+			double[][] mfcc = new double[mfccCount][];
+			int speechCount = 0;
 			long start = System.currentTimeMillis();
 			for (int i = 0, pos = 0; pos < samples.length - hopSize; i++, pos += hopSize) {
-				mfcc[i] = mfccCalculator.processWindow(samples, pos);
+				// skip silence, unless there is too little speech to cluster
+				if (vad.isSpeech(samples, pos)) {
+					mfcc[speechCount++] = mfccCalculator.processWindow(samples, pos);
+				}
 				if (i % 20 == 0) {
 					publishProgress("Calculating features...", i, mfccCount);
 				}
 			}
+			if (speechCount < Constants.CLUSTER_COUNT) {
+				Log.w(TAG, "Only " + speechCount + " windows with speech, using all windows");
+				for (int i = 0, pos = 0; pos < samples.length - hopSize; i++, pos += hopSize) {
+					mfcc[i] = mfccCalculator.processWindow(samples, pos);
+				}
+				speechCount = mfccCount;
+			}
 			publishProgress("Calculating features...", mfccCount, mfccCount);
 
-			Log.i(TAG, "Calculated " + mfcc.length + " vectors of MFCCs in "
+			Log.i(TAG, "Calculated " + speechCount + " of " + mfccCount + " vectors of MFCCs in "
 					+ (System.currentTimeMillis() - start) + "ms");
-			return mfcc;
+			return Arrays.copyOf(mfcc, speechCount);
 		}
 
 		private double[] readSamples(WavReader wavReader) {
-			int sampleSize = wavReader.getFrameSize();
-			int sampleCount = wavReader.getPayloadLength() / sampleSize;
-			int windowCount = (int) Math.floor(sampleCount / Constants.WINDOWSIZE);
-			byte[] buffer = new byte[sampleSize];
+			int sampleCount = wavReader.getSampleCount();
+			int windowCount = sampleCount / Constants.WINDOWSIZE;
 			double[] samples = new double[windowCount
 			                              * Constants.WINDOWSIZE];
 			
 			try {
-				for (int i = 0; i < samples.length; i++) {
-					wavReader.read(buffer, 0, sampleSize);
-					samples[i] = createSample(buffer);
-					
-					if (i % 1000 == 0) {
-						publishProgress("Reading samples...", i, samples.length);
-					}
+				int read = 0;
+				while (read < samples.length) {
+					int count = wavReader.readSamples(samples, read,
+							Math.min(Constants.SAMPLERATE, samples.length - read));
+					if (count < 0) break;
+					read += count;
+					publishProgress("Reading samples...", read, samples.length);
 				}
+				wavReader.close();
 			} catch (IOException e) {
 				Log.e(CreateVoiceSample.TAG, "Exception in reading samples", e);
 			}
@@ -325,6 +383,8 @@ public class CreateVoiceSample extends Activity {
 		protected void onPostExecute(String result) {
 			progressDialog.dismiss();
 			codebookString = result;
+			gaussianMixtureString = gmmString;
+			features = featureVector;
 			setButtonsEnabled(false, false, false, true, true);
 		}
 		
@@ -351,4 +411,25 @@ public class CreateVoiceSample extends Activity {
 		}
 		
 	}
+	
+	/**
+	 * Pools the MFCCs of a saved recording for the UBM. Holds no reference 
+	 * to the activity, which finishes meanwhile.
+	 */
+	static class PoolTask extends AsyncTask<FeatureVector, Void, Void> {
+		
+		private final VoiceApplication app;
+		private final long userId;
+		
+		public PoolTask(VoiceApplication app, long userId) {
+			this.app = app;
+			this.userId = userId;
+		}
+		
+		@Override
+		protected Void doInBackground(FeatureVector... params) {
+			app.poolUbmFeatures(userId, params[0]);
+			return null;
+		}
+	}
 }
@@ -14,14 +14,37 @@
  */
 package at.fhhgb.auth.voice;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import android.app.Application;
 import android.content.ContentUris;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
+import android.util.Base64;
 import android.util.Log;
+import at.fhhgb.auth.provider.AuthDb.Feature;
 import at.fhhgb.auth.provider.AuthDb.Mode;
+import at.fhooe.mcm.smc.Constants;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixtureCodec;
+import at.fhooe.mcm.smc.math.mfcc.FeatureFile;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookCodec;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex;
+import at.fhooe.mcm.smc.math.vq.MiniBatchKMeans;
+
+import com.google.gson.Gson;
 
 /**
  * This is basically just used to initialize the database on first startup and
@@ -33,6 +56,26 @@ public class VoiceApplication extends Application {
 	private static final String TAG = "VoiceAuth";
 	
 	private static final String PREF_KEY_MODE_ID = "modeId";
+	
+	/** Decoded codebooks of all users, see {@link #getCodebookIndex()}. */
+	private CodebookIndex codebookIndex;
+	/** Decoded GMM speaker models of all users, see {@link #getGaussianMixture(long)}. */
+	private Map<Long, GaussianMixture> gaussianMixtures;
+	/** Universal background model, see {@link #getUbm()}. */
+	private GaussianMixture ubm;
+	/** Representations currently in the index or the models, per user. */
+	private Map<Long, List<String>> indexedRepresentations;
+	/** Set when the features changed since the index was last refreshed. */
+	private volatile boolean featuresChanged;
+	/** Held while pooling enrollment frames and training the UBM. */
+	private final Object ubmPoolLock = new Object();
+	
+	private ContentObserver featureObserver = new ContentObserver(null) {
+		@Override
+		public void onChange(boolean selfChange) {
+			featuresChanged = true;
+		}
+	};
 
 	@Override
 	public void onCreate() {
@@ -49,6 +92,341 @@ public class VoiceApplication extends Application {
 		return PreferenceManager.getDefaultSharedPreferences(getApplicationContext()).getLong(PREF_KEY_MODE_ID, -1);
 	}
 	
+	/**
+	 * Returns the index of the codebooks of all users for this mode. The
+	 * index is loaded on first use, and afterwards only the codebooks of users
+	 * whose features changed are decoded again.
+	 * @return
+	 */
+	public synchronized CodebookIndex getCodebookIndex() {
+		refreshIfChanged();
+		return codebookIndex;
+	}
+	
+	/**
+	 * Returns the GMM speaker model of a user, loaded and refreshed together
+	 * with the codebook index.
+	 * @param userId
+	 * @return the model, or null if the user has none
+	 */
+	public synchronized GaussianMixture getGaussianMixture(long userId) {
+		refreshIfChanged();
+		return gaussianMixtures.get(userId);
+	}
+	
+	/**
+	 * Returns the GMM speaker models of all users by user id, as snapshot.
+	 * @return
+	 */
+	public synchronized Map<Long, GaussianMixture> getGaussianMixtures() {
+		refreshIfChanged();
+		return new HashMap<Long, GaussianMixture>(gaussianMixtures);
+	}
+	
+	/**
+	 * Returns the universal background model the speaker models are adapted
+	 * from, loaded from the app's files on first use.
+	 * @return the UBM, or null if none has been trained yet
+	 */
+	public synchronized GaussianMixture getUbm() {
+		if (ubm == null) {
+			File file = new File(getFilesDir(), Constants.UBM_FILE_NAME);
+			if (file.exists()) {
+				try {
+					RandomAccessFile in = new RandomAccessFile(file, "r");
+					try {
+						byte[] data = new byte[(int) in.length()];
+						in.readFully(data);
+						ubm = GaussianMixtureCodec.decode(data);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					Log.e(TAG, "Could not load UBM from " + file, e);
+				} catch (IllegalArgumentException e) {
+					Log.e(TAG, "Invalid UBM in " + file, e);
+				}
+			}
+		}
+		return ubm;
+	}
+	
+	/**
+	 * Stores the universal background model. Afterwards {@link #getUbm()}
+	 * returns the model as stored, so models adapted from it match the one
+	 * loaded after a restart.
+	 * @param model
+	 * @throws IOException
+	 */
+	public synchronized void saveUbm(GaussianMixture model) throws IOException {
+		byte[] encoded = GaussianMixtureCodec.encode(model, GaussianMixtureCodec.PRECISION_FLOAT);
+		FileOutputStream out = new FileOutputStream(new File(getFilesDir(), Constants.UBM_FILE_NAME));
+		try {
+			out.write(encoded);
+		} finally {
+			out.close();
+		}
+		ubm = GaussianMixtureCodec.decode(encoded);
+	}
+	
+	/**
+	 * Adds the frames of a saved enrollment to the UBM pool, replacing the 
+	 * user's earlier frames, and trains the UBM once enough users and frames 
+	 * are pooled. The pool is deleted once the UBM is trained. Does nothing 
+	 * if there is a UBM already. Takes long, call it in the background.
+	 * @param userId
+	 * @param features
+	 */
+	public void poolUbmFeatures(long userId, FeatureVector features) {
+		synchronized (ubmPoolLock) {
+			if (getUbm() != null) {
+				return;
+			}
+			try {
+				File dir = new File(getFilesDir(), Constants.UBM_FEATURES_DIR_NAME);
+				dir.mkdirs();
+				File file = getUbmFeatureFile(userId);
+				// one recording per user, so one voice cannot fill the pool
+				file.delete();
+				FeatureFile.append(file, features);
+				
+				CodebookIndex index = getCodebookIndex();
+				List<File> files = new ArrayList<File>();
+				long frameCount = 0;
+				for (File userFile : dir.listFiles()) {
+					long id = parseUserId(userFile);
+					// the saved user may not be indexed yet
+					if (id != userId && !index.contains(id)) {
+						// user deleted meanwhile
+						userFile.delete();
+						continue;
+					}
+					FeatureFile featureFile = new FeatureFile(userFile);
+					try {
+						frameCount += featureFile.getFrameCount();
+					} finally {
+						featureFile.close();
+					}
+					files.add(userFile);
+				}
+				Log.i(TAG, "Pooled " + frameCount + " frames of " + files.size() + " users for the UBM");
+				if (files.size() < Constants.UBM_MIN_SPEAKERS || frameCount < Constants.UBM_MIN_FRAMES) {
+					return;
+				}
+				
+				saveUbm(trainUbm(files));
+				for (File userFile : files) {
+					userFile.delete();
+				}
+				dir.delete();
+			} catch (IOException e) {
+				Log.e(TAG, "Could not pool features for the UBM", e);
+			}
+		}
+	}
+	
+	/**
+	 * Trains the UBM from the pooled frames of all users, streamed from one 
+	 * file rather than held in memory.
+	 */
+	private GaussianMixture trainUbm(List<File> files) throws IOException {
+		long start = System.currentTimeMillis();
+		File poolFile = new File(getFilesDir(), Constants.UBM_FEATURES_FILE_NAME);
+		poolFile.delete();
+		try {
+			for (File userFile : files) {
+				FeatureFile.append(poolFile, readFeatures(userFile));
+			}
+			FeatureFile pool = new FeatureFile(poolFile);
+			try {
+				MiniBatchKMeans kmeans = new MiniBatchKMeans(Constants.UBM_COMPONENTS, 
+						MiniBatchKMeans.DEFAULT_BATCH_SIZE, Constants.UBM_MAX_EPOCHS);
+				GaussianMixture model = GaussianMixture.fromCodebook(kmeans.run(pool), pool);
+				model.runEM(pool, Constants.GMM_MAX_ITERATIONS, GaussianMixture.DEFAULT_THRESHOLD);
+				Log.i(TAG, "UBM training finished after " + kmeans.getEpochs() + " k-means epochs and " 
+						+ model.getIterations() + " EM iterations, total time = " 
+						+ (System.currentTimeMillis() - start) + "ms");
+				return model;
+			} finally {
+				pool.close();
+			}
+		} finally {
+			poolFile.delete();
+		}
+	}
+	
+	/** Reads all frames of a user's pool file, a single enrollment. */
+	private static FeatureVector readFeatures(File file) throws IOException {
+		FeatureFile featureFile = new FeatureFile(file);
+		try {
+			int dimension = featureFile.getDimension();
+			int frameCount = (int) featureFile.getFrameCount();
+			double[] frames = new double[frameCount * dimension];
+			int read = 0;
+			while (read < frameCount) {
+				int count = featureFile.read(frames, read * dimension, frameCount - read);
+				if (count < 0) break;
+				read += count;
+			}
+			FeatureVector features = new FeatureVector(dimension, read);
+			for (int i = 0; i < read; i++) {
+				features.add(frames, i * dimension);
+			}
+			return features;
+		} finally {
+			featureFile.close();
+		}
+	}
+	
+	private File getUbmFeatureFile(long userId) {
+		return new File(new File(getFilesDir(), Constants.UBM_FEATURES_DIR_NAME), userId + ".mfcf");
+	}
+	
+	private static long parseUserId(File userFile) {
+		String name = userFile.getName();
+		try {
+			return Long.parseLong(name.substring(0, name.length() - ".mfcf".length()));
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+	
+	private void refreshIfChanged() {
+		if (codebookIndex == null) {
+			codebookIndex = new CodebookIndex();
+			gaussianMixtures = new HashMap<Long, GaussianMixture>();
+			indexedRepresentations = new HashMap<Long, List<String>>();
+			getContentResolver().registerContentObserver(Feature.CONTENT_URI, true, featureObserver);
+			featuresChanged = true;
+		}
+		if (featuresChanged) {
+			featuresChanged = false;
+			refreshCodebookIndex();
+		}
+	}
+	
+	/**
+	 * Creates the representation of a codebook that is stored in the feature
+	 * table: the binary encoding of {@link CodebookCodec} as Base64 string.
+	 * @param codebook
+	 * @return
+	 */
+	public static String formatCodebook(Codebook codebook) {
+		byte[] encoded = CodebookCodec.encode(codebook, CodebookCodec.PRECISION_FLOAT);
+		return Base64.encodeToString(encoded, Base64.NO_WRAP);
+	}
+	
+	/**
+	 * Parses the representation of a codebook as stored in the feature table.
+	 * Codebooks stored as JSON by older versions are still accepted.
+	 * @param representation
+	 * @return
+	 */
+	public static Codebook parseCodebook(String representation) {
+		if (representation.startsWith("{")) {
+			Gson gson = new Gson();
+			return gson.fromJson(representation, Codebook.class);
+		}
+		return CodebookCodec.decode(Base64.decode(representation, Base64.NO_WRAP));
+	}
+	
+	/**
+	 * Creates the representation of a GMM speaker model that is stored in the
+	 * feature table, next to the codebook of the same user.
+	 * @param gmm
+	 * @return
+	 */
+	public static String formatGaussianMixture(GaussianMixture gmm) {
+		byte[] encoded = GaussianMixtureCodec.encode(gmm, GaussianMixtureCodec.PRECISION_FLOAT);
+		return Base64.encodeToString(encoded, Base64.NO_WRAP);
+	}
+	
+	/**
+	 * Returns true if the representation from the feature table is a GMM
+	 * speaker model rather than a codebook.
+	 * @param representation
+	 * @return
+	 */
+	public static boolean isGaussianMixture(String representation) {
+		return !representation.startsWith("{")
+				&& GaussianMixtureCodec.isEncoded(Base64.decode(representation, Base64.NO_WRAP));
+	}
+	
+	/**
+	 * Parses the representation of a GMM speaker model as stored in the
+	 * feature table.
+	 * @param representation
+	 * @return
+	 */
+	public static GaussianMixture parseGaussianMixture(String representation) {
+		return GaussianMixtureCodec.decode(Base64.decode(representation, Base64.NO_WRAP));
+	}
+	
+	private void refreshCodebookIndex() {
+		Map<Long, List<String>> current = queryRepresentations();
+		
+		for (Long userId : new ArrayList<Long>(indexedRepresentations.keySet())) {
+			if (!current.containsKey(userId)) {
+				codebookIndex.remove(userId);
+				gaussianMixtures.remove(userId);
+				indexedRepresentations.remove(userId);
+				// the deleted user's voice must not stay in the UBM pool
+				getUbmFeatureFile(userId).delete();
+			}
+		}
+		
+		int decoded = 0;
+		for (Map.Entry<Long, List<String>> entry : current.entrySet()) {
+			Long userId = entry.getKey();
+			List<String> representations = entry.getValue();
+			if (representations.equals(indexedRepresentations.get(userId))) {
+				continue;
+			}
+			codebookIndex.remove(userId);
+			gaussianMixtures.remove(userId);
+			for (String representation : representations) {
+				if (isGaussianMixture(representation)) {
+					// the latest model wins
+					gaussianMixtures.put(userId, parseGaussianMixture(representation));
+				} else {
+					codebookIndex.add(userId, parseCodebook(representation));
+				}
+				decoded++;
+			}
+			indexedRepresentations.put(userId, representations);
+		}
+		Log.d(TAG, "Refreshed codebook index, decoded " + decoded + " codebooks and models, total "
+				+ codebookIndex.size() + " codebooks and " + gaussianMixtures.size() + " models");
+	}
+
+	private Map<Long, List<String>> queryRepresentations() {
+		Uri uri = Feature.buildFeaturesForMode(getModeId());
+		String[] columns = {
+				Feature.SUBJECT_ID,
+				Feature.REPRESENTATION
+		};
+		Map<Long, List<String>> representations = new HashMap<Long, List<String>>();
+		Cursor c = getContentResolver().query(uri, columns, null, null, null);
+		try {
+			if (c.moveToFirst()) {
+				int subjectColumn = c.getColumnIndexOrThrow(Feature.SUBJECT_ID);
+				int representationColumn = c.getColumnIndexOrThrow(Feature.REPRESENTATION);
+				do {
+					Long userId = c.getLong(subjectColumn);
+					List<String> list = representations.get(userId);
+					if (list == null) {
+						list = new ArrayList<String>();
+						representations.put(userId, list);
+					}
+					list.add(c.getString(representationColumn));
+				} while (c.moveToNext());
+			}
+		} finally {
+			c.close();
+		}
+		return representations;
+	}
+	
 	private void initAuthMethod() {
 		if (!voiceAuthMethodExists()) {
 			createAuthMethod();
@@ -1,20 +1,16 @@
 package at.fhhgb.auth.voice;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.Map;
 
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
-import android.app.ProgressDialog;
 import android.content.ContentUris;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -28,14 +24,19 @@ import at.fhhgb.auth.lib.util.UIUtils;
 import at.fhhgb.auth.provider.AuthDb.Feature;
 import at.fhhgb.auth.provider.AuthDb.Subject;
 import at.fhooe.mcm.smc.Constants;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.SequentialGmmVerifier;
+import at.fhooe.mcm.smc.math.gmm.UbmScorer;
 import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
 import at.fhooe.mcm.smc.math.mfcc.MFCC;
-import at.fhooe.mcm.smc.math.vq.ClusterUtil;
-import at.fhooe.mcm.smc.math.vq.Codebook;
-import at.fhooe.mcm.smc.wav.WavReader;
+import at.fhooe.mcm.smc.math.mfcc.StreamingMFCC;
+import at.fhooe.mcm.smc.math.mfcc.StreamingMFCC.OnFeatureListener;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
+import at.fhooe.mcm.smc.sample.VoiceActivityDetector;
 import at.fhooe.mcm.smc.wav.WaveRecorder;
-
-import com.google.gson.Gson;
+import at.fhooe.mcm.smc.wav.WaveRecorder.OnBufferListener;
 
 /** 
  * Verifies the entered password for the user with the saved one, or 
@@ -48,6 +49,27 @@ public class VoiceAuthenticatorActivity extends Activity implements OnClickListe
 	private static final int UI_REFRESH_TIME = 250;
 	public static final String TAG = "VoiceAuth";
 	private static final double THRESHOLD = 10000;
+	/** 
+	 * Minimum average log likelihood margin per frame of the claimed GMM over 
+	 * every other user's GMM. Provisional: the equal error rate threshold 
+	 * GmmTest measures on the synthetic recordings of SyntheticSpeakers, 
+	 * with 45 second enrollments. To be measured again on real recordings.
+	 */
+	private static final double GMM_MARGIN_THRESHOLD = 2.5;
+	/** 
+	 * Minimum number of other users' GMMs to verify against, with fewer an outside 
+	 * impostor only has to be closer to the claimed user than to a few others.
+	 */
+	private static final int MIN_COHORT_SIZE = 4;
+	/** 
+	 * Minimum average log likelihood ratio per frame between claimed model and UBM. 
+	 * Provisional: the equal error rate threshold GmmTest measures on the 
+	 * synthetic recordings of SyntheticSpeakers, with 45 second enrollments. 
+	 * To be measured again on real recordings.
+	 */
+	private static final double LIKELIHOOD_RATIO_THRESHOLD = 0.12;
+	private static final int MSG_UPDATE = 0;
+	private static final int MSG_DECIDED = 1;
 	
 	private Uri userUri;
 
@@ -57,23 +79,38 @@ public class VoiceAuthenticatorActivity extends Activity implements OnClickListe
 	
 	private WaveRecorder waveRecorder;
 	private long lastRecordStartTime;
+	private boolean recording;
 	
 	public FeatureVector userFeatureVector;
-    
-    private static File outputFile = 
-			new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MUSIC), 
-					"recording.wav");
+	
+	/** Scores the frames while recording, null if the user has no codebook or a GMM is used. */
+	private SequentialVerifier verifier;
+	/** 
+	 * Scores the frames against the UBM or the other users' GMMs while recording, 
+	 * null if not used. 
+	 */
+	private SequentialGmmVerifier gmmVerifier;
 	
 	private Handler updateUiHandler = new Handler() {
 		public void handleMessage(Message msg) {
+			if (!recording) return;
+			
+			if (msg.what == MSG_DECIDED) {
+				// no need to record any longer
+				stopRecording();
+				Log.i(TAG, "Decided after " + (gmmVerifier != null ? gmmVerifier.getFrameCount() 
+						: verifier.getFrameCount()) + " frames");
+				returnDecision();
+				return;
+			}
+			
 			int elapsed = (int) (System.currentTimeMillis() - lastRecordStartTime);
 			if (elapsed < RECORDING_DURATION) {
 				progressBar.setProgress(elapsed);
-				sendEmptyMessageDelayed(0, UI_REFRESH_TIME);
+				sendEmptyMessageDelayed(MSG_UPDATE, UI_REFRESH_TIME);
 			} else {
-				waveRecorder.stop();
-				progressBar.setProgress(progressBar.getMax());
-				new MfccTask(VoiceAuthenticatorActivity.this).execute(outputFile.getAbsolutePath());
+				stopRecording();
+				btnCheck.setEnabled(true);
 			}
 		}
 	};
@@ -193,64 +230,133 @@ public class VoiceAuthenticatorActivity extends Activity implements OnClickListe
 	}
 
 	private void startRecording() {
-		if (outputFile.exists()) outputFile.delete();
 		btnStartRecording.setEnabled(false);
 		
-		waveRecorder = new WaveRecorder(8000);
-		waveRecorder.setOutputFile(outputFile.getAbsolutePath());
+		VoiceApplication app = (VoiceApplication) getApplication();
+		long claimedUserId = ContentUris.parseId(userUri);
+		gmmVerifier = createGmmVerifier(claimedUserId);
+		// without enough other users' models or a UBM, the GMM has too little to be compared with
+		CodebookIndex codebookIndex = app.getCodebookIndex();
+		verifier = gmmVerifier == null && codebookIndex.contains(claimedUserId) 
+				? new SequentialVerifier(codebookIndex, claimedUserId, THRESHOLD) : null;
+		
+		final StreamingMFCC streamingMfcc = new StreamingMFCC(createMfcc(), 
+				new OnFeatureListener() {
+					@Override
+					public void onFeature(double[] features, int frameIndex) {
+						userFeatureVector.add(features);
+						// called on the recorder's consumer thread
+						if (gmmVerifier != null && gmmVerifier.getDecision() == Decision.UNDECIDED
+								&& gmmVerifier.add(features, 0) != Decision.UNDECIDED) {
+							updateUiHandler.sendEmptyMessage(MSG_DECIDED);
+						}
+						if (verifier != null && verifier.getDecision() == Decision.UNDECIDED
+								&& verifier.add(features, 0) != Decision.UNDECIDED) {
+							updateUiHandler.sendEmptyMessage(MSG_DECIDED);
+						}
+					}
+				});
+		streamingMfcc.setVoiceActivityDetector(new VoiceActivityDetector(Constants.WINDOWSIZE));
+		
+		// features are calculated from the recorded buffers, no file needed
+		int expectedFrames = RECORDING_DURATION * Constants.SAMPLERATE / 1000 
+				/ (Constants.WINDOWSIZE / 2);
+		userFeatureVector = streamingMfcc.createFeatureVector(expectedFrames + 1);
+		
+		waveRecorder = new WaveRecorder(Constants.SAMPLERATE);
+		waveRecorder.setThreadedCapture(true);
+		waveRecorder.setOnBufferListener(new OnBufferListener() {
+			@Override
+			public void onBuffer(byte[] pcm, int offset, int count) {
+				streamingMfcc.add(pcm, offset, count);
+			}
+		});
 		waveRecorder.prepare();
 		waveRecorder.start();
+		recording = true;
 		lastRecordStartTime = System.currentTimeMillis();
-		updateUiHandler.sendEmptyMessage(0);
+		updateUiHandler.sendEmptyMessage(MSG_UPDATE);
+	}
+
+	private void stopRecording() {
+		recording = false;
+		updateUiHandler.removeMessages(MSG_UPDATE);
+		// waits until all recorded frames have been processed
+		waveRecorder.stop();
+		waveRecorder.release();
+		progressBar.setProgress(progressBar.getMax());
+		Log.i(TAG, "Calculated " + userFeatureVector.size() + " vectors of MFCCs while recording");
+	}
+
+	private MFCC createMfcc() {
+		return new MFCC(Constants.SAMPLERATE, Constants.WINDOWSIZE,
+				Constants.COEFFICIENTS, false, Constants.MINFREQ + 1, Constants.MAXFREQ, Constants.FILTERS);
 	}
 
 	private void checkResults() {
-		Cursor allCodebooksCursor = queryAllCodebooks();
 		long claimedUserId = ContentUris.parseId(userUri);
-		long bestUserId = -1;
 		Log.i(TAG, "Starting to check voice features for userId=" + claimedUserId);
-		
-		double minAverageDistortion = Double.MAX_VALUE;
-		if (allCodebooksCursor.moveToFirst()) {
-			do {
-				long currentUserId = allCodebooksCursor.getLong(allCodebooksCursor.getColumnIndexOrThrow(Feature.SUBJECT_ID));
-				Codebook codebook = getCodebookForUser(allCodebooksCursor);
-				double averageDistortion = ClusterUtil.calculateAverageDistortion(
-						userFeatureVector, codebook);
-				
-				Log.d(TAG, "Calculated avg distortion for userId " + currentUserId + " =" + averageDistortion);
-				if (averageDistortion < minAverageDistortion) {
-					minAverageDistortion = averageDistortion;
-					bestUserId = currentUserId;
-				}
-			} while (allCodebooksCursor.moveToNext());
+		if (gmmVerifier == null && verifier == null || userFeatureVector.size() == 0) {
+			Log.w(TAG, "No speaker model or no speech recorded");
+			returnFailure();
+			return;
 		}
 		
-		if (minAverageDistortion <= THRESHOLD && claimedUserId == bestUserId) {
-			returnSuccess(minAverageDistortion);
+		if (gmmVerifier != null) {
+			gmmVerifier.finish();
 		} else {
-			returnFailure();
+			verifier.finish();
 		}
+		returnDecision();
 	}
 
-	private Codebook getCodebookForUser(Cursor cursor) {
-		Gson gson = new Gson();
-		String representation = cursor.getString(cursor
-				.getColumnIndexOrThrow(Feature.REPRESENTATION));
-		Codebook codebook = gson.fromJson(representation,
-				Codebook.class);
-		return codebook;
+	/**
+	 * Scores a model adapted from the UBM against the UBM, any other model 
+	 * against the other users' models.
+	 * @return the verifier, or null if the user has no GMM or there are fewer 
+	 * than {@link #MIN_COHORT_SIZE} models to compare it with
+	 */
+	private SequentialGmmVerifier createGmmVerifier(long claimedUserId) {
+		VoiceApplication app = (VoiceApplication) getApplication();
+		GaussianMixture claimedModel = app.getGaussianMixture(claimedUserId);
+		if (claimedModel == null) {
+			return null;
+		}
+		GaussianMixture ubm = app.getUbm();
+		if (ubm != null && claimedModel.isAdaptedFrom(ubm)) {
+			return new SequentialGmmVerifier(new UbmScorer(ubm, Constants.UBM_TOP_COMPONENTS), 
+					claimedModel, LIKELIHOOD_RATIO_THRESHOLD);
+		}
+		GaussianMixture[] cohort = getCohort(claimedUserId);
+		return cohort.length >= MIN_COHORT_SIZE 
+				? new SequentialGmmVerifier(claimedModel, cohort, GMM_MARGIN_THRESHOLD) : null;
 	}
 
-	private Cursor queryAllCodebooks() {
-		long modeId = ((VoiceApplication) getApplication()).getModeId();
-		Uri uri = Feature.buildFeaturesForMode(modeId);
-		String[] columns = {
-				Feature.SUBJECT_ID,
-				Feature.REPRESENTATION
-		};
-		Cursor cursor = managedQuery(uri, columns, null, null, null);
-		return cursor;
+	/** Returns the GMMs of all users except the claimed one. */
+	private GaussianMixture[] getCohort(long claimedUserId) {
+		Map<Long, GaussianMixture> models = ((VoiceApplication) getApplication()).getGaussianMixtures();
+		models.remove(claimedUserId);
+		return models.values().toArray(new GaussianMixture[models.size()]);
+	}
+
+	private void returnDecision() {
+		if (gmmVerifier != null) {
+			Log.d(TAG, "Decision " + gmmVerifier.getDecision() + ", min avg log likelihood margin = " 
+					+ gmmVerifier.getAverageMargin());
+			if (gmmVerifier.getDecision() == Decision.ACCEPT) {
+				returnSuccess(gmmVerifier.getAverageMargin());
+			} else {
+				returnFailure();
+			}
+			return;
+		}
+		Log.d(TAG, "Decision " + verifier.getDecision() + ", avg distortion =" 
+				+ verifier.getAverageDistortion());
+		if (verifier.getDecision() == Decision.ACCEPT) {
+			returnSuccess(verifier.getAverageDistortion());
+		} else {
+			returnFailure();
+		}
 	}
 
 	private void returnFailure() {
@@ -268,127 +374,4 @@ public class VoiceAuthenticatorActivity extends Activity implements OnClickListe
 		setResult(RESULT_OK, resultIntent);
 		finish();
 	}
-	
-	class MfccTask extends AsyncTask<String, Object, FeatureVector> {
-
-		private ProgressDialog progressDialog;
-		private final Activity parentActivity;
-		
-		public MfccTask(Activity parentActivity) {
-			this.parentActivity = parentActivity;
-		}
-
-		@Override
-		protected FeatureVector doInBackground(String... params) {
-			String filename = params[0];
-			WavReader wavReader = new WavReader(filename);
-			
-			Log.i(TAG, "Starting to read from file " + filename);
-			double[] samples = readSamples(wavReader);
-
-			Log.i(TAG, "Starting to calculate MFCC");
-			double[][] mfcc = calculateMfcc(samples);
-			
-			FeatureVector pl = createFeatureVector(mfcc);
-			
-			return pl;
-		}
-
-
-		private FeatureVector createFeatureVector(double[][] mfcc) {
-			int vectorSize = mfcc[0].length;
-			int vectorCount = mfcc.length;
-			Log.i(TAG, "Creating pointlist with dimension=" + vectorSize + ", count=" + vectorCount);
-			FeatureVector pl = new FeatureVector(vectorSize, vectorCount);
-			for (int i = 0; i < vectorCount; i++) {
-				pl.add(mfcc[i]);
-			}
-			Log.d(CreateVoiceSample.TAG, "Added all MFCC vectors to pointlist");
-			return pl;
-		}
-
-		private short createSample(byte[] buffer) {
-			short sample = 0;
-			// hardcoded two bytes here
-			short b1 = buffer[0];
-			short b2 = buffer[1];
-			b2 <<= 8;
-			sample = (short) (b1 | b2);
-			return sample;
-		}
-
-		private double[][] calculateMfcc(double[] samples) {
-			MFCC mfccCalculator = new MFCC(Constants.SAMPLERATE, Constants.WINDOWSIZE,
-					Constants.COEFFICIENTS, false, Constants.MINFREQ + 1, Constants.MAXFREQ, Constants.FILTERS);
-			
-			int hopSize = Constants.WINDOWSIZE / 2;
-			int mfccCount = (samples.length / hopSize) - 1;
-			double[][] mfcc = new double[mfccCount][Constants.COEFFICIENTS];
-			long start = System.currentTimeMillis();
-			for (int i = 0, pos = 0; pos < samples.length - hopSize; i++, pos += hopSize) {
-				mfcc[i] = mfccCalculator.processWindow(samples, pos);
-				if (i % 20 == 0) {
-					publishProgress("Calculating features...", i, mfccCount);
-				}
-			}
-			publishProgress("Calculating features...", mfccCount, mfccCount);
-
-			Log.i(TAG, "Calculated " + mfcc.length + " vectors of MFCCs in "
-					+ (System.currentTimeMillis() - start) + "ms");
-			return mfcc;
-		}
-
-		private double[] readSamples(WavReader wavReader) {
-			int sampleSize = wavReader.getFrameSize();
-			int sampleCount = wavReader.getPayloadLength() / sampleSize;
-			int windowCount = (int) Math.floor(sampleCount / Constants.WINDOWSIZE);
-			byte[] buffer = new byte[sampleSize];
-			double[] samples = new double[windowCount
-			                              * Constants.WINDOWSIZE];
-			
-			try {
-				for (int i = 0; i < samples.length; i++) {
-					wavReader.read(buffer, 0, sampleSize);
-					samples[i] = createSample(buffer);
-					
-					if (i % 1000 == 0) {
-						publishProgress("Reading samples...", i, samples.length);
-					}
-				}
-			} catch (IOException e) {
-				Log.e(CreateVoiceSample.TAG, "Exception in reading samples", e);
-			}
-			return samples;
-		}
-		
-		@Override
-		protected void onPostExecute(FeatureVector result) {
-			progressDialog.dismiss();
-			userFeatureVector = result;
-			btnCheck.setEnabled(true);
-		}
-		
-		@Override
-		protected void onPreExecute() {
-			progressDialog = new ProgressDialog(parentActivity);
-			progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-			progressDialog.setTitle("Working...");
-			progressDialog.setMessage("Working...");
-			progressDialog.setProgress(0);
-			progressDialog.setMax(10000);
-			progressDialog.show();
-		}
-		
-		@Override
-		protected void onProgressUpdate(Object... values) {
-			String msg = (String) values[0];
-			Integer current = (Integer) values[1];
-			Integer max = (Integer) values[2];
-			
-			progressDialog.setMessage(msg);
-			progressDialog.setProgress(current);
-			progressDialog.setMax(max);
-		}
-		
-	}
 }
\ No newline at end of file
@@ -21,6 +21,21 @@ public final class Constants {
 	public static final int CLUSTER_MAX_ITERATIONS = 10;
 	public static final int CLUSTER_COUNT = 64;
 
+	public static final int GMM_COMPONENTS = 32;
+	public static final int GMM_MAX_ITERATIONS = 20;
+
+	public static final int UBM_COMPONENTS = 64;
+	public static final int UBM_TOP_COMPONENTS = 5;
+	/** Number of pooled enrollment frames needed to train the UBM. */
+	public static final int UBM_MIN_FRAMES = 4000;
+	/** Number of users whose enrollment frames are needed to train the UBM. */
+	public static final int UBM_MIN_SPEAKERS = 5;
+	public static final int UBM_MAX_EPOCHS = 10;
+	public static final String UBM_FILE_NAME = "ubm.gmm";
+	/** Directory of the pooled enrollment frames, one file per user. */
+	public static final String UBM_FEATURES_DIR_NAME = "ubm_features";
+	public static final String UBM_FEATURES_FILE_NAME = "ubm.mfcf";
+
 	public static final int LONG_SAMPLE_DURATION = 15 * 1000;
 	public static final int SHORT_SAMPLE_DURATION = 5 * 1000;
 	public static final int VERIFICATION_SAMPLE_DURATION = 5 * 1000;
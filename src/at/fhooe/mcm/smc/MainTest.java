@@ -329,26 +329,18 @@ public class MainTest {
 		String sampleFilePath = speakerDirPath + File.separator
 				+ sampleFileName;
 		WavReader reader = new WavReader(sampleFilePath);
-		int sampleSize = reader.getFrameSize();
-		int sampleCount = reader.getPayloadLength() / sampleSize;
-		byte[] buffer = new byte[sampleSize];
-
-		int windowCount = (int) Math.floor(sampleCount / Constants.WINDOWSIZE);
+		int windowCount = reader.getSampleCount() / Constants.WINDOWSIZE;
 
 		// Log.d("Starting to read from file " + shortenPath(sampleFilePath));
 		double[] sampleValues = new double[windowCount * Constants.WINDOWSIZE];
-		for (int i = 0; i < sampleValues.length; i++) {
-			reader.read(buffer, 0, sampleSize);
-			short sample = 0;
-			// hardcoded two bytes here
-			short b1 = buffer[0];
-			short b2 = buffer[1];
-			b2 <<= 8;
-			sample = (short) (b1 | b2);
-			sampleValues[i] = sample;
-			if (i % 1000 == 0) {
-			}
+		int read = 0;
+		while (read < sampleValues.length) {
+			int count = reader.readSamples(sampleValues, read,
+					sampleValues.length - read);
+			if (count < 0) break;
+			read += count;
 		}
+		reader.close();
 		return sampleValues;
 	}
 
@@ -0,0 +1,252 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+
+/**
+ * Trains a codebook with the Linde-Buzo-Gray algorithm: starting with the
+ * mean of all points, every centroid is split in two and the codebook is
+ * refined with Lloyd iterations until the distortion no longer decreases by
+ * more than a relative threshold. This is repeated until the codebook has the
+ * requested size, giving codebooks of 1, 2, 4, ... centroids on the way.
+ * <p>
+ * Centroids are split along the standard deviation of the data, so training
+ * is deterministic: the same points always give the same codebook. If the
+ * size is not a power of two, the centroids with the highest distortion are
+ * split in the last step.
+ */
+public class Lbg {
+
+	/** Default split offset, as fraction of the standard deviation. */
+	public static final double DEFAULT_SPLIT_EPSILON = 0.01;
+	/** Default relative distortion decrease below which a step is finished. */
+	public static final double DEFAULT_THRESHOLD = 0.001;
+	/** Default maximum number of Lloyd iterations per step. */
+	public static final int DEFAULT_MAX_ITERATIONS = 20;
+
+	private final FeatureVector featureVector;
+	private final int codebookSize;
+	private final double splitEpsilon;
+	private final double threshold;
+	private final int maxIterations;
+
+	private final int dimension;
+	private double[] centroids;
+	private int length;
+	private double distortion;
+	private int iterations;
+
+	/** Number of points and distortion of each centroid in the last pass. */
+	private int[] counts;
+	private double[] cellDistortions;
+	private double[] sums;
+	private double[] squaredSums;
+
+	public Lbg(int codebookSize, FeatureVector featureVector) {
+		this(codebookSize, featureVector, DEFAULT_SPLIT_EPSILON,
+				DEFAULT_THRESHOLD, DEFAULT_MAX_ITERATIONS);
+	}
+
+	public Lbg(int codebookSize, FeatureVector featureVector,
+			double splitEpsilon, double threshold, int maxIterations) {
+		if (codebookSize < 1)
+			throw new IllegalArgumentException("Codebook size must be >= 1");
+		if (featureVector == null || featureVector.size() < codebookSize)
+			throw new IllegalArgumentException(
+					"Feature vector must contain at least as many points as the codebook");
+		if (splitEpsilon <= 0 || threshold < 0 || maxIterations < 1)
+			throw new IllegalArgumentException(
+					"Split epsilon must be > 0, threshold >= 0 and max iterations >= 1");
+
+		this.codebookSize = codebookSize;
+		this.featureVector = featureVector;
+		this.splitEpsilon = splitEpsilon;
+		this.threshold = threshold;
+		this.maxIterations = maxIterations;
+		this.dimension = featureVector.getDimension();
+	}
+
+	/**
+	 * Trains the codebook.
+	 *
+	 * @return the trained codebook
+	 */
+	public Codebook run() {
+		centroids = new double[codebookSize * dimension];
+		counts = new int[codebookSize];
+		cellDistortions = new double[codebookSize];
+		sums = new double[codebookSize * dimension];
+		squaredSums = new double[codebookSize * dimension];
+		iterations = 0;
+
+		// a single centroid at the mean of all points
+		length = 1;
+		refine();
+		while (length < codebookSize) {
+			split(Math.min(length, codebookSize - length));
+			refine();
+		}
+		return getCodebook();
+	}
+
+	/**
+	 * Splits the given number of centroids with the highest distortion, along
+	 * the standard deviation of their cells.
+	 */
+	private void split(int number) {
+		Integer[] order = new Integer[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+		if (number < length) {
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return Double.compare(cellDistortions[b], cellDistortions[a]);
+				}
+			});
+		}
+
+		for (int s = 0; s < number; s++) {
+			int c = order[s] * dimension;
+			int n = (length + s) * dimension;
+			// an empty cell has no spread, the next pass repairs the duplicate
+			double factor = counts[order[s]] > 0 ? 1d / counts[order[s]] : 0;
+			for (int d = 0; d < dimension; d++) {
+				double mean = sums[c + d] * factor;
+				double variance = squaredSums[c + d] * factor - mean * mean;
+				double offset = splitEpsilon * Math.sqrt(Math.max(0, variance));
+				centroids[n + d] = centroids[c + d] - offset;
+				centroids[c + d] += offset;
+			}
+		}
+		length += number;
+	}
+
+	/**
+	 * Runs Lloyd iterations on the current centroids until the relative
+	 * decrease of the distortion falls below the threshold.
+	 */
+	private void refine() {
+		double oldDistortion = Double.MAX_VALUE;
+		boolean repaired = false;
+		for (int i = 0; i < maxIterations; i++) {
+			assign();
+			iterations++;
+			boolean converged = oldDistortion - distortion <= threshold * distortion;
+			oldDistortion = distortion;
+
+			repaired = updateCentroids();
+			if (converged && !repaired)
+				break;
+		}
+		// the cell statistics split() uses must belong to the repaired centroids
+		if (repaired) {
+			assign();
+		}
+	}
+
+	/**
+	 * Assigns each point to its nearest centroid, accumulating the sums,
+	 * counts and distortions of each cell.
+	 */
+	private void assign() {
+		double[] points = featureVector.getData();
+		int size = featureVector.size();
+		Arrays.fill(counts, 0, length, 0);
+		Arrays.fill(cellDistortions, 0, length, 0);
+		Arrays.fill(sums, 0, length * dimension, 0);
+		Arrays.fill(squaredSums, 0, length * dimension, 0);
+
+		double total = 0;
+		for (int k = 0; k < size; k++) {
+			int p = featureVector.getOffset(k);
+			double minDistance = Double.MAX_VALUE;
+			int nearest = 0;
+			for (int j = 0; j < length; j++) {
+				double d = ClusterUtil.squaredDistance(points, p, centroids,
+						j * dimension, dimension, minDistance);
+				if (d < minDistance) {
+					minDistance = d;
+					nearest = j;
+				}
+			}
+
+			total += minDistance;
+			counts[nearest]++;
+			cellDistortions[nearest] += minDistance;
+			int s = nearest * dimension;
+			for (int d = 0; d < dimension; d++) {
+				double x = points[p + d];
+				sums[s + d] += x;
+				squaredSums[s + d] += x * x;
+			}
+		}
+		distortion = total / size;
+	}
+
+	/**
+	 * Moves each centroid to the mean of its cell. An empty cell takes over
+	 * half of the cell with the highest distortion, by splitting that one.
+	 *
+	 * @return true if an empty cell was repaired, the cell statistics are
+	 *         then out of date
+	 */
+	private boolean updateCentroids() {
+		boolean repaired = false;
+		for (int j = 0; j < length; j++) {
+			if (counts[j] == 0)
+				continue;
+			double factor = 1d / counts[j];
+			for (int d = 0; d < dimension; d++) {
+				centroids[j * dimension + d] = sums[j * dimension + d] * factor;
+			}
+		}
+
+		for (int j = 0; j < length; j++) {
+			if (counts[j] > 0)
+				continue;
+
+			int worst = 0;
+			for (int i = 1; i < length; i++) {
+				if (cellDistortions[i] > cellDistortions[worst]) {
+					worst = i;
+				}
+			}
+			double spread = Math.sqrt(cellDistortions[worst]
+					/ Math.max(1, counts[worst]) / dimension);
+			for (int d = 0; d < dimension; d++) {
+				double offset = splitEpsilon * spread;
+				centroids[j * dimension + d] = centroids[worst * dimension + d] - offset;
+				centroids[worst * dimension + d] += offset;
+			}
+			// do not split the same cell again in this pass
+			cellDistortions[worst] /= 2;
+			cellDistortions[j] = cellDistortions[worst];
+			counts[j] = counts[worst] = Math.max(1, counts[worst] / 2);
+			repaired = true;
+		}
+		return repaired;
+	}
+
+	/** Returns the trained codebook, or the current one during training. */
+	public Codebook getCodebook() {
+		if (centroids == null)
+			throw new RuntimeException("there is no codebook yet;");
+		return Codebook.create(Arrays.copyOf(centroids, length * dimension),
+				dimension);
+	}
+
+	/** Returns the average distortion of the last assignment pass. */
+	public double getDistortion() {
+		return distortion;
+	}
+
+	/** Returns the total number of Lloyd iterations of all steps. */
+	public int getIterations() {
+		return iterations;
+	}
+}
@@ -3,71 +3,137 @@ package at.fhooe.mcm.smc.math.fft;
 import at.fhooe.mcm.smc.math.window.HammingWindow;
 import at.fhooe.mcm.smc.math.window.WindowFunction;
 
-/** Custom normalized power FFT. */
+/**
+ * Custom normalized power FFT. In real input mode the window is packed into a
+ * complex sequence of half the length, which halves the work for audio
+ * samples. Twiddle factors and bit-reversal permutations are computed once
+ * per instance.
+ */
 public final class FFT {
 
 	public static final int FFT_FORWARD = -1;
 
 	public static final int FFT_REVERSE = 1;
-	
+
 	private static final int FFT_DIRECTION = FFT_FORWARD;
 
 	private WindowFunction windowFunction;
 	private int windowSize;
+	private boolean realInput;
 	private static final double twoPI = 2 * Math.PI;
-	
+
+	/** cos(2*PI*k/windowSize) for k in [0, windowSize/2). */
+	private double[] cosTable;
+	/** sin(2*PI*k/windowSize) for k in [0, windowSize/2). */
+	private double[] sinTable;
+	/** Bit reversal permutation for the size of the complex FFT. */
+	private int[] bitReverse;
+
 	public FFT(int windowSize) {
 		this(windowSize, new HammingWindow(windowSize));
 	}
-	
+
 	public FFT(int windowSize, WindowFunction windowFunction) {
+		this(windowSize, windowFunction, false);
+	}
+
+	/**
+	 * Creates a FFT object.
+	 *
+	 * @param windowSize
+	 *            the window size, must be a power of 2
+	 * @param windowFunction
+	 *            the window function applied before each transform
+	 * @param realInput
+	 *            if true, the input is treated as purely real and transformed
+	 *            with a complex FFT of half the window size
+	 */
+	public FFT(int windowSize, WindowFunction windowFunction, boolean realInput) {
 		this.windowSize = windowSize;
 		if (windowSize != (1 << ((int) Math.rint(Math.log(windowSize)
 				/ Math.log(2)))))
 			throw new IllegalArgumentException("Illegal FFT window size: " + windowSize + " is not power of 2");
+		if (realInput && windowSize < 4)
+			throw new IllegalArgumentException("Real input FFT window size must be at least 4");
 
 		if (windowFunction == null) {
 			throw new IllegalArgumentException("Window function must not be null");
 		}
 		this.windowFunction = windowFunction;
+		this.realInput = realInput;
+
+		createTables();
+	}
+
+	private void createTables() {
+		int half = windowSize / 2;
+		cosTable = new double[half];
+		sinTable = new double[half];
+		for (int k = 0; k < half; k++) {
+			double theta = twoPI * k / windowSize;
+			cosTable[k] = Math.cos(theta);
+			sinTable[k] = Math.sin(theta);
+		}
+
+		int n = realInput ? half : windowSize;
+		bitReverse = new int[n];
+		int bits = Integer.numberOfTrailingZeros(n);
+		for (int i = 0; i < n; i++) {
+			bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
 	}
 
-	/** Transforms in place. Imaginary part ignored for now. */
+	/**
+	 * Transforms in place into the normalized power spectrum. The imaginary
+	 * array is only used as scratch space: it must hold at least
+	 * {@link #getScratchSize()} values, or be null, in which case a temporary
+	 * array is allocated.
+	 */
 	public void transform(double[] re, double[] im) {
 		if (re.length < windowSize)
 			throw new IllegalArgumentException(
 					"FFT input must be equal length to window size");
 
+		if (im == null || im.length < getScratchSize()) {
+			im = new double[getScratchSize()];
+		}
+
 		if (windowFunction != null) {
 			windowFunction.applyWindow(re);
 		}
 
-		normalizedPowerFFT(re);
+		if (realInput) {
+			normalizedPowerRealFFT(re, im);
+		} else {
+			normalizedPowerFFT(re, im);
+		}
+	}
+
+	/**
+	 * Returns the minimum length of the scratch array passed to
+	 * {@link #transform(double[], double[])}.
+	 */
+	public int getScratchSize() {
+		return realInput ? windowSize / 2 : windowSize;
 	}
 
 	/**
 	 * The FFT method. Calculation is inline, for complex data stored in 2
-	 * separate arrays. Length of input data must be a power of two.
-	 * 
+	 * separate arrays. Only the first n values of each array are transformed,
+	 * n must match the size of the precomputed bit reversal table.
+	 *
 	 * @param re
 	 *            the real part of the complex input and output data
 	 * @param im
 	 *            the imaginary part of the complex input and output data
+	 * @param n
+	 *            the length of the complex data
 	 * @param direction
 	 *            the direction of the Fourier transform (FORWARD or REVERSE)
-	 * @throws IllegalArgumentException
-	 *             if the length of the input data is not a power of 2
 	 */
-	private void fft(double re[], double im[], int direction) {
-		int n = re.length;
-		int bits = (int) Math.rint(Math.log(n) / Math.log(2));
-
-		if (n != (1 << bits))
-			throw new IllegalArgumentException("fft data must be power of 2");
-
-		int localN;
-		int j = 0;
-		for (int i = 0; i < n - 1; i++) {
+	private void fft(double re[], double im[], int n, int direction) {
+		for (int i = 0; i < n; i++) {
+			int j = bitReverse[i];
 			if (i < j) {
 				double temp = re[j];
 				re[j] = re[i];
@@ -76,26 +142,15 @@ public final class FFT {
 				im[j] = im[i];
 				im[i] = temp;
 			}
-
-			int k = n / 2;
-
-			while ((k >= 1) && (k - 1 < j)) {
-				j = j - k;
-				k = k / 2;
-			}
-
-			j = j + k;
 		}
 
-		for (int m = 1; m <= bits; m++) {
-			localN = 1 << m;
-			double Wjk_r = 1;
-			double Wjk_i = 0;
-			double theta = twoPI / localN;
-			double Wj_r = Math.cos(theta);
-			double Wj_i = direction * Math.sin(theta);
+		for (int localN = 2; localN <= n; localN <<= 1) {
 			int nby2 = localN / 2;
-			for (j = 0; j < nby2; j++) {
+			// stride into the twiddle tables, which are based on windowSize
+			int step = windowSize / localN;
+			for (int j = 0; j < nby2; j++) {
+				double Wjk_r = cosTable[j * step];
+				double Wjk_i = direction * sinTable[j * step];
 				for (int k = j; k < n; k += localN) {
 					int id = k + nby2;
 					double tempr = Wjk_r * re[id] - Wjk_i * im[id];
@@ -105,29 +160,97 @@ public final class FFT {
 					re[k] += tempr;
 					im[k] += tempi;
 				}
-				double wtemp = Wjk_r;
-				Wjk_r = Wj_r * Wjk_r - Wj_i * Wjk_i;
-				Wjk_i = Wj_r * Wjk_i + Wj_i * wtemp;
 			}
 		}
 	}
 
 
-	private void normalizedPowerFFT(double[] re) {
-		double[] im = new double[re.length];
+	private void normalizedPowerFFT(double[] re, double[] im) {
 		double r, i;
 
-		fft(re, im, FFT_FORWARD);
+		for (int j = 0; j < windowSize; j++) {
+			im[j] = 0;
+		}
+
+		fft(re, im, windowSize, FFT_DIRECTION);
 
 		double windowSum = windowFunction.getWindowSum();
-		for (int j = 0; j < re.length; j++) {
+		for (int j = 0; j < windowSize; j++) {
 			r = re[j] / windowSum * 2;
 			i = im[j] / windowSum * 2;
 			re[j] = r * r + i * i;
 		}
 	}
 
+	/**
+	 * Computes the same normalized power spectrum as
+	 * {@link #normalizedPowerFFT(double[], double[])}, but packs even samples
+	 * into the real and odd samples into the imaginary part of a complex
+	 * sequence of length n/2, then separates the two spectra afterwards.
+	 */
+	private void normalizedPowerRealFFT(double[] re, double[] im) {
+		int half = windowSize / 2;
+
+		// pack: z[m] = x[2m] + i * x[2m+1]
+		for (int m = 0; m < half; m++) {
+			im[m] = re[2 * m + 1];
+			re[m] = re[2 * m];
+		}
+
+		fft(re, im, half, FFT_DIRECTION);
+
+		double scale = 2 / windowFunction.getWindowSum();
+		scale *= scale;
+
+		// DC and nyquist bins only depend on z[0]
+		double z0r = re[0];
+		double z0i = im[0];
+		re[0] = (z0r + z0i) * (z0r + z0i) * scale;
+		re[half] = (z0r - z0i) * (z0r - z0i) * scale;
+
+		// unpack bins k and half-k together, as both need z[k] and z[half-k]
+		for (int k = 1, l = half - 1; k <= l; k++, l--) {
+			double ar = re[k];
+			double ai = im[k];
+			double br = re[l];
+			double bi = im[l];
+
+			re[k] = unpackedPower(ar, ai, br, bi, k) * scale;
+			if (k != l) {
+				re[l] = unpackedPower(br, bi, ar, ai, l) * scale;
+			}
+		}
+
+		// mirror the redundant upper half of the spectrum
+		for (int k = 1; k < half; k++) {
+			re[windowSize - k] = re[k];
+		}
+	}
+
+	/**
+	 * Returns |X[k]|^2 with X[k] = E[k] + W^k * O[k], where the even and odd
+	 * spectra are recovered from a = z[k] and b = z[n/2-k].
+	 */
+	private double unpackedPower(double ar, double ai, double br, double bi,
+			int k) {
+		double er = (ar + br) * 0.5d;
+		double ei = (ai - bi) * 0.5d;
+		double or = (ai + bi) * 0.5d;
+		double oi = (br - ar) * 0.5d;
+
+		double wr = cosTable[k];
+		double wi = FFT_DIRECTION * sinTable[k];
+
+		double xr = er + wr * or - wi * oi;
+		double xi = ei + wr * oi + wi * or;
+		return xr * xr + xi * xi;
+	}
+
 	public void setWindowFunction(WindowFunction windowFunction) {
 		this.windowFunction = windowFunction;
 	}
-}
\ No newline at end of file
+
+	public boolean isRealInput() {
+		return realInput;
+	}
+}
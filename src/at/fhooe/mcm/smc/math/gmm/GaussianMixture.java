@@ -0,0 +1,586 @@
+package at.fhooe.mcm.smc.math.gmm;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.mfcc.FrameSource;
+import at.fhooe.mcm.smc.math.vq.Cluster;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+import at.fhooe.mcm.smc.math.vq.MiniBatchKMeans;
+
+/**
+ * Gaussian mixture model with diagonal covariances, used as speaker model.
+ * The model is initialised from a {@link KMeans} clustering and trained with
+ * the expectation maximisation algorithm, see {@link #runEM(FeatureVector)},
+ * or adapted from a universal background model, see
+ * {@link #adapt(FeatureVector, double)}. Background models trained from more
+ * frames than fit into memory are initialised from a
+ * {@link MiniBatchKMeans} codebook and trained from a {@link FrameSource}
+ * instead.
+ * <p>
+ * The log of each component's weight and normalisation factor and the
+ * inverse variances are precomputed, so the log likelihood of a frame is a
+ * single loop over all means. The components are added up with the log-sum-exp
+ * trick, so frames far from every component do not underflow to zero.
+ * <p>
+ * Scoring is thread safe, training is not.
+ */
+public class GaussianMixture {
+
+	/** Default number of EM iterations. */
+	public static final int DEFAULT_MAX_ITERATIONS = 20;
+	/** Default increase of the average log likelihood below which EM stops. */
+	public static final double DEFAULT_THRESHOLD = 0.001;
+	/**
+	 * Smallest variance of a component, as fraction of the variance of all
+	 * frames. Keeps components that collapse onto few frames from becoming
+	 * singular.
+	 */
+	public static final double VARIANCE_FLOOR = 0.01;
+	/**
+	 * Default relevance factor of the MAP adaptation: the number of frames
+	 * at which a component moves halfway from its background mean.
+	 */
+	public static final double DEFAULT_RELEVANCE_FACTOR = 16;
+
+	private static final double LOG_2_PI = Math.log(2 * Math.PI);
+	/** Number of frames read from a frame source at once. */
+	private static final int BLOCK_FRAMES = 256;
+
+	private final int dimension;
+	private final int components;
+
+	private final double[] weights;
+	/** Means of all components, packed one after another. */
+	private final double[] means;
+	/** Variances of all components, packed like the means. */
+	private final double[] variances;
+
+	/** -0.5 / variance, packed like the means. */
+	private final double[] scales;
+	/** Log of weight and normalisation factor of each component. */
+	private final double[] logConstants;
+
+	private int iterations;
+
+	/**
+	 * Creates a mixture with the given parameters. The arrays are copied.
+	 *
+	 * @param weights
+	 *            weight of each component, adding up to 1
+	 * @param means
+	 *            means of all components, packed one after another
+	 * @param variances
+	 *            variances of all components, packed like the means
+	 */
+	public GaussianMixture(double[] weights, double[] means, double[] variances) {
+		if (weights == null || weights.length == 0 || means == null
+				|| means.length == 0 || means.length % weights.length != 0
+				|| variances == null || variances.length != means.length)
+			throw new IllegalArgumentException(
+					"Weights, means and variances must not be empty and their sizes must agree");
+		for (int i = 0; i < variances.length; i++) {
+			if (!(variances[i] > 0))
+				throw new IllegalArgumentException("Variances must be > 0");
+		}
+
+		this.components = weights.length;
+		this.dimension = means.length / components;
+		this.weights = weights.clone();
+		this.means = means.clone();
+		this.variances = variances.clone();
+		this.scales = new double[means.length];
+		this.logConstants = new double[components];
+		precompute();
+	}
+
+	/**
+	 * Creates a mixture with one component per cluster of a finished
+	 * clustering: the weights are the fractions of points in each cluster,
+	 * the means and variances those of the points of each cluster. Empty
+	 * clusters get no weight.
+	 */
+	public static GaussianMixture fromKMeans(KMeans kmeans, FeatureVector featureVector) {
+		int components = kmeans.getNumberClusters();
+		int dimension = featureVector.getDimension();
+		double[] weights = new double[components];
+		double[] means = new double[components * dimension];
+		double[] variances = new double[components * dimension];
+		double[] floor = varianceFloor(featureVector);
+
+		for (int k = 0; k < components; k++) {
+			Cluster cluster = kmeans.getCluster(k);
+			weights[k] = (double) cluster.getElementCount() / featureVector.size();
+			double[][] mean = kmeans.getMean(k).getArray();
+			double[] variance = cluster.getElementCount() > 0 ? cluster
+					.getVariance() : floor;
+			for (int d = 0; d < dimension; d++) {
+				means[k * dimension + d] = mean[d][0];
+				variances[k * dimension + d] = Math.max(variance[d], floor[d]);
+			}
+		}
+		return new GaussianMixture(weights, means, variances);
+	}
+
+	/**
+	 * Creates a mixture with one component per centroid of a codebook, with
+	 * the frames of the source assigned to their nearest centroid: the weights
+	 * are the fractions of frames of each centroid, the means and variances
+	 * those of the frames of each centroid. Centroids without frames get no
+	 * weight. The frames are read in blocks, so they do not have to fit into
+	 * memory.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the source has no frames or a different dimension
+	 */
+	public static GaussianMixture fromCodebook(Codebook codebook,
+			FrameSource source) throws IOException {
+		int dimension = codebook.getDimension();
+		if (source.getDimension() != dimension)
+			throw new IllegalArgumentException("feature dimension "
+					+ source.getDimension()
+					+ " does not match codebook dimension " + dimension);
+		double[] centroids = codebook.getCentroidValues();
+		int components = centroids.length / dimension;
+		double[] counts = new double[components];
+		double[] sums = new double[centroids.length];
+		double[] squaredSums = new double[centroids.length];
+		double[] block = new double[BLOCK_FRAMES * dimension];
+
+		long frames = 0;
+		source.reset();
+		int read;
+		while ((read = source.read(block, 0, BLOCK_FRAMES)) > 0) {
+			for (int t = 0, p = 0; t < read; t++, p += dimension) {
+				double minDistance = Double.MAX_VALUE;
+				int nearest = 0;
+				for (int k = 0, c = 0; k < components; k++, c += dimension) {
+					double distance = ClusterUtil.squaredDistance(block, p,
+							centroids, c, dimension, minDistance);
+					if (distance < minDistance) {
+						minDistance = distance;
+						nearest = k;
+					}
+				}
+				counts[nearest]++;
+				for (int d = 0, i = nearest * dimension; d < dimension; d++, i++) {
+					sums[i] += block[p + d];
+					squaredSums[i] += block[p + d] * block[p + d];
+				}
+			}
+			frames += read;
+		}
+		if (frames == 0)
+			throw new IllegalArgumentException("Source must not be empty");
+
+		double[] floor = varianceFloor(sums, squaredSums, counts, frames);
+		double[] weights = new double[components];
+		double[] means = centroids.clone();
+		double[] variances = new double[centroids.length];
+		for (int k = 0; k < components; k++) {
+			weights[k] = counts[k] / frames;
+			for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+				if (counts[k] > 0) {
+					means[i] = sums[i] / counts[k];
+					variances[i] = Math.max(floor[d], squaredSums[i] / counts[k]
+							- means[i] * means[i]);
+				} else {
+					variances[i] = floor[d];
+				}
+			}
+		}
+		return new GaussianMixture(weights, means, variances);
+	}
+
+	/**
+	 * Returns the variance floor of each dimension from the per component
+	 * sums of frame values and squared values.
+	 */
+	private static double[] varianceFloor(double[] sums,
+			double[] squaredSums, double[] counts, long frames) {
+		int dimension = sums.length / counts.length;
+		double[] sum = new double[dimension];
+		double[] squaredSum = new double[dimension];
+		for (int i = 0; i < sums.length; i++) {
+			sum[i % dimension] += sums[i];
+			squaredSum[i % dimension] += squaredSums[i];
+		}
+		return varianceFloor(sum, squaredSum, frames);
+	}
+
+	/** Returns the variance floor of each dimension for the given frames. */
+	private static double[] varianceFloor(FeatureVector featureVector) {
+		int dimension = featureVector.getDimension();
+		double[] points = featureVector.getData();
+		double[] sum = new double[dimension];
+		double[] squaredSum = new double[dimension];
+		for (int t = 0; t < featureVector.size(); t++) {
+			int p = featureVector.getOffset(t);
+			for (int d = 0; d < dimension; d++) {
+				sum[d] += points[p + d];
+				squaredSum[d] += points[p + d] * points[p + d];
+			}
+		}
+		return varianceFloor(sum, squaredSum, featureVector.size());
+	}
+
+	private static double[] varianceFloor(double[] sum, double[] squaredSum,
+			long frames) {
+		int dimension = sum.length;
+		double[] floor = new double[dimension];
+		double factor = 1d / frames;
+		for (int d = 0; d < dimension; d++) {
+			double mean = sum[d] * factor;
+			double variance = squaredSum[d] * factor - mean * mean;
+			// constant dimensions still need a variance
+			floor[d] = Math.max(VARIANCE_FLOOR * variance, 1e-10);
+		}
+		return floor;
+	}
+
+	private void precompute() {
+		for (int k = 0; k < components; k++) {
+			double logDeterminant = 0;
+			for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+				logDeterminant += Math.log(variances[i]);
+				scales[i] = -0.5 / variances[i];
+			}
+			logConstants[k] = Math.log(weights[k]) - 0.5
+					* (dimension * LOG_2_PI + logDeterminant);
+		}
+	}
+
+	/** Trains the mixture with the default number of iterations and threshold. */
+	public int runEM(FeatureVector featureVector) {
+		return runEM(featureVector, DEFAULT_MAX_ITERATIONS, DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Trains the mixture with the expectation maximisation algorithm, until
+	 * the average log likelihood per frame increases by less than the
+	 * threshold.
+	 *
+	 * @return the number of iterations
+	 */
+	public int runEM(FeatureVector featureVector, int maxIterations,
+			double threshold) {
+		checkDimension(featureVector);
+		if (maxIterations < 1 || threshold < 0)
+			throw new IllegalArgumentException(
+					"Max iterations must be >= 1 and threshold >= 0");
+
+		double[] points = featureVector.getData();
+		double[] floor = varianceFloor(featureVector);
+		double[] posteriors = new double[components];
+		double[] counts = new double[components];
+		double[] sums = new double[means.length];
+		double[] squaredSums = new double[means.length];
+
+		double logLikelihood = Double.NEGATIVE_INFINITY;
+		for (iterations = 0; iterations < maxIterations;) {
+			Arrays.fill(counts, 0);
+			Arrays.fill(sums, 0);
+			Arrays.fill(squaredSums, 0);
+
+			// expectation: posterior of each component for each frame
+			double total = 0;
+			for (int t = 0; t < featureVector.size(); t++) {
+				total += accumulate(points, featureVector.getOffset(t),
+						posteriors, counts, sums, squaredSums);
+			}
+
+			maximise(counts, sums, squaredSums, featureVector.size(), floor);
+			iterations++;
+
+			double average = total / featureVector.size();
+			if (average - logLikelihood < threshold)
+				break;
+			logLikelihood = average;
+		}
+		return iterations;
+	}
+
+	/**
+	 * Trains the mixture with the expectation maximisation algorithm like
+	 * {@link #runEM(FeatureVector, int, double)}, reading the frames from the
+	 * source in blocks, once per iteration, so the frames do not have to fit
+	 * into memory.
+	 *
+	 * @return the number of iterations
+	 */
+	public int runEM(FrameSource source, int maxIterations, double threshold)
+			throws IOException {
+		if (source.getDimension() != dimension)
+			throw new IllegalArgumentException("feature dimension "
+					+ source.getDimension()
+					+ " does not match model dimension " + dimension);
+		if (maxIterations < 1 || threshold < 0)
+			throw new IllegalArgumentException(
+					"Max iterations must be >= 1 and threshold >= 0");
+
+		double[] block = new double[BLOCK_FRAMES * dimension];
+		double[] posteriors = new double[components];
+		double[] counts = new double[components];
+		double[] sums = new double[means.length];
+		double[] squaredSums = new double[means.length];
+		double[] floor = null;
+
+		double logLikelihood = Double.NEGATIVE_INFINITY;
+		for (iterations = 0; iterations < maxIterations;) {
+			Arrays.fill(counts, 0);
+			Arrays.fill(sums, 0);
+			Arrays.fill(squaredSums, 0);
+
+			double total = 0;
+			long frames = 0;
+			source.reset();
+			int read;
+			while ((read = source.read(block, 0, BLOCK_FRAMES)) > 0) {
+				for (int t = 0; t < read; t++) {
+					total += accumulate(block, t * dimension, posteriors,
+							counts, sums, squaredSums);
+				}
+				frames += read;
+			}
+			if (frames == 0)
+				throw new IllegalArgumentException("Source must not be empty");
+			if (floor == null) {
+				// the sums over all components are those of all frames
+				floor = varianceFloor(sums, squaredSums, counts, frames);
+			}
+
+			maximise(counts, sums, squaredSums, frames, floor);
+			iterations++;
+
+			double average = total / frames;
+			if (average - logLikelihood < threshold)
+				break;
+			logLikelihood = average;
+		}
+		return iterations;
+	}
+
+	/**
+	 * Adds the posterior weighted frame to the sums of each component.
+	 *
+	 * @return the log likelihood of the frame
+	 */
+	private double accumulate(double[] points, int p, double[] posteriors,
+			double[] counts, double[] sums, double[] squaredSums) {
+		double frame = componentLogLikelihoods(points, p, posteriors);
+		for (int k = 0; k < components; k++) {
+			double posterior = Math.exp(posteriors[k] - frame);
+			if (posterior == 0)
+				continue;
+			counts[k] += posterior;
+			for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+				double x = points[p + d];
+				sums[i] += posterior * x;
+				squaredSums[i] += posterior * x * x;
+			}
+		}
+		return frame;
+	}
+
+	/** Sets the parameters from the sums, components without frames keep their place. */
+	private void maximise(double[] counts, double[] sums,
+			double[] squaredSums, long frames, double[] floor) {
+		for (int k = 0; k < components; k++) {
+			weights[k] = counts[k] / frames;
+			if (counts[k] < 1e-10)
+				continue;
+			for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+				means[i] = sums[i] / counts[k];
+				variances[i] = Math.max(floor[d], squaredSums[i] / counts[k]
+						- means[i] * means[i]);
+			}
+		}
+		precompute();
+	}
+
+	/**
+	 * Adapts the means of this model, used as universal background model, to
+	 * the frames of a speaker (maximum a posteriori adaptation). Each mean
+	 * moves towards the mean of the frames it explains, the further the more
+	 * frames it explains. Weights and variances are kept, so the components
+	 * of the adapted model correspond to those of this one, see
+	 * {@link #isAdaptedFrom(GaussianMixture)}.
+	 *
+	 * @param relevanceFactor
+	 *            number of frames at which a mean moves halfway, > 0
+	 * @return the adapted model
+	 */
+	public GaussianMixture adapt(FeatureVector featureVector,
+			double relevanceFactor) {
+		checkDimension(featureVector);
+		if (!(relevanceFactor > 0))
+			throw new IllegalArgumentException("Relevance factor must be > 0");
+
+		double[] points = featureVector.getData();
+		double[] posteriors = new double[components];
+		double[] counts = new double[components];
+		double[] sums = new double[means.length];
+		for (int t = 0; t < featureVector.size(); t++) {
+			int p = featureVector.getOffset(t);
+			double frame = componentLogLikelihoods(points, p, posteriors);
+			for (int k = 0; k < components; k++) {
+				double posterior = Math.exp(posteriors[k] - frame);
+				if (posterior == 0)
+					continue;
+				counts[k] += posterior;
+				for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+					sums[i] += posterior * points[p + d];
+				}
+			}
+		}
+
+		double[] adapted = means.clone();
+		for (int k = 0; k < components; k++) {
+			if (counts[k] < 1e-10)
+				continue;
+			double alpha = counts[k] / (counts[k] + relevanceFactor);
+			for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+				adapted[i] = alpha * sums[i] / counts[k] + (1 - alpha)
+						* means[i];
+			}
+		}
+		return new GaussianMixture(weights, adapted, variances);
+	}
+
+	/**
+	 * Returns true if the model was adapted from the background model, so
+	 * its components correspond to those of the background model.
+	 */
+	public boolean isAdaptedFrom(GaussianMixture ubm) {
+		return components == ubm.components && dimension == ubm.dimension
+				&& Arrays.equals(weights, ubm.weights)
+				&& Arrays.equals(variances, ubm.variances);
+	}
+
+	/**
+	 * Calculates the log likelihood of each component for the frame, weight
+	 * included.
+	 *
+	 * @return the log likelihood of the frame
+	 */
+	double componentLogLikelihoods(double[] points, int offset,
+			double[] out) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0, i = 0; k < components; k++) {
+			double sum = logConstants[k];
+			for (int d = 0; d < dimension; d++, i++) {
+				double diff = points[offset + d] - means[i];
+				sum += diff * diff * scales[i];
+			}
+			out[k] = sum;
+			if (sum > max) {
+				max = sum;
+			}
+		}
+
+		double sum = 0;
+		for (int k = 0; k < components; k++) {
+			sum += Math.exp(out[k] - max);
+		}
+		return max + Math.log(sum);
+	}
+
+	/** Returns the log likelihood of one component for the frame, weight included. */
+	double componentLogLikelihood(int k, double[] point, int offset) {
+		double value = logConstants[k];
+		for (int d = 0, i = k * dimension; d < dimension; d++, i++) {
+			double diff = point[offset + d] - means[i];
+			value += diff * diff * scales[i];
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the log likelihood of a single frame.
+	 *
+	 * @param point
+	 *            array holding the frame
+	 * @param offset
+	 *            index of the first value of the frame
+	 */
+	public double logLikelihood(double[] point, int offset) {
+		// running log-sum-exp, rescaled whenever a larger term comes up
+		double max = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		for (int k = 0, i = 0; k < components; k++) {
+			double value = logConstants[k];
+			for (int d = 0; d < dimension; d++, i++) {
+				double diff = point[offset + d] - means[i];
+				value += diff * diff * scales[i];
+			}
+			if (value > max) {
+				sum = sum * Math.exp(max - value) + 1;
+				max = value;
+			} else if (value != Double.NEGATIVE_INFINITY) {
+				sum += Math.exp(value - max);
+			}
+		}
+		return max + Math.log(sum);
+	}
+
+	/** Returns the summed log likelihood of all frames. */
+	public double getLogLikelihood(FeatureVector featureVector) {
+		checkDimension(featureVector);
+		double[] points = featureVector.getData();
+		double sum = 0;
+		for (int t = 0; t < featureVector.size(); t++) {
+			sum += logLikelihood(points, featureVector.getOffset(t));
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the average log likelihood per frame, comparable between
+	 * recordings of different lengths.
+	 */
+	public double getAverageLogLikelihood(FeatureVector featureVector) {
+		return getLogLikelihood(featureVector) / featureVector.size();
+	}
+
+	private void checkDimension(FeatureVector featureVector) {
+		if (featureVector == null || featureVector.size() == 0)
+			throw new IllegalArgumentException(
+					"Feature vector must not be null or empty");
+		if (featureVector.getDimension() != dimension)
+			throw new IllegalArgumentException("feature dimension "
+					+ featureVector.getDimension()
+					+ " does not match model dimension " + dimension);
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	/** Returns the number of components. */
+	public int getComponentCount() {
+		return components;
+	}
+
+	/** Returns the number of EM iterations of the last training. */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/** Returns a copy of the weights. */
+	public double[] getWeights() {
+		return weights.clone();
+	}
+
+	/** Returns a copy of the packed means. */
+	public double[] getMeans() {
+		return means.clone();
+	}
+
+	/** Returns a copy of the packed variances. */
+	public double[] getVariances() {
+		return variances.clone();
+	}
+}
@@ -0,0 +1,143 @@
+package at.fhooe.mcm.smc.math.gmm;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary format for {@link GaussianMixture}s, like
+ * {@link at.fhooe.mcm.smc.math.vq.CodebookCodec} for codebooks. All values
+ * are little endian:
+ *
+ * <pre>
+ * int    magic ("GMMD")
+ * byte   format version (1)
+ * byte   bytes per value: 4 (float) or 8 (double)
+ * short  reserved (0)
+ * int    dimension
+ * int    number of components
+ * ...    weights, then means and then variances, one component after another
+ * int    CRC32 of all preceding bytes
+ * </pre>
+ */
+public final class GaussianMixtureCodec {
+
+	/** Store values as 32 bit floats. */
+	public static final int PRECISION_FLOAT = 4;
+	/** Store values as 64 bit doubles. */
+	public static final int PRECISION_DOUBLE = 8;
+
+	private static final int MAGIC = 'G' | ('M' << 8) | ('M' << 16) | ('D' << 24);
+	private static final byte VERSION = 1;
+	private static final int HEADER_LENGTH = 16;
+	private static final int CHECKSUM_LENGTH = 4;
+
+	private GaussianMixtureCodec() {
+	}
+
+	/**
+	 * Encodes the mixture.
+	 *
+	 * @param gmm
+	 * @param precision
+	 *            {@link #PRECISION_FLOAT} or {@link #PRECISION_DOUBLE}
+	 * @return
+	 */
+	public static byte[] encode(GaussianMixture gmm, int precision) {
+		if (precision != PRECISION_FLOAT && precision != PRECISION_DOUBLE)
+			throw new IllegalArgumentException("Unknown precision: " + precision);
+
+		double[] weights = gmm.getWeights();
+		double[] means = gmm.getMeans();
+		double[] variances = gmm.getVariances();
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH
+				+ (weights.length + 2 * means.length) * precision
+				+ CHECKSUM_LENGTH);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+		buffer.put((byte) precision);
+		buffer.putShort((short) 0);
+		buffer.putInt(gmm.getDimension());
+		buffer.putInt(gmm.getComponentCount());
+		put(buffer, weights, precision);
+		put(buffer, means, precision);
+		put(buffer, variances, precision);
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+
+		return buffer.array();
+	}
+
+	private static void put(ByteBuffer buffer, double[] values, int precision) {
+		for (int i = 0; i < values.length; i++) {
+			if (precision == PRECISION_FLOAT) {
+				buffer.putFloat((float) values[i]);
+			} else {
+				buffer.putDouble(values[i]);
+			}
+		}
+	}
+
+	private static double[] get(ByteBuffer buffer, int count, int precision) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = precision == PRECISION_FLOAT ? buffer.getFloat()
+					: buffer.getDouble();
+		}
+		return values;
+	}
+
+	/**
+	 * Returns true if the data starts like an encoded mixture.
+	 */
+	public static boolean isEncoded(byte[] data) {
+		return data != null && data.length >= HEADER_LENGTH
+				&& ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Decodes a mixture.
+	 *
+	 * @param data
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the data is not a valid encoded mixture
+	 */
+	public static GaussianMixture decode(byte[] data) {
+		if (!isEncoded(data))
+			throw new IllegalArgumentException("Data is not an encoded mixture");
+
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(4);
+		byte version = buffer.get();
+		int precision = buffer.get();
+		buffer.getShort();
+		int dimension = buffer.getInt();
+		int components = buffer.getInt();
+
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported mixture version: " + version);
+		if (precision != PRECISION_FLOAT && precision != PRECISION_DOUBLE)
+			throw new IllegalArgumentException("Unknown precision: " + precision);
+		if (dimension < 1 || components < 1
+				|| (long) components * (1 + 2L * dimension) * precision != data.length
+						- HEADER_LENGTH - CHECKSUM_LENGTH)
+			throw new IllegalArgumentException("Invalid mixture size: "
+					+ components + " x " + dimension + " in " + data.length + " bytes");
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - CHECKSUM_LENGTH);
+		if (buffer.getInt(data.length - CHECKSUM_LENGTH) != (int) crc.getValue())
+			throw new IllegalArgumentException("Mixture checksum mismatch");
+
+		double[] weights = get(buffer, components, precision);
+		double[] means = get(buffer, components * dimension, precision);
+		double[] variances = get(buffer, components * dimension, precision);
+		return new GaussianMixture(weights, means, variances);
+	}
+}
@@ -0,0 +1,218 @@
+package at.fhooe.mcm.smc.math.gmm;
+
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
+
+/**
+ * Verifies a claimed speaker's GMM frame by frame while audio is still being
+ * recorded, the counterpart of {@link SequentialVerifier} for codebooks.
+ * <p>
+ * For each frame, the log likelihood of the claimed model minus that of every
+ * cohort model, the models of the other speakers, is accumulated. The claimed
+ * speaker is accepted once, with z standard errors of margin, each mean
+ * margin is above the threshold, and rejected once a mean margin is clearly
+ * below it. Log likelihood ratios do not depend on the scale of the
+ * features, so unlike an absolute log likelihood the threshold carries over
+ * between recording conditions.
+ * <p>
+ * A model adapted from a universal background model is instead scored
+ * against the UBM alone, with the top components selected by a
+ * {@link UbmScorer}, so a single margin is accumulated.
+ * <p>
+ * Without an early decision, {@link #finish()} accepts if every mean margin
+ * reaches the threshold.
+ */
+public class SequentialGmmVerifier {
+
+	private final GaussianMixture claimed;
+	/** Models of the other speakers, null if scored against the UBM. */
+	private final GaussianMixture[] cohort;
+	private final UbmScorer scorer;
+	private final double threshold;
+	private final int minFrames;
+	private final double z;
+
+	private int frames;
+	/** Sums of claimed minus cohort model's or UBM's log likelihood. */
+	private final double[] marginSums;
+	private final double[] marginSquaredSums;
+
+	private Decision decision = Decision.UNDECIDED;
+
+	public SequentialGmmVerifier(GaussianMixture claimed,
+			GaussianMixture[] cohort, double threshold) {
+		this(claimed, cohort, threshold, SequentialVerifier.DEFAULT_MIN_FRAMES,
+				SequentialVerifier.DEFAULT_Z);
+	}
+
+	/**
+	 * @param claimed
+	 *            model of the speaker to verify
+	 * @param cohort
+	 *            models of the other speakers, at least one
+	 * @param threshold
+	 *            minimum average log likelihood margin per frame of the
+	 *            claimed model over each cohort model
+	 * @param minFrames
+	 *            number of frames before an early decision is made
+	 * @param z
+	 *            required margin in standard errors
+	 */
+	public SequentialGmmVerifier(GaussianMixture claimed,
+			GaussianMixture[] cohort, double threshold, int minFrames, double z) {
+		this(claimed, cohort.clone(), null, cohort.length, threshold,
+				minFrames, z);
+		if (cohort.length == 0)
+			throw new IllegalArgumentException("Cohort must not be empty");
+		for (int i = 0; i < cohort.length; i++) {
+			if (cohort[i].getDimension() != claimed.getDimension())
+				throw new IllegalArgumentException("Cohort model " + i
+						+ " does not match model dimension "
+						+ claimed.getDimension());
+		}
+	}
+
+	public SequentialGmmVerifier(UbmScorer scorer, GaussianMixture claimed,
+			double threshold) {
+		this(scorer, claimed, threshold, SequentialVerifier.DEFAULT_MIN_FRAMES,
+				SequentialVerifier.DEFAULT_Z);
+	}
+
+	/**
+	 * @param scorer
+	 *            scorer of the UBM the claimed model was adapted from
+	 * @param claimed
+	 *            model of the speaker to verify
+	 * @param threshold
+	 *            minimum average log likelihood ratio per frame of the
+	 *            claimed model to the UBM
+	 * @param minFrames
+	 *            number of frames before an early decision is made
+	 * @param z
+	 *            required margin in standard errors
+	 * @throws IllegalArgumentException
+	 *             if the model was not adapted from the UBM
+	 */
+	public SequentialGmmVerifier(UbmScorer scorer, GaussianMixture claimed,
+			double threshold, int minFrames, double z) {
+		this(claimed, null, scorer, 1, threshold, minFrames, z);
+		if (!claimed.isAdaptedFrom(scorer.getUbm()))
+			throw new IllegalArgumentException(
+					"Model was not adapted from the UBM");
+	}
+
+	private SequentialGmmVerifier(GaussianMixture claimed,
+			GaussianMixture[] cohort, UbmScorer scorer, int margins,
+			double threshold, int minFrames, double z) {
+		if (minFrames < 2 || z < 0)
+			throw new IllegalArgumentException(
+					"minFrames must be >= 2 and z >= 0");
+
+		this.claimed = claimed;
+		this.cohort = cohort;
+		this.scorer = scorer;
+		this.threshold = threshold;
+		this.minFrames = minFrames;
+		this.z = z;
+		marginSums = new double[margins];
+		marginSquaredSums = new double[margins];
+	}
+
+	/**
+	 * Adds the features of one frame, unless a decision has been made
+	 * already.
+	 *
+	 * @return the current decision
+	 */
+	public Decision add(double[] features, int offset) {
+		if (decision != Decision.UNDECIDED)
+			return decision;
+		if (features.length - offset < claimed.getDimension())
+			throw new IllegalArgumentException("feature dimension does not match model dimension "
+					+ claimed.getDimension());
+
+		frames++;
+		if (scorer != null) {
+			double ratio = scorer.logLikelihoodRatio(claimed, features, offset);
+			marginSums[0] += ratio;
+			marginSquaredSums[0] += ratio * ratio;
+		} else {
+			double score = claimed.logLikelihood(features, offset);
+			for (int i = 0; i < cohort.length; i++) {
+				double margin = score - cohort[i].logLikelihood(features, offset);
+				marginSums[i] += margin;
+				marginSquaredSums[i] += margin * margin;
+			}
+		}
+
+		if (frames >= minFrames) {
+			decide();
+		}
+		return decision;
+	}
+
+	private void decide() {
+		boolean allAbove = true;
+		for (int i = 0; i < marginSums.length; i++) {
+			double error = z * standardError(marginSums[i], marginSquaredSums[i]);
+			double mean = marginSums[i] / frames;
+			if (mean + error < threshold) {
+				decision = Decision.REJECT;
+				return;
+			}
+			allAbove &= mean - error > threshold;
+		}
+		if (allAbove) {
+			decision = Decision.ACCEPT;
+		}
+	}
+
+	private double standardError(double sum, double squaredSum) {
+		double mean = sum / frames;
+		double variance = Math.max(0, squaredSum / frames - mean * mean)
+				* frames / (frames - 1);
+		return Math.sqrt(variance / frames);
+	}
+
+	/**
+	 * Ends the verification. If no early decision was made, the claimed
+	 * speaker is accepted if its average margin over every cohort model, or
+	 * the UBM, reaches the threshold.
+	 *
+	 * @return the final decision, never {@link Decision#UNDECIDED}
+	 */
+	public Decision finish() {
+		if (decision != Decision.UNDECIDED)
+			return decision;
+
+		boolean accept = frames > 0;
+		for (int i = 0; i < marginSums.length && accept; i++) {
+			accept = marginSums[i] / frames >= threshold;
+		}
+		decision = accept ? Decision.ACCEPT : Decision.REJECT;
+		return decision;
+	}
+
+	public Decision getDecision() {
+		return decision;
+	}
+
+	/** Returns the number of frames added. */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/**
+	 * Returns the smallest average log likelihood margin of the claimed model
+	 * over a cohort model, or the average log likelihood ratio to the UBM.
+	 */
+	public double getAverageMargin() {
+		if (frames == 0)
+			return Double.NEGATIVE_INFINITY;
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < marginSums.length; i++) {
+			min = Math.min(min, marginSums[i] / frames);
+		}
+		return min;
+	}
+}
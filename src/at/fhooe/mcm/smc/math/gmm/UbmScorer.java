@@ -0,0 +1,168 @@
+package at.fhooe.mcm.smc.math.gmm;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+/**
+ * Scores frames against speaker models adapted from a universal background
+ * model (UBM), see {@link GaussianMixture#adapt(FeatureVector, double)}.
+ * <p>
+ * Each frame is scored against all components of the UBM first, and only the
+ * components with the highest likelihood are kept. As the components of an
+ * adapted model stay close to those of the UBM, the other components add
+ * next to nothing, so each speaker model only evaluates the kept components.
+ * With 64 components and 5 kept, a speaker model costs less than a tenth of
+ * the full evaluation, and the UBM is evaluated once for all speakers.
+ * <p>
+ * The score is the log likelihood ratio between speaker model and UBM,
+ * averaged over the frames: positive if the speaker model explains the
+ * frames better than the background.
+ * <p>
+ * Not thread safe, every thread needs its own instance.
+ */
+public class UbmScorer {
+
+	/** Default number of components kept per frame. */
+	public static final int DEFAULT_TOP_COMPONENTS = 5;
+
+	private final GaussianMixture ubm;
+	private final int topComponents;
+
+	/** Log likelihood of each UBM component for the current frame. */
+	private final double[] logLikelihoods;
+	/** Kept components of the current frame, most likely first. */
+	private final int[] shortlist;
+	private final double[] values;
+
+	/**
+	 * @param topComponents
+	 *            number of components kept per frame, between 1 and the
+	 *            number of components of the UBM
+	 */
+	public UbmScorer(GaussianMixture ubm, int topComponents) {
+		if (topComponents < 1 || topComponents > ubm.getComponentCount())
+			throw new IllegalArgumentException(
+					"Top components must be between 1 and "
+							+ ubm.getComponentCount());
+		this.ubm = ubm;
+		this.topComponents = topComponents;
+		this.logLikelihoods = new double[ubm.getComponentCount()];
+		this.shortlist = new int[topComponents];
+		this.values = new double[topComponents];
+	}
+
+	public GaussianMixture getUbm() {
+		return ubm;
+	}
+
+	/** Returns the number of components kept per frame. */
+	public int getTopComponents() {
+		return topComponents;
+	}
+
+	/**
+	 * Returns the average log likelihood ratio between the speaker model and
+	 * the UBM.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the model was not adapted from the UBM
+	 */
+	public double getLogLikelihoodRatio(FeatureVector featureVector,
+			GaussianMixture model) {
+		return getLogLikelihoodRatios(featureVector,
+				new GaussianMixture[] { model })[0];
+	}
+
+	/**
+	 * Returns the average log likelihood ratio between each speaker model and
+	 * the UBM. The components are selected once per frame for all models.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if a model was not adapted from the UBM
+	 */
+	public double[] getLogLikelihoodRatios(FeatureVector featureVector,
+			GaussianMixture[] models) {
+		if (featureVector == null || featureVector.size() == 0)
+			throw new IllegalArgumentException(
+					"Feature vector must not be null or empty");
+		if (featureVector.getDimension() != ubm.getDimension())
+			throw new IllegalArgumentException("feature dimension "
+					+ featureVector.getDimension()
+					+ " does not match model dimension " + ubm.getDimension());
+		for (int m = 0; m < models.length; m++) {
+			if (!models[m].isAdaptedFrom(ubm))
+				throw new IllegalArgumentException("Model " + m
+						+ " was not adapted from the UBM");
+		}
+
+		double[] points = featureVector.getData();
+		double[] ratios = new double[models.length];
+		for (int t = 0; t < featureVector.size(); t++) {
+			int p = featureVector.getOffset(t);
+			double background = selectComponents(points, p);
+			for (int m = 0; m < models.length; m++) {
+				ratios[m] += shortlistLogLikelihood(models[m], points, p)
+						- background;
+			}
+		}
+		for (int m = 0; m < models.length; m++) {
+			ratios[m] /= featureVector.size();
+		}
+		return ratios;
+	}
+
+	/**
+	 * Returns the log likelihood ratio between the speaker model and the UBM
+	 * for a single frame. The model must have been adapted from the UBM.
+	 */
+	double logLikelihoodRatio(GaussianMixture model, double[] point,
+			int offset) {
+		double background = selectComponents(point, offset);
+		return shortlistLogLikelihood(model, point, offset) - background;
+	}
+
+	/**
+	 * Scores the frame against all UBM components and keeps the most likely
+	 * ones in the shortlist.
+	 *
+	 * @return the log likelihood of the frame for the UBM
+	 */
+	private double selectComponents(double[] point, int offset) {
+		double frame = ubm.componentLogLikelihoods(point, offset,
+				logLikelihoods);
+		int size = 0;
+		for (int k = 0; k < logLikelihoods.length; k++) {
+			double value = logLikelihoods[k];
+			if (size == topComponents
+					&& value <= logLikelihoods[shortlist[size - 1]])
+				continue;
+			int i = size < topComponents ? size++ : topComponents - 1;
+			while (i > 0 && logLikelihoods[shortlist[i - 1]] < value) {
+				shortlist[i] = shortlist[i - 1];
+				i--;
+			}
+			shortlist[i] = k;
+		}
+		return frame;
+	}
+
+	/** Returns the log likelihood of the frame over the kept components only. */
+	private double shortlistLogLikelihood(GaussianMixture model,
+			double[] point, int offset) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < topComponents; i++) {
+			values[i] = model.componentLogLikelihood(shortlist[i], point,
+					offset);
+			if (values[i] > max) {
+				max = values[i];
+			}
+		}
+		if (max == Double.NEGATIVE_INFINITY)
+			return max;
+
+		double sum = 0;
+		for (int i = 0; i < topComponents; i++) {
+			sum += Math.exp(values[i] - max);
+		}
+		return max + Math.log(sum);
+	}
+}
@@ -0,0 +1,161 @@
+package at.fhooe.mcm.smc.math.mfcc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * File of feature frames, used to pool the features of many recordings for
+ * training. Frames are read in blocks, so only one block is held in memory
+ * no matter how large the file is. All values are little endian:
+ *
+ * <pre>
+ * int    magic ("MFCF")
+ * int    dimension
+ * ...    frame values as 32 bit floats, one frame after another
+ * </pre>
+ */
+public class FeatureFile implements FrameSource {
+
+	private static final int MAGIC = 'M' | ('F' << 8) | ('C' << 16) | ('F' << 24);
+	private static final int HEADER_LENGTH = 8;
+	/** Number of bytes read from the file at once. */
+	private static final int BLOCK_SIZE = 64 * 1024;
+
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final int dimension;
+	private final int frameBytes;
+	private final ByteBuffer buffer;
+
+	/**
+	 * Opens a feature file for reading.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a feature file
+	 */
+	public FeatureFile(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		try {
+			dimension = readHeader(raf, file);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		}
+		channel = raf.getChannel();
+		frameBytes = dimension * 4;
+
+		buffer = ByteBuffer.allocate(Math.max(BLOCK_SIZE, frameBytes));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		reset();
+	}
+
+	/**
+	 * Appends all frames of the feature vector to a file, creating it if it
+	 * does not exist yet.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be written, or holds frames of a
+	 *             different dimension
+	 */
+	public static void append(File file, FeatureVector featureVector)
+			throws IOException {
+		int dimension = featureVector.getDimension();
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			ByteBuffer block = ByteBuffer.allocate(Math.max(BLOCK_SIZE,
+					dimension * 4));
+			block.order(ByteOrder.LITTLE_ENDIAN);
+
+			if (out.length() == 0) {
+				block.putInt(MAGIC);
+				block.putInt(dimension);
+			} else {
+				int fileDimension = readHeader(out, file);
+				if (fileDimension != dimension)
+					throw new IOException("feature dimension " + dimension
+							+ " does not match file dimension " + fileDimension);
+				out.seek(out.length());
+			}
+
+			FileChannel channel = out.getChannel();
+			double[] values = featureVector.getData();
+			int end = featureVector.size() * dimension;
+			for (int i = 0; i < end; i++) {
+				if (block.remaining() < 4) {
+					writeBlock(channel, block);
+				}
+				block.putFloat((float) values[i]);
+			}
+			writeBlock(channel, block);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeBlock(FileChannel channel, ByteBuffer block)
+			throws IOException {
+		block.flip();
+		while (block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+	}
+
+	private static int readHeader(RandomAccessFile raf, File file)
+			throws IOException {
+		if (raf.length() < HEADER_LENGTH
+				|| Integer.reverseBytes(raf.readInt()) != MAGIC)
+			throw new IOException(file + " is not a feature file");
+		int dimension = Integer.reverseBytes(raf.readInt());
+		if (dimension < 1)
+			throw new IOException("Invalid dimension " + dimension + " in "
+					+ file);
+		return dimension;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	/** Returns the number of frames in the file. */
+	public long getFrameCount() throws IOException {
+		return (channel.size() - HEADER_LENGTH) / frameBytes;
+	}
+
+	public int read(double[] out, int offset, int count) throws IOException {
+		int read = 0;
+		while (read < count) {
+			if (buffer.remaining() < frameBytes) {
+				buffer.compact();
+				int n = channel.read(buffer);
+				buffer.flip();
+				// a partial frame at the end of the file is ignored
+				if (n < 0 && buffer.remaining() < frameBytes)
+					break;
+				continue;
+			}
+
+			int frames = Math.min(count - read, buffer.remaining() / frameBytes);
+			int end = offset + (read + frames) * dimension;
+			for (int i = offset + read * dimension; i < end; i++) {
+				out[i] = buffer.getFloat();
+			}
+			read += frames;
+		}
+		return read == 0 && count > 0 ? -1 : read;
+	}
+
+	public void reset() throws IOException {
+		channel.position(HEADER_LENGTH);
+		buffer.clear();
+		buffer.flip();
+	}
+
+	public void close() throws IOException {
+		raf.close();
+	}
+}
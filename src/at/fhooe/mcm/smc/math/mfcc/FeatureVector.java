@@ -1,33 +1,36 @@
 package at.fhooe.mcm.smc.math.mfcc;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 import at.fhooe.mcm.smc.math.matrix.Matrix;
 
-/** Represents a vector of features, in this case MFCCs. */
+/**
+ * Represents a vector of features, in this case MFCCs. All points are stored
+ * row after row in a single array, see {@link #getData()}.
+ */
 public class FeatureVector implements Serializable {
 	/**
-	 * 
+	 *
 	 */
-	private static final long serialVersionUID = -152381381588586374L;
+	private static final long serialVersionUID = -3630853488207913498L;
+	/** Initial capacity in points, the data array grows as points are added. */
+	private static final int DEFAULT_CAPACITY = 256;
 	private int dimension;
 	private int numberElements;
-	private List<Matrix> data;
+	private double[] data;
 
 
 	/**
 	 * Creates a new point list with default capacity and a dimension.
-	 * 
+	 *
 	 */
 	public FeatureVector(int dimension) {
-		this(dimension, 16384);
+		this(dimension, DEFAULT_CAPACITY);
 	}
 
 	/**
 	 * Creates a new point list.
-	 * 
+	 *
 	 * @param dimension
 	 *            int dimension of the vector space; must be at least one
 	 */
@@ -35,25 +38,43 @@ public class FeatureVector implements Serializable {
 		if (dimension < 1 || capacity < 1)
 			throw new IllegalArgumentException(
 					"capacity and dimension must be >= 1");
-		this.data = new ArrayList<Matrix>(capacity);
+		this.data = new double[dimension * capacity];
 		this.dimension = dimension;
 	}
 
 	/**
 	 * Adds a new point.
-	 * 
+	 *
 	 */
 	public void add(double[] point) {
 		if (point == null || point.length != dimension)
 			throw new IllegalArgumentException(
 					"data point must not be a null value and dimension must agree");
 
-		Matrix x = new Matrix(point, dimension);
+		add(point, 0);
+	}
+
+	/**
+	 * Adds a new point, copying {@link #getDimension()} values from the given
+	 * array starting at offset.
+	 *
+	 */
+	public void add(double[] values, int offset) {
+		if (values == null || offset < 0 || values.length - offset < dimension)
+			throw new IllegalArgumentException(
+					"data point must not be a null value and must contain a whole point");
+
+		int end = (numberElements + 1) * dimension;
+		if (end > data.length) {
+			double[] newData = new double[Math.max(end, data.length * 2)];
+			System.arraycopy(data, 0, newData, 0, numberElements * dimension);
+			data = newData;
+		}
 
 		// add the point to the list
-		data.add(x);
+		System.arraycopy(values, offset, data, numberElements * dimension,
+				dimension);
 		numberElements++;
-
 	}
 
 	public int getDimension() {
@@ -64,7 +85,54 @@ public class FeatureVector implements Serializable {
 		return numberElements;
 	}
 
+	/**
+	 * Returns a copy of the point as column vector.
+	 */
 	public Matrix get(int i) {
-		return data.get(i);
+		checkIndex(i);
+		Matrix x = new Matrix(dimension, 1);
+		double[][] values = x.getArray();
+		for (int d = 0; d < dimension; d++) {
+			values[d][0] = data[i * dimension + d];
+		}
+		return x;
+	}
+
+	/**
+	 * Copies the point to out.
+	 */
+	public void get(int i, double[] out) {
+		get(i, out, 0);
+	}
+
+	/**
+	 * Copies the point to out, starting at offset.
+	 */
+	public void get(int i, double[] out, int offset) {
+		checkIndex(i);
+		System.arraycopy(data, i * dimension, out, offset, dimension);
+	}
+
+	/**
+	 * Returns the backing array. Point i occupies the {@link #getDimension()}
+	 * values starting at {@link #getOffset(int)}, only the first
+	 * {@link #size()} points are valid. The array is replaced when the
+	 * capacity is exceeded, so it must be fetched again after adding points.
+	 */
+	public double[] getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the index of the first value of point i in {@link #getData()}.
+	 */
+	public int getOffset(int i) {
+		return i * dimension;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= numberElements)
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: "
+					+ numberElements);
 	}
 }
@@ -0,0 +1,29 @@
+package at.fhooe.mcm.smc.math.mfcc;
+
+import java.io.IOException;
+
+/**
+ * A sequence of feature frames that is read in blocks, so it does not have to
+ * fit into memory like a {@link FeatureVector}.
+ */
+public interface FrameSource {
+
+	/** Returns the number of values per frame. */
+	int getDimension();
+
+	/**
+	 * Reads up to count frames, one after another.
+	 *
+	 * @param out
+	 *            receives the frame values
+	 * @param offset
+	 *            index of the first value to write
+	 * @param count
+	 *            maximum number of frames to read
+	 * @return the number of frames read, -1 at the end of the frames
+	 */
+	int read(double[] out, int offset, int count) throws IOException;
+
+	/** Starts reading from the first frame again. */
+	void reset() throws IOException;
+}
@@ -1,7 +1,6 @@
 package at.fhooe.mcm.smc.math.mfcc;
 
 import at.fhooe.mcm.smc.math.fft.FFT;
-import at.fhooe.mcm.smc.math.matrix.Matrix;
 import at.fhooe.mcm.smc.math.window.HammingWindow;
 
 /**
@@ -24,9 +23,17 @@ public class MFCC {
 	private int numberCoefficients;
 	private boolean useFirstCoefficient;
 
+	// log for base 10 and scale by factor 10
+	private static final double LOG10_SCALE = 10 * (1 / Math.log(10));
+
 	private double[] buffer;
-	private Matrix dctMatrix;
-	private Matrix melFilterBanks;
+	private double[] fftScratch;
+	private double[] melBuffer;
+
+	/** DCT matrix, row-major with numberFilters columns. */
+	private double[] dctMatrix;
+	private int dctRows;
+	private SparseFilterBank melFilterBanks;
 	private FFT fft;
 
 	public MFCC(float sampleRate, int windowSize, int numberCoefficients,
@@ -82,11 +89,13 @@ public class MFCC {
 		buffer = new double[windowSize];
 
 		// store filter weights and DCT matrix due to performance reason
-		melFilterBanks = getMelFilterBanks();
+		melFilterBanks = new SparseFilterBank(getMelFilterBanks());
 		dctMatrix = createDCTMatrix();
+		melBuffer = new double[this.numberFilters];
 
-		// create power fft object
-		fft = new FFT(windowSize, new HammingWindow(windowSize));
+		// create power fft object, input samples are always real
+		fft = new FFT(windowSize, new HammingWindow(windowSize), true);
+		fftScratch = new double[fft.getScratchSize()];
 	}
 
 	private double[] getMelFilterBankBoundaries(double minFreq, double maxFreq,
@@ -115,7 +124,7 @@ public class MFCC {
 		return centers;
 	}
 
-	private Matrix getMelFilterBanks() {
+	private double[][] getMelFilterBanks() {
 		// get boundaries of the different filters
 		double[] boundaries = getMelFilterBankBoundaries(minFreq, maxFreq,
 				numberFilters);
@@ -149,7 +158,7 @@ public class MFCC {
 		}
 
 		// return the filter bank
-		return new Matrix(matrix, numberFilters, (windowSize / 2) + 1);
+		return matrix;
 	}
 
 	private double getMelFilterWeight(int filterBank, double freq,
@@ -188,30 +197,28 @@ public class MFCC {
 		return (700.0 * (Math.pow(10.0, (inputFreq / 2595.0)) - 1.0));
 	}
 
-	private Matrix createDCTMatrix() {
+	private double[] createDCTMatrix() {
 		// compute constants
 		double k = Math.PI / numberFilters;
 		double w1 = 1.0 / (Math.sqrt(numberFilters));// 1.0/(Math.sqrt(numberFilters/2));
 		double w2 = Math.sqrt(2.0 / numberFilters);// Math.sqrt(2.0/numberFilters)*(Math.sqrt(2.0)/2.0);
 
-		// create new matrix
-		Matrix matrix = new Matrix(numberCoefficients, numberFilters);
+		// ajust index if we are not using first coefficient
+		int first = useFirstCoefficient ? 0 : 1;
+		dctRows = numberCoefficients - first;
 
-		// generate dct matrix
-		for (int i = 0; i < numberCoefficients; i++) {
+		// generate dct matrix, one row per coefficient
+		double[] matrix = new double[dctRows * numberFilters];
+		for (int i = first; i < numberCoefficients; i++) {
+			int row = (i - first) * numberFilters;
 			for (int j = 0; j < numberFilters; j++) {
 				if (i == 0)
-					matrix.set(i, j, w1 * Math.cos(k * i * (j + 0.5d)));
+					matrix[row + j] = w1 * Math.cos(k * i * (j + 0.5d));
 				else
-					matrix.set(i, j, w2 * Math.cos(k * i * (j + 0.5d)));
+					matrix[row + j] = w2 * Math.cos(k * i * (j + 0.5d));
 			}
 		}
 
-		// ajust index if we are using first coefficient
-		if (!useFirstCoefficient)
-			matrix = matrix.getMatrix(1, numberCoefficients - 1, 0,
-					numberFilters - 1);
-
 		return matrix;
 	}
 
@@ -227,11 +234,11 @@ public class MFCC {
 					"Input data must be multiple of hop size (windowSize/2).");
 
 		// create return array with appropriate size
-		double[][] mfcc = new double[(input.length / hopSize) - 1][numberCoefficients];
+		double[][] mfcc = new double[(input.length / hopSize) - 1][dctRows];
 
 		// process each window of this audio segment
 		for (int i = 0, pos = 0; pos < input.length - hopSize; i++, pos += hopSize)
-			mfcc[i] = processWindow(input, pos);
+			processWindow(input, pos, mfcc[i], 0);
 
 		return mfcc;
 	}
@@ -240,12 +247,36 @@ public class MFCC {
 		return windowSize;
 	}
 
+	/**
+	 * Returns the number of coefficients calculated for each window, which is
+	 * one less than the requested number if the first coefficient is not used.
+	 */
+	public int getFeatureDimension() {
+		return dctRows;
+	}
+
 	public double[] processWindow(double[] window, int start)
 			throws IllegalArgumentException {
-		// number of unique coefficients, and the rest are symmetrically
-		// redundant
-		int fftSize = (windowSize / 2) + 1;
+		double[] mfcc = new double[dctRows];
+		processWindow(window, start, mfcc, 0);
+		return mfcc;
+	}
 
+	/**
+	 * Calculates the coefficients of a single window without allocating any
+	 * memory.
+	 * 
+	 * @param window
+	 *            the samples, must contain a whole window starting at start
+	 * @param start
+	 *            index of the first sample of the window
+	 * @param out
+	 *            receives {@link #getFeatureDimension()} coefficients
+	 * @param outOffset
+	 *            index of the first coefficient in out
+	 */
+	public void processWindow(double[] window, int start, double[] out,
+			int outOffset) throws IllegalArgumentException {
 		// check start
 		if (start < 0)
 			throw new IllegalArgumentException("start must be a positve value");
@@ -255,31 +286,35 @@ public class MFCC {
 			throw new IllegalArgumentException(
 					"the given data array must not be a null value and must contain data for one window");
 
+		// check output
+		if (out == null || outOffset < 0 || out.length - outOffset < dctRows)
+			throw new IllegalArgumentException(
+					"the output array must have room for " + dctRows
+							+ " coefficients");
+
 		// just copy to buffer
-		for (int j = 0; j < windowSize; j++)
-			buffer[j] = window[j + start];
+		System.arraycopy(window, start, buffer, 0, windowSize);
 
 		// perform power fft
-		fft.transform(buffer, null);
+		fft.transform(buffer, fftScratch);
 
-		// use all coefficient up to the nequist frequency (ceil((fftSize+1)/2))
-		Matrix x = new Matrix(buffer, windowSize);
-		x = x.getMatrix(0, fftSize - 1, 0, 0); // fftSize-1 is the index of the
-												// nyquist frequency
-
-		// apply mel filter banks
-		x = melFilterBanks.times(x);
+		// apply mel filter banks to all coefficients up to the nyquist
+		// frequency, the rest is symmetrically redundant
+		melFilterBanks.apply(buffer, melBuffer);
 
 		// to db
-		double log10 = 10 * (1 / Math.log(10)); // log for base 10 and scale by
-												// factor 10
-		x.thrunkAtLowerBoundary(1);
-		x.logEquals();
-		x.timesEquals(log10);
+		for (int j = 0; j < numberFilters; j++) {
+			double value = melBuffer[j] < 1 ? 1 : melBuffer[j];
+			melBuffer[j] = Math.log(value) * LOG10_SCALE;
+		}
 
 		// compute DCT
-		x = dctMatrix.times(x);
-
-		return x.getColumnPackedCopy();
+		for (int i = 0, row = 0; i < dctRows; i++, row += numberFilters) {
+			double sum = 0;
+			for (int j = 0; j < numberFilters; j++) {
+				sum += dctMatrix[row + j] * melBuffer[j];
+			}
+			out[outOffset + i] = sum;
+		}
 	}
 }
\ No newline at end of file
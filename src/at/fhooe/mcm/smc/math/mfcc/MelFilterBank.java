@@ -14,6 +14,7 @@ public class MelFilterBank {
 	private int numberFilters;
 
 	private double[][] filterBank;
+	private SparseFilterBank sparseBank;
 	private double[] compressedBank;
 
 	/**
@@ -34,6 +35,7 @@ public class MelFilterBank {
 		baseFreq = sampleRate / windowSize;
 
 		filterBank = createFilterBank();
+		sparseBank = new SparseFilterBank(filterBank);
 	}
 
 	/**
@@ -45,6 +47,16 @@ public class MelFilterBank {
 		return filterBank;
 	}
 	
+	/**
+	 * Returns the filter bank with only the non-zero band of each filter
+	 * stored.
+	 * 
+	 * @return
+	 */
+	public SparseFilterBank getSparseFilterBank() {
+		return sparseBank;
+	}
+	
 	/**
 	 * Returns a specific filter.
 	 * @param position
@@ -93,15 +105,21 @@ public class MelFilterBank {
 	 */
 	public double[] filter(double[] input) {
 		double[] result = new double[numberFilters];
-		for (int i = 0; i < result.length; i++) {
-			// filter with current filter
-			double[] filtered = FrameUtil.multiply(filterBank[i], input);
-			double sum = FrameUtil.sum(filtered, 0, filtered.length);
-			result[i] = sum;
-		}
+		filter(input, result);
 		return result;
 	}
 
+	/**
+	 * Gives the output of each filter when multiplied with the given input,
+	 * only the non-zero part of each filter is multiplied.
+	 * @param input
+	 * @param output Receives the output of each filter, must hold at least
+	 * as many values as there are filters.
+	 */
+	public void filter(double[] input, double[] output) {
+		sparseBank.apply(input, output);
+	}
+
 	/**
 	 * Creates the filter bank: for each filter a triangular shape on the
 	 * spectrum is generated.
@@ -1,20 +1,33 @@
 package at.fhooe.mcm.smc.math.mfcc;
 
-import org.apache.commons.math.complex.Complex;
-import org.apache.commons.math.transform.FastCosineTransformer;
-import org.apache.commons.math.transform.FastFourierTransformer;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import at.fhooe.mcm.smc.math.fft.FFT;
 import at.fhooe.mcm.smc.math.matrix.Matrix;
+import at.fhooe.mcm.smc.math.window.RectangularWindow;
 import at.fhooe.mcm.smc.math.window.WindowFunction;
 import at.fhooe.mcm.smc.sample.FrameUtil;
 
+/**
+ * Calculates MFCCs with a {@link MelFilterBank}. All temporary arrays are kept
+ * in a {@link Workspace}: one is owned by the instance for
+ * {@link #processWindow(double[], int)}, and each task of the parallel
+ * {@link #processAll(double[], ExecutorService)} creates its own, so an
+ * instance can be shared between threads for the parallel variant.
+ */
 public class MelFrequencyCC {
 	private int windowSize;
 	private int hopSize;
 	private int sampleRate;
 	private double baseFreq;
 	
-	private static double[] buffer;
+	/** Workspace of the calling thread for single window processing. */
+	private Workspace workspace;
 
 	// fields concerning the mel filter banks
 	private double minFreq;
@@ -26,8 +39,11 @@ public class MelFrequencyCC {
 	private boolean useFirstCoefficient = false;
 
 	private MelFilterBank filterBank;
-	private FastFourierTransformer fft;
-	private FastCosineTransformer dct;
+	private FFT fft;
+	/** Rescales the normalized power spectrum of {@link #fft} to |X|^2. */
+	private double powerScale;
+	/** DCT-I matrix, row-major with numberFilters columns. */
+	private double[] dct;
 	private WindowFunction windowFunction;
 
 	private Matrix dctMatrix;
@@ -64,14 +80,18 @@ public class MelFrequencyCC {
 		// frequency resolution, one element of the
 		// fft will correspond to this many hertz (?)
 		baseFreq = sampleRate / windowSize;
-		
-		buffer = new double[windowSize];
 
 		filterBank = new MelFilterBank(sampleRate, windowSize, minFreq,
 				maxFreq, numberFilters);
 
-		fft = new FastFourierTransformer();
-		dct = new FastCosineTransformer();
+		// the optional window function is applied before the FFT, so the FFT
+		// itself must not window again
+		fft = new FFT(windowSize, new RectangularWindow(windowSize), true);
+		powerScale = windowSize / 2d;
+		powerScale *= powerScale;
+		dct = createDCT();
+
+		workspace = new Workspace();
 
 		// experimental: use matrix for DCT operation
 		dctMatrix = createDCTMatrix();
@@ -107,6 +127,25 @@ public class MelFrequencyCC {
 		return matrix;
 	}
 
+	/**
+	 * Creates the matrix of the type I DCT, F_k = 1/2 (f_0 + (-1)^k f_N) +
+	 * sum(n=1..N-1) f_n cos(PI n k / N) with N = numberFilters - 1.
+	 */
+	private double[] createDCT() {
+		int size = numberFilters;
+		int n = size - 1;
+		double[] matrix = new double[size * size];
+		for (int k = 0; k < size; k++) {
+			int row = k * size;
+			matrix[row] = 0.5d;
+			for (int j = 1; j < n; j++) {
+				matrix[row + j] = Math.cos(Math.PI * j * k / n);
+			}
+			matrix[row + n] = (k % 2 == 0) ? 0.5d : -0.5d;
+		}
+		return matrix;
+	}
+
 	public MelFilterBank getFilterBank() {
 		return filterBank;
 	}
@@ -120,6 +159,66 @@ public class MelFrequencyCC {
 	 * @return
 	 */
 	public double[][] processAll(double[] input) {
+		double[][] result = createResult(input);
+
+		for (int i = 0, offset = 0; offset <= input.length - windowSize; i++, offset += hopSize) {
+			processWindow(workspace, input, offset, result[i], 0);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Same as {@link #processAll(double[])}, but splits the windows into one
+	 * range per available processor and calculates the ranges on the given
+	 * executor.
+	 * 
+	 * @param input
+	 * @param executor
+	 * @return
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the ranges to finish
+	 */
+	public double[][] processAll(final double[] input, ExecutorService executor)
+			throws InterruptedException {
+		final double[][] result = createResult(input);
+
+		int tasks = Math.min(Runtime.getRuntime().availableProcessors(),
+				result.length);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks);
+		for (int t = 0; t < tasks; t++) {
+			final int from = (int) ((long) result.length * t / tasks);
+			final int to = (int) ((long) result.length * (t + 1) / tasks);
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() {
+					Workspace ws = new Workspace();
+					for (int i = from; i < to; i++) {
+						processWindow(ws, input, i * hopSize, result[i], 0);
+					}
+					return null;
+				}
+			}));
+		}
+
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+		}
+
+		return result;
+	}
+
+	private double[][] createResult(double[] input) {
 		double max = FrameUtil.max(input);
 		double min = FrameUtil.min(input);
 		if (max > 1.0d || min < -1.0d) {
@@ -133,13 +232,7 @@ public class MelFrequencyCC {
 		}
 
 		int hops = (input.length / hopSize) - 1;
-		double[][] result = new double[hops][numberCoefficients];
-
-		for (int i = 0, offset = 0; offset <= input.length - windowSize; i++, offset += hopSize) {
-			result[i] = processWindow(input, offset);
-		}
-
-		return result;
+		return new double[hops][numberCoefficients];
 	}
 
 	/**
@@ -149,14 +242,35 @@ public class MelFrequencyCC {
 	 * @return
 	 */
 	public double[] processWindow(double[] window, int offset) {
+		double[] mfccs = new double[numberCoefficients];
+		processWindow(workspace, window, offset, mfccs, 0);
+		return mfccs;
+	}
+
+	/**
+	 * Processes a single window of normalized values, starting from offset,
+	 * and writes the MFCCs to out starting at outOffset. Must not be called
+	 * from more than one thread at a time.
+	 */
+	public void processWindow(double[] window, int offset, double[] out,
+			int outOffset) {
+		processWindow(workspace, window, offset, out, outOffset);
+	}
+
+	private void processWindow(Workspace ws, double[] window, int offset,
+			double[] out, int outOffset) {
 		if (window.length - offset < windowSize) {
 			throw new IllegalArgumentException(
 					"window length must be equal window size (" + windowSize
 							+ ")");
 		}
+		if (out.length - outOffset < numberCoefficients) {
+			throw new IllegalArgumentException(
+					"output must have room for " + numberCoefficients
+							+ " coefficients");
+		}
 
-		// input array
-//		double[] buffer = new double[windowSize];
+		double[] buffer = ws.buffer;
 		System.arraycopy(window, offset, buffer, 0, windowSize);
 
 		// apply window if existing
@@ -164,39 +278,28 @@ public class MelFrequencyCC {
 			windowFunction.applyWindow(buffer);
 		}
 
-		// only first half of spectrum is interesting
+		// power spectrum, only first half is interesting
+		fft.transform(buffer, ws.fftScratch);
 		int fftLength = (windowSize / 2) + 1;
-
-		// FFT_comirva fft_c = new FFT_comirva(FFT_comirva.FFT_NORMALIZED_POWER,
-		// windowSize, FFT_comirva.WND_HAMMING);
-		//		
-		// double[] buffer2 = new double[windowSize];
-		// System.arraycopy(buffer, 0, buffer2, 0, windowSize);
-		// fft_c.transform(buffer2, null);
-
-		Complex[] transform = fft.transform(buffer);
-		
-
-		// get magnitude spectrum only of first half,
-		// ignore redundant spectrum
-		double[] magnitude = new double[fftLength];
-
 		for (int i = 0; i < fftLength; i++) {
-			// get power spectrum
-			magnitude[i] = Math.pow(transform[i].abs() / (1), 2);
+			buffer[i] *= powerScale;
 		}
 
 		// apply filters
-		double[] melFilterOuputs = filterBank.filter(magnitude);
+		double[] melFilterOuputs = ws.melFilterOutputs;
+		filterBank.filter(buffer, melFilterOuputs);
 
 		// logarithmize
 		FrameUtil.toDb(melFilterOuputs);
 
 		// DCT
-		double[] mfccs = dct.transform(melFilterOuputs);
-		
-
-		return mfccs;
+		for (int k = 0, row = 0; k < numberCoefficients; k++, row += numberFilters) {
+			double sum = 0;
+			for (int j = 0; j < numberFilters; j++) {
+				sum += dct[row + j] * melFilterOuputs[j];
+			}
+			out[outOffset + k] = sum;
+		}
 	}
 
 	public void setWindowFunction(WindowFunction windowFunction) {
@@ -206,4 +309,11 @@ public class MelFrequencyCC {
 	public WindowFunction getWindowFunction() {
 		return windowFunction;
 	}
+
+	/** Temporary arrays needed to process a single window. */
+	private class Workspace {
+		private final double[] buffer = new double[windowSize];
+		private final double[] fftScratch = new double[fft.getScratchSize()];
+		private final double[] melFilterOutputs = new double[numberFilters];
+	}
 }
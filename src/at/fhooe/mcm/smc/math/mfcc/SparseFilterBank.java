@@ -0,0 +1,134 @@
+package at.fhooe.mcm.smc.math.mfcc;
+
+/**
+ * Compact representation of a bank of band limited filters, like the
+ * triangular mel filters. Only the weights between the first and the last
+ * non-zero weight of each filter are stored, packed into a single array.
+ */
+public class SparseFilterBank {
+	private int inputLength;
+	private int filterCount;
+
+	/** First non-zero index of each filter in the input spectrum. */
+	private int[] start;
+	/** Number of stored weights of each filter. */
+	private int[] length;
+	/** Position of the first weight of each filter in {@link #weights}. */
+	private int[] offset;
+	/** Packed weights of all filters. */
+	private double[] weights;
+
+	/**
+	 * Creates the sparse representation of the given filter bank.
+	 *
+	 * @param filters
+	 *            one row per filter, all of the same length
+	 */
+	public SparseFilterBank(double[][] filters) {
+		if (filters == null || filters.length == 0)
+			throw new IllegalArgumentException(
+					"filter bank must contain at least one filter");
+
+		filterCount = filters.length;
+		inputLength = filters[0].length;
+		start = new int[filterCount];
+		length = new int[filterCount];
+		offset = new int[filterCount];
+
+		int total = 0;
+		for (int i = 0; i < filterCount; i++) {
+			double[] filter = filters[i];
+			if (filter.length != inputLength)
+				throw new IllegalArgumentException(
+						"all filters must have the same length");
+
+			int first = 0;
+			while (first < inputLength && filter[first] == 0)
+				first++;
+			int last = inputLength - 1;
+			while (last >= first && filter[last] == 0)
+				last--;
+
+			start[i] = first < inputLength ? first : 0;
+			length[i] = last - first + 1;
+			offset[i] = total;
+			total += length[i];
+		}
+
+		weights = new double[total];
+		for (int i = 0; i < filterCount; i++) {
+			System.arraycopy(filters[i], start[i], weights, offset[i],
+					length[i]);
+		}
+	}
+
+	/**
+	 * Applies all filters to the input spectrum, writing the sum of each
+	 * filtered band to the output array.
+	 *
+	 * @param input
+	 *            spectrum with at least {@link #getInputLength()} values
+	 * @param output
+	 *            receives {@link #getFilterCount()} values
+	 */
+	public void apply(double[] input, double[] output) {
+		apply(input, output, 0);
+	}
+
+	/**
+	 * See {@link #apply(double[], double[])}, writing the filter outputs to
+	 * output starting at outOffset.
+	 */
+	public void apply(double[] input, double[] output, int outOffset) {
+		if (input.length < inputLength)
+			throw new IllegalArgumentException("input must contain "
+					+ inputLength + " values");
+		if (output.length - outOffset < filterCount)
+			throw new IllegalArgumentException("output must have room for "
+					+ filterCount + " values");
+
+		for (int i = 0; i < filterCount; i++) {
+			int w = offset[i];
+			int from = start[i];
+			int to = from + length[i];
+			double sum = 0;
+			for (int j = from; j < to; j++) {
+				sum += weights[w++] * input[j];
+			}
+			output[outOffset + i] = sum;
+		}
+	}
+
+	/**
+	 * Returns the dense version of a single filter.
+	 */
+	public double[] getFilter(int position) {
+		double[] filter = new double[inputLength];
+		System.arraycopy(weights, offset[position], filter, start[position],
+				length[position]);
+		return filter;
+	}
+
+	public int getFilterCount() {
+		return filterCount;
+	}
+
+	public int getInputLength() {
+		return inputLength;
+	}
+
+	/** Returns the index of the first stored weight of the given filter. */
+	public int getStart(int position) {
+		return start[position];
+	}
+
+	/** Returns the number of stored weights of the given filter. */
+	public int getLength(int position) {
+		return length[position];
+	}
+
+	/** Returns the number of stored weights of all filters. */
+	public int getWeightCount() {
+		return weights.length;
+	}
+}
@@ -0,0 +1,177 @@
+package at.fhooe.mcm.smc.math.mfcc;
+
+import at.fhooe.mcm.smc.sample.PcmDecoder;
+import at.fhooe.mcm.smc.sample.VoiceActivityDetector;
+
+/**
+ * Calculates MFCCs incrementally from chunks of 16 bit PCM samples of
+ * arbitrary size. Each time a window is complete, its coefficients are handed
+ * to the {@link OnFeatureListener}, and the second half of the window is
+ * carried over as the first half of the next one (50% overlap, as in
+ * {@link MFCC#process(double[])}).
+ */
+public class StreamingMFCC {
+
+	/** Gets notified whenever a new feature frame has been calculated. */
+	public interface OnFeatureListener {
+		/**
+		 * Called for each completed window.
+		 *
+		 * @param features
+		 *            the MFCCs of the window
+		 * @param frameIndex
+		 *            index of the window since the last {@link #reset()}
+		 */
+		public void onFeature(double[] features, int frameIndex);
+	}
+
+	private MFCC mfcc;
+	private OnFeatureListener listener;
+	private VoiceActivityDetector voiceActivityDetector;
+
+	private int windowSize;
+	private int hopSize;
+
+	/** Samples of the current window, filled up to {@link #bufferFill}. */
+	private double[] window;
+	private int bufferFill;
+	private int frameIndex;
+
+	/** Low byte of a sample that was split across two byte chunks. */
+	private int pendingByte = -1;
+
+	public StreamingMFCC(MFCC mfcc, OnFeatureListener listener) {
+		if (mfcc == null || listener == null)
+			throw new IllegalArgumentException(
+					"MFCC and listener must not be null");
+
+		this.mfcc = mfcc;
+		this.listener = listener;
+		this.windowSize = mfcc.getWindowSize();
+		this.hopSize = windowSize / 2;
+		this.window = new double[windowSize];
+	}
+
+	/**
+	 * Sets a detector that decides which windows are processed. Windows
+	 * without speech are skipped and not handed to the listener.
+	 *
+	 * @param detector
+	 *            the detector, its window size must match the MFCC window
+	 *            size. null processes all windows.
+	 */
+	public void setVoiceActivityDetector(VoiceActivityDetector detector) {
+		if (detector != null && detector.getWindowSize() != windowSize)
+			throw new IllegalArgumentException("detector window size "
+					+ detector.getWindowSize() + " does not match "
+					+ windowSize);
+		this.voiceActivityDetector = detector;
+	}
+
+	/**
+	 * Adds a chunk of samples.
+	 *
+	 * @param samples
+	 *            16 bit samples
+	 * @param offset
+	 *            start index in samples
+	 * @param count
+	 *            number of samples to add
+	 */
+	public void add(short[] samples, int offset, int count) {
+		checkRange(samples.length, offset, count);
+		for (int i = offset; i < offset + count; i++) {
+			addSample(samples[i]);
+		}
+	}
+
+	/**
+	 * Adds a chunk of little endian 16 bit PCM data. A trailing odd byte is
+	 * kept and combined with the first byte of the next chunk.
+	 *
+	 * @param pcm
+	 *            little endian PCM bytes
+	 * @param offset
+	 *            start index in pcm
+	 * @param count
+	 *            number of bytes to add
+	 */
+	public void add(byte[] pcm, int offset, int count) {
+		checkRange(pcm.length, offset, count);
+		int i = offset;
+		int end = offset + count;
+
+		if (pendingByte >= 0 && i < end) {
+			addSample((short) (pendingByte | (pcm[i++] << 8)));
+			pendingByte = -1;
+		}
+		// decode straight into the window, up to its end
+		while (end - i >= 2) {
+			int n = Math.min((end - i) / 2, windowSize - bufferFill);
+			PcmDecoder.decode(pcm, i, window, bufferFill, n, false);
+			bufferFill += n;
+			i += n * 2;
+			if (bufferFill == windowSize) {
+				processWindow();
+			}
+		}
+		if (i < end) {
+			pendingByte = pcm[i] & 0xff;
+		}
+	}
+
+	private void addSample(short sample) {
+		window[bufferFill++] = sample;
+
+		if (bufferFill == windowSize) {
+			processWindow();
+		}
+	}
+
+	private void processWindow() {
+		if (voiceActivityDetector == null
+				|| voiceActivityDetector.isSpeech(window, 0)) {
+			listener.onFeature(mfcc.processWindow(window, 0), frameIndex++);
+		}
+
+		// processWindow works on a copy, so the second half is untouched
+		System.arraycopy(window, hopSize, window, 0, windowSize - hopSize);
+		bufferFill = windowSize - hopSize;
+	}
+
+	private void checkRange(int length, int offset, int count) {
+		if (offset < 0 || count < 0 || offset + count > length)
+			throw new IllegalArgumentException("offset " + offset
+					+ " and count " + count + " out of range for length "
+					+ length);
+	}
+
+	/**
+	 * Creates a feature vector for the frames of this stream, its dimension
+	 * is that of the MFCCs, see {@link MFCC#getFeatureDimension()}.
+	 *
+	 * @param capacity
+	 *            number of frames to make room for
+	 */
+	public FeatureVector createFeatureVector(int capacity) {
+		return new FeatureVector(mfcc.getFeatureDimension(), capacity);
+	}
+
+	/**
+	 * Returns the number of feature frames emitted since the last
+	 * {@link #reset()}, not counting windows skipped for lack of speech.
+	 */
+	public int getFrameCount() {
+		return frameIndex;
+	}
+
+	/** Discards buffered samples, so a new recording can be processed. */
+	public void reset() {
+		bufferFill = 0;
+		frameIndex = 0;
+		pendingByte = -1;
+		if (voiceActivityDetector != null) {
+			voiceActivityDetector.reset();
+		}
+	}
+}
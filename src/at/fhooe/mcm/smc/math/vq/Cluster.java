@@ -1,69 +1,157 @@
 package at.fhooe.mcm.smc.math.vq;
 
+import java.util.Arrays;
+
 import at.fhooe.mcm.smc.math.matrix.Matrix;
 
 /** Represents a single cluster for the k-means algorithm. */
 public class Cluster {
-	private int elementCount; 
-	private Matrix center; 
+	private int elementCount;
+	private Matrix center;
+	private double[] centerValues;
 
-	private Matrix sum; 
-	private Matrix squaredSum; 
+	private double[] sum;
+	private double[] squaredSum;
 
 	/** Creates a single cluster with a new center */
 	public Cluster(Matrix mean) {
-		this.center = mean;
-		this.elementCount = 0;
-		this.sum = new Matrix(center.getRowDimension(), center
-				.getColumnDimension());
-		this.squaredSum = new Matrix(center.getRowDimension(), center
-				.getColumnDimension());
+		reset(mean);
 	}
 
 	/**
 	 * Returns the euclidean distance of a point x to the cluster center.
-	 * 
+	 *
 	 */
 	public double getDistanceFromCenter(Matrix x) {
-		Matrix diff = center.minus(x);
-		return diff.transpose().times(diff).get(0, 0);
+		if (x.getRowDimension() != centerValues.length
+				|| x.getColumnDimension() != 1)
+			throw new IllegalArgumentException("Matrix dimensions must agree.");
+
+		double[][] values = x.getArray();
+		double distance = 0;
+		for (int i = 0; i < centerValues.length; i++) {
+			double diff = centerValues[i] - values[i][0];
+			distance += diff * diff;
+		}
+		return distance;
+	}
+
+	/**
+	 * Returns the euclidean distance of the point starting at offset to the
+	 * cluster center.
+	 *
+	 */
+	public double getDistanceFromCenter(double[] x, int offset) {
+		double distance = 0;
+		for (int i = 0; i < centerValues.length; i++) {
+			double diff = centerValues[i] - x[offset + i];
+			distance += diff * diff;
+		}
+		return distance;
 	}
 
 	/**
 	 * Adds a point x to this cluster.
-	 * 
+	 *
 	 */
 	public void add(Matrix x) {
-		sum.plusEquals(x);
-		squaredSum.plusEquals(x.pow(2.0d));
+		double[][] values = x.getArray();
+		for (int i = 0; i < sum.length; i++) {
+			double value = values[i][0];
+			sum[i] += value;
+			squaredSum[i] += value * value;
+		}
 		elementCount++;
 	}
 
+	/**
+	 * Adds the point starting at offset to this cluster.
+	 *
+	 */
+	public void add(double[] x, int offset) {
+		for (int i = 0; i < sum.length; i++) {
+			double value = x[offset + i];
+			sum[i] += value;
+			squaredSum[i] += value * value;
+		}
+		elementCount++;
+	}
+
+	/**
+	 * Adds the precomputed sums of several points to this cluster.
+	 *
+	 * @param pointSum
+	 *            sum of the points, starting at offset
+	 * @param pointSquaredSum
+	 *            sum of the squared points, starting at offset
+	 * @param offset
+	 *            index of the first dimension in both arrays
+	 * @param count
+	 *            number of points
+	 */
+	void add(double[] pointSum, double[] pointSquaredSum, int offset, int count) {
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] += pointSum[offset + i];
+			squaredSum[i] += pointSquaredSum[offset + i];
+		}
+		elementCount += count;
+	}
+
 	/**
 	 * Returns the mean of all the elements in this cluster.
-	 * 
+	 *
 	 */
 	public Matrix getMean() {
-		return sum.times(1.0d / elementCount);
+		Matrix mean = new Matrix(sum.length, 1);
+		double[][] values = mean.getArray();
+		double factor = 1.0d / elementCount;
+		for (int i = 0; i < sum.length; i++) {
+			values[i][0] = sum[i] * factor;
+		}
+		return mean;
 	}
 
+	/**
+	 * Returns the variance of each dimension of the elements in this cluster.
+	 *
+	 */
+	public double[] getVariance() {
+		double[] variance = new double[sum.length];
+		double factor = 1.0d / elementCount;
+		for (int i = 0; i < sum.length; i++) {
+			double mean = sum[i] * factor;
+			variance[i] = Math.max(0, squaredSum[i] * factor - mean * mean);
+		}
+		return variance;
+	}
 
 	/**
 	 * Returns the cluster center.
-	 */ 
+	 */
 	public Matrix getCenter() {
 		return center;
 	}
-	
+
+	/**
+	 * Returns the number of points added since the last reset.
+	 */
+	public int getElementCount() {
+		return elementCount;
+	}
+
 	/** Resets this cluster. */
 	public void reset(Matrix newCenter) {
 		this.center = newCenter;
+		this.centerValues = newCenter.getColumnPackedCopy();
 		this.elementCount = 0;
-		this.sum = new Matrix(center.getRowDimension(), center
-				.getColumnDimension());
-		this.squaredSum = new Matrix(center.getRowDimension(), center
-				.getColumnDimension());
+		if (sum == null || sum.length != centerValues.length) {
+			this.sum = new double[centerValues.length];
+			this.squaredSum = new double[centerValues.length];
+		} else {
+			Arrays.fill(sum, 0);
+			Arrays.fill(squaredSum, 0);
+		}
 	}
 
 
-}
\ No newline at end of file
+}
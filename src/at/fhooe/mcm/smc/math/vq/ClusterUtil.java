@@ -1,6 +1,5 @@
 package at.fhooe.mcm.smc.math.vq;
 
-import at.fhooe.mcm.smc.math.matrix.Matrix;
 import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
 /**
  * Cluster utility functions. 
@@ -18,11 +17,12 @@ public class ClusterUtil {
 	public static double calculateAverageDistortion(double[][] mfcc, Codebook cb) {
 		int T = mfcc.length;
 		double factor = 1d / (double) T;
-		Matrix[] clusterCenters = cb.getCentroids();
+		double[] clusterCenters = cb.getCentroidValues();
+		int dimension = cb.getDimension();
 		
 		double sumDistortion = 0;
 		for (int i = 0; i < T; i++) {
-			sumDistortion += minDistance(mfcc[i], clusterCenters);
+			sumDistortion += minDistance(mfcc[i], 0, clusterCenters, dimension);
 		}
 		
 		return factor * sumDistortion;
@@ -31,37 +31,34 @@ public class ClusterUtil {
 	public static double calculateAverageDistortion(FeatureVector featureVector, Codebook cb) {
 		int T = featureVector.size();
 		double factor = 1d / (double) T;
-		Matrix[] clusterCenters = cb.getCentroids();
+		double[] clusterCenters = cb.getCentroidValues();
+		int dimension = cb.getDimension();
+		double[] points = featureVector.getData();
 		
 		double sumDistortion = 0;
 		for (int i = 0; i < T; i++) {
-			double[] buffer = new double[featureVector.getDimension()];
-			Matrix matrix = featureVector.get(i);
-			buffer = matrix.getColumnPackedCopy();
-			
-			sumDistortion += minDistance(buffer, clusterCenters);
+			sumDistortion += minDistance(points, featureVector.getOffset(i),
+					clusterCenters, dimension);
 		}
 		
 		return factor * sumDistortion;
 	}
 
 	/**
-	 * Multidimensional distance calculation.
-	 * @param from
-	 * @param to
+	 * Multidimensional distance calculation: returns the squared euclidean
+	 * distance from a point to the nearest of the given centers.
+	 * @param from array containing the point
+	 * @param offset index of the first value of the point
+	 * @param to centers packed one after another
+	 * @param dimension dimension of the point and the centers
 	 * @return
 	 */
-	private static double minDistance(double[] from, Matrix[] to) {
-		
-		double temp;
-		Matrix fromMatrix = new Matrix(from.length, 1);
-		for (int i = 0; i < from.length; i++) {
-			fromMatrix.set(i, 0, from[i]);
-		}
-
+	public static double minDistance(double[] from, int offset, double[] to,
+			int dimension) {
 		double minDistance = Double.MAX_VALUE;
-		for (int k = 0; k < to.length; k++) {
-			temp = euclideanDistance(fromMatrix, to[k]);
+		for (int k = 0; k < to.length; k += dimension) {
+			double temp = squaredDistance(from, offset, to, k, dimension,
+					minDistance);
 			if (temp < minDistance) {
 				minDistance = temp;
 			}
@@ -71,13 +68,27 @@ public class ClusterUtil {
 	}
 
 	/**
-	 * Helper method.
-	 * @param from
-	 * @param to
+	 * Squared euclidean distance between two points. The summation stops as
+	 * soon as the partial sum exceeds bound, the returned value is then
+	 * larger than bound but not the full distance.
+	 * @param a
+	 * @param aOffset index of the first value of the first point
+	 * @param b
+	 * @param bOffset index of the first value of the second point
+	 * @param dimension
+	 * @param bound use {@link Double#MAX_VALUE} for the full distance
 	 * @return
 	 */
-	private static double euclideanDistance(Matrix from, Matrix to) {
-		Matrix diff = from.minus(to);
-		return diff.transpose().times(diff).get(0, 0);
+	public static double squaredDistance(double[] a, int aOffset, double[] b,
+			int bOffset, int dimension, double bound) {
+		double sum = 0;
+		for (int i = 0; i < dimension; i++) {
+			double diff = a[aOffset + i] - b[bOffset + i];
+			sum += diff * diff;
+			if (sum > bound) {
+				return sum;
+			}
+		}
+		return sum;
 	}
 }
@@ -13,6 +13,29 @@ public class Codebook implements Serializable {
 	private static final long serialVersionUID = 2854040747139238024L;
 	private int length;
 	private Matrix[] centroids;
+
+	/** Centroids packed one after another, created on first use. */
+	private transient double[] centroidValues;
+
+	/**
+	 * Creates a codebook from centroids packed one after another, as returned
+	 * by {@link #getCentroidValues()}.
+	 */
+	public static Codebook create(double[] centroidValues, int dimension) {
+		int length = centroidValues.length / dimension;
+		Matrix[] centroids = new Matrix[length];
+		for (int i = 0; i < length; i++) {
+			centroids[i] = new Matrix(dimension, 1);
+			double[][] values = centroids[i].getArray();
+			for (int d = 0; d < dimension; d++) {
+				values[d][0] = centroidValues[i * dimension + d];
+			}
+		}
+		Codebook codebook = new Codebook();
+		codebook.setLength(length);
+		codebook.setCentroids(centroids);
+		return codebook;
+	}
 	
 	public int getLength() {
 		return length;
@@ -25,5 +48,31 @@ public class Codebook implements Serializable {
 	}
 	public void setCentroids(Matrix[] centroids) {
 		this.centroids = centroids;
+		this.centroidValues = null;
+	}
+
+	/**
+	 * Returns the dimension of the centroids.
+	 */
+	public int getDimension() {
+		return centroids[0].getRowDimension();
+	}
+
+	/**
+	 * Returns all centroids packed into a single array, centroid i occupies
+	 * the {@link #getDimension()} values starting at i * getDimension(). The
+	 * array is shared and must not be modified.
+	 */
+	public double[] getCentroidValues() {
+		if (centroidValues == null) {
+			int dimension = getDimension();
+			double[] values = new double[centroids.length * dimension];
+			for (int i = 0; i < centroids.length; i++) {
+				double[] centroid = centroids[i].getColumnPackedCopy();
+				System.arraycopy(centroid, 0, values, i * dimension, dimension);
+			}
+			centroidValues = values;
+		}
+		return centroidValues;
 	}
 }
@@ -0,0 +1,141 @@
+package at.fhooe.mcm.smc.math.vq;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+
+import at.fhooe.mcm.smc.math.matrix.Matrix;
+
+/**
+ * Compact binary format for {@link Codebook}s. All values are little endian:
+ *
+ * <pre>
+ * int    magic ("VQCB")
+ * byte   format version (1)
+ * byte   bytes per value: 4 (float) or 8 (double)
+ * short  reserved (0)
+ * int    dimension
+ * int    number of centroids
+ * ...    centroid values, one centroid after another
+ * int    CRC32 of all preceding bytes
+ * </pre>
+ */
+public final class CodebookCodec {
+
+	/** Store centroid values as 32 bit floats. */
+	public static final int PRECISION_FLOAT = 4;
+	/** Store centroid values as 64 bit doubles. */
+	public static final int PRECISION_DOUBLE = 8;
+
+	private static final int MAGIC = 'V' | ('Q' << 8) | ('C' << 16) | ('B' << 24);
+	private static final byte VERSION = 1;
+	private static final int HEADER_LENGTH = 16;
+	private static final int CHECKSUM_LENGTH = 4;
+
+	private CodebookCodec() {
+	}
+
+	/**
+	 * Encodes the codebook.
+	 *
+	 * @param codebook
+	 * @param precision
+	 *            {@link #PRECISION_FLOAT} or {@link #PRECISION_DOUBLE}
+	 * @return
+	 */
+	public static byte[] encode(Codebook codebook, int precision) {
+		if (precision != PRECISION_FLOAT && precision != PRECISION_DOUBLE)
+			throw new IllegalArgumentException("Unknown precision: " + precision);
+
+		int dimension = codebook.getDimension();
+		double[] values = codebook.getCentroidValues();
+		int clusters = values.length / dimension;
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + values.length
+				* precision + CHECKSUM_LENGTH);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.put(VERSION);
+		buffer.put((byte) precision);
+		buffer.putShort((short) 0);
+		buffer.putInt(dimension);
+		buffer.putInt(clusters);
+
+		if (precision == PRECISION_FLOAT) {
+			for (int i = 0; i < values.length; i++) {
+				buffer.putFloat((float) values[i]);
+			}
+		} else {
+			for (int i = 0; i < values.length; i++) {
+				buffer.putDouble(values[i]);
+			}
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int) crc.getValue());
+
+		return buffer.array();
+	}
+
+	/**
+	 * Returns true if the data starts like an encoded codebook.
+	 */
+	public static boolean isEncoded(byte[] data) {
+		return data != null && data.length >= HEADER_LENGTH
+				&& ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getInt(0) == MAGIC;
+	}
+
+	/**
+	 * Decodes a codebook.
+	 *
+	 * @param data
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the data is not a valid encoded codebook
+	 */
+	public static Codebook decode(byte[] data) {
+		if (!isEncoded(data))
+			throw new IllegalArgumentException("Data is not an encoded codebook");
+
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.position(4);
+		byte version = buffer.get();
+		int precision = buffer.get();
+		buffer.getShort();
+		int dimension = buffer.getInt();
+		int clusters = buffer.getInt();
+
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported codebook version: " + version);
+		if (precision != PRECISION_FLOAT && precision != PRECISION_DOUBLE)
+			throw new IllegalArgumentException("Unknown precision: " + precision);
+		if (dimension < 1 || clusters < 1
+				|| (long) dimension * clusters * precision != data.length
+						- HEADER_LENGTH - CHECKSUM_LENGTH)
+			throw new IllegalArgumentException("Invalid codebook size: "
+					+ clusters + " x " + dimension + " in " + data.length + " bytes");
+
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length - CHECKSUM_LENGTH);
+		if (buffer.getInt(data.length - CHECKSUM_LENGTH) != (int) crc.getValue())
+			throw new IllegalArgumentException("Codebook checksum mismatch");
+
+		Matrix[] centroids = new Matrix[clusters];
+		for (int i = 0; i < clusters; i++) {
+			Matrix centroid = new Matrix(dimension, 1);
+			double[][] values = centroid.getArray();
+			for (int d = 0; d < dimension; d++) {
+				values[d][0] = precision == PRECISION_FLOAT ? buffer.getFloat()
+						: buffer.getDouble();
+			}
+			centroids[i] = centroid;
+		}
+
+		Codebook codebook = new Codebook();
+		codebook.setLength(clusters);
+		codebook.setCentroids(centroids);
+		return codebook;
+	}
+}
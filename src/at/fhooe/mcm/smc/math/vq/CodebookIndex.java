@@ -0,0 +1,296 @@
+package at.fhooe.mcm.smc.math.vq;
+
+import java.util.Arrays;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+/**
+ * In-memory index of the codebooks of many speakers, used to find the
+ * speaker with the lowest average distortion for a feature vector. The
+ * centroids of all codebooks are kept in a single array. A speaker may have
+ * more than one codebook, its distortion is the lowest one of them.
+ * <p>
+ * Scoring stops as soon as the outcome is certain: a codebook is abandoned
+ * once its partial distortion sum exceeds the best one found so far.
+ * <p>
+ * Instances are thread safe.
+ */
+public class CodebookIndex {
+
+	/** Result of a search: a speaker and its average distortion. */
+	public static class Match {
+		private final long id;
+		private final double distortion;
+
+		Match(long id, double distortion) {
+			this.id = id;
+			this.distortion = distortion;
+		}
+
+		/** The speaker ID, -1 if there was no match. */
+		public long getId() {
+			return id;
+		}
+
+		/** Average distortion of the feature vector to the speaker. */
+		public double getDistortion() {
+			return distortion;
+		}
+	}
+
+	private int dimension = -1;
+
+	/** Number of codebooks in the index. */
+	private int count;
+	/** Speaker ID of each codebook. */
+	private long[] ids = new long[16];
+	/** Index of the first centroid value of each codebook. */
+	private int[] offsets = new int[16];
+	/** Number of centroids of each codebook. */
+	private int[] lengths = new int[16];
+
+	/** All centroids of all codebooks, packed one after another. */
+	private double[] centroids = new double[0];
+	private int centroidValues;
+
+	/**
+	 * Adds a codebook for a speaker. Existing codebooks of the same speaker
+	 * are kept.
+	 */
+	public synchronized void add(long id, Codebook codebook) {
+		int cbDimension = codebook.getDimension();
+		if (dimension == -1) {
+			dimension = cbDimension;
+		} else if (cbDimension != dimension) {
+			throw new IllegalArgumentException("codebook dimension "
+					+ cbDimension + " does not match index dimension "
+					+ dimension);
+		}
+
+		double[] values = codebook.getCentroidValues();
+		if (count == ids.length) {
+			ids = Arrays.copyOf(ids, count * 2);
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+		}
+		if (centroidValues + values.length > centroids.length) {
+			centroids = Arrays.copyOf(centroids, Math.max(centroidValues
+					+ values.length, centroids.length * 2));
+		}
+
+		System.arraycopy(values, 0, centroids, centroidValues, values.length);
+		ids[count] = id;
+		offsets[count] = centroidValues;
+		lengths[count] = values.length / dimension;
+		centroidValues += values.length;
+		count++;
+	}
+
+	/**
+	 * Removes all codebooks of a speaker.
+	 */
+	public synchronized void remove(long id) {
+		int target = 0;
+		int targetValues = 0;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id)
+				continue;
+
+			int values = lengths[i] * dimension;
+			if (target != i) {
+				System.arraycopy(centroids, offsets[i], centroids,
+						targetValues, values);
+				ids[target] = ids[i];
+				lengths[target] = lengths[i];
+			}
+			offsets[target] = targetValues;
+			targetValues += values;
+			target++;
+		}
+		count = target;
+		centroidValues = targetValues;
+	}
+
+	/** Removes all codebooks. */
+	public synchronized void clear() {
+		count = 0;
+		centroidValues = 0;
+		dimension = -1;
+	}
+
+	/** Returns true if there is at least one codebook for the speaker. */
+	public synchronized boolean contains(long id) {
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == id)
+				return true;
+		}
+		return false;
+	}
+
+	/** Returns the dimension of the codebooks, -1 if the index is empty. */
+	public synchronized int getDimension() {
+		return dimension;
+	}
+
+	/** Returns the number of codebooks in the index. */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the speaker with the lowest average distortion.
+	 *
+	 * @return the best match, with ID -1 if the index is empty
+	 */
+	public synchronized Match identify(FeatureVector featureVector) {
+		checkDimension(featureVector);
+
+		double bestSum = Double.MAX_VALUE;
+		long bestId = -1;
+		for (int i = 0; i < count; i++) {
+			double sum = distortionSum(featureVector, i, bestSum);
+			if (sum < bestSum) {
+				bestSum = sum;
+				bestId = ids[i];
+			}
+		}
+		return new Match(bestId, averageOf(bestSum, featureVector));
+	}
+
+	/**
+	 * Checks whether the claimed speaker is the best match. The claimed
+	 * speaker is scored first, then all other codebooks are only scored until
+	 * they can no longer beat it. The search ends as soon as one of them
+	 * does.
+	 *
+	 * @return the claimed speaker if no other speaker has a lower distortion,
+	 *         otherwise the first speaker found that does. If the claimed
+	 *         speaker has no codebook, the match has ID -1.
+	 */
+	public synchronized Match verify(FeatureVector featureVector,
+			long claimedId) {
+		checkDimension(featureVector);
+
+		double claimedSum = Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == claimedId) {
+				claimedSum = Math.min(claimedSum,
+						distortionSum(featureVector, i, claimedSum));
+			}
+		}
+		if (claimedSum == Double.MAX_VALUE) {
+			return new Match(-1, Double.MAX_VALUE);
+		}
+
+		for (int i = 0; i < count; i++) {
+			if (ids[i] == claimedId)
+				continue;
+
+			double sum = distortionSum(featureVector, i, claimedSum);
+			if (sum < claimedSum) {
+				return new Match(ids[i], averageOf(sum, featureVector));
+			}
+		}
+		return new Match(claimedId, averageOf(claimedSum, featureVector));
+	}
+
+	/**
+	 * Returns the IDs of all speakers with at least one codebook, in the order
+	 * they were added.
+	 */
+	public synchronized long[] getSpeakerIds() {
+		long[] speakers = new long[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			boolean seen = false;
+			for (int j = 0; j < n && !seen; j++) {
+				seen = speakers[j] == ids[i];
+			}
+			if (!seen) {
+				speakers[n++] = ids[i];
+			}
+		}
+		return Arrays.copyOf(speakers, n);
+	}
+
+	/**
+	 * Calculates the squared distance of a single point to the nearest
+	 * centroid of each of the given speakers.
+	 *
+	 * @param point
+	 *            array holding the point
+	 * @param offset
+	 *            index of the first value of the point
+	 * @param speakers
+	 *            speaker IDs
+	 * @param out
+	 *            receives the distance for each speaker, Double.MAX_VALUE for
+	 *            speakers without a codebook
+	 */
+	public synchronized void speakerDistances(double[] point, int offset,
+			long[] speakers, double[] out) {
+		Arrays.fill(out, 0, speakers.length, Double.MAX_VALUE);
+		for (int i = 0; i < count; i++) {
+			int speaker = 0;
+			while (speaker < speakers.length && speakers[speaker] != ids[i]) {
+				speaker++;
+			}
+			if (speaker == speakers.length)
+				continue;
+
+			double minDistance = out[speaker];
+			int end = offsets[i] + lengths[i] * dimension;
+			for (int k = offsets[i]; k < end; k += dimension) {
+				double d = ClusterUtil.squaredDistance(point, offset,
+						centroids, k, dimension, minDistance);
+				if (d < minDistance) {
+					minDistance = d;
+				}
+			}
+			out[speaker] = minDistance;
+		}
+	}
+
+	/**
+	 * Sums up the distortion of all points to the given codebook, stopping
+	 * once the sum reaches bound.
+	 */
+	private double distortionSum(FeatureVector featureVector, int codebook,
+			double bound) {
+		double[] points = featureVector.getData();
+		int first = offsets[codebook];
+		int end = first + lengths[codebook] * dimension;
+
+		double sum = 0;
+		for (int t = 0; t < featureVector.size(); t++) {
+			int offset = featureVector.getOffset(t);
+			double minDistance = Double.MAX_VALUE;
+			for (int k = first; k < end; k += dimension) {
+				double d = ClusterUtil.squaredDistance(points, offset,
+						centroids, k, dimension, minDistance);
+				if (d < minDistance) {
+					minDistance = d;
+				}
+			}
+			sum += minDistance;
+			if (sum >= bound) {
+				return sum;
+			}
+		}
+		return sum;
+	}
+
+	private double averageOf(double sum, FeatureVector featureVector) {
+		return sum * (1d / featureVector.size());
+	}
+
+	private void checkDimension(FeatureVector featureVector) {
+		if (featureVector == null || featureVector.size() == 0)
+			throw new IllegalArgumentException(
+					"Feature vector must not be null or empty");
+		if (count > 0 && featureVector.getDimension() != dimension)
+			throw new IllegalArgumentException("feature dimension "
+					+ featureVector.getDimension()
+					+ " does not match index dimension " + dimension);
+	}
+}
@@ -0,0 +1,392 @@
+package at.fhooe.mcm.smc.math.vq;
+
+import java.util.Arrays;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+/**
+ * Tree over the centroids of a {@link Codebook} for nearest centroid searches
+ * that do not compare a point to every centroid. The centroids are split in
+ * two recursively with 2-means, started from the two centroids farthest
+ * apart, and each node stores the mean and the radius of its centroids.
+ * <p>
+ * Searches follow the nearer mean down to a leaf, then continue with the
+ * nodes passed by, nearest first. The exact search skips every node whose
+ * ball cannot contain a centroid closer than the best one found so far, so it
+ * finds the same centroid as {@link ClusterUtil#minDistance}, and of equally
+ * near centroids the first one in the codebook, like a linear search. The
+ * approximate search stops after a given number of leaves. With a single leaf
+ * it is the O(log K) search of a tree-structured vector quantiser, more
+ * leaves trade speed for accuracy.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public class CodebookTree {
+
+	/** Maximum number of centroids in a leaf. */
+	private static final int LEAF_SIZE = 4;
+	/** Maximum number of 2-means iterations when splitting a node. */
+	private static final int SPLIT_ITERATIONS = 10;
+
+	private final int dimension;
+	private final int length;
+
+	/** Centroid values in tree order, so the centroids of a leaf are adjacent. */
+	private final double[] centroids;
+	/** Index in the codebook of each centroid in tree order. */
+	private final int[] indices;
+
+	private int nodes;
+	/** Mean of the centroids of each node, packed. */
+	private final double[] pivots;
+	/** Largest distance of a centroid of each node to its pivot. */
+	private final double[] radii;
+	/** Child nodes, -1 for leaves. */
+	private final int[] left;
+	private final int[] right;
+	/** Range of centroids in tree order of each node. */
+	private final int[] first;
+	private final int[] end;
+
+	/**
+	 * Best centroid found by a search, and the nodes still to search ordered
+	 * by how far the point is outside their ball.
+	 */
+	private static class Result {
+		int index;
+		double distance = Double.MAX_VALUE;
+		/** Number of leaves the search may still visit. */
+		int leaves;
+
+		/** Binary min heap of nodes, keyed by distance to pivot minus radius. */
+		double[] keys = new double[16];
+		int[] nodes = new int[16];
+		int size;
+
+		Result(int leaves) {
+			this.leaves = leaves;
+		}
+
+		void reset(int maxLeaves) {
+			distance = Double.MAX_VALUE;
+			leaves = maxLeaves;
+			size = 0;
+		}
+
+		void push(int node, double key) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				nodes = Arrays.copyOf(nodes, size * 2);
+			}
+			int i = size++;
+			while (i > 0 && keys[(i - 1) / 2] > key) {
+				keys[i] = keys[(i - 1) / 2];
+				nodes[i] = nodes[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			keys[i] = key;
+			nodes[i] = node;
+		}
+
+		int pop() {
+			int top = nodes[0];
+			double key = keys[--size];
+			int node = nodes[size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && keys[child + 1] < keys[child]) {
+					child++;
+				}
+				if (keys[child] >= key)
+					break;
+				keys[i] = keys[child];
+				nodes[i] = nodes[child];
+				i = child;
+			}
+			keys[i] = key;
+			nodes[i] = node;
+			return top;
+		}
+	}
+
+	public CodebookTree(Codebook codebook) {
+		this.dimension = codebook.getDimension();
+		double[] values = codebook.getCentroidValues();
+		this.length = values.length / dimension;
+
+		int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+
+		int maxNodes = 2 * length;
+		pivots = new double[maxNodes * dimension];
+		radii = new double[maxNodes];
+		left = new int[maxNodes];
+		right = new int[maxNodes];
+		first = new int[maxNodes];
+		end = new int[maxNodes];
+		build(values, order, 0, length);
+
+		centroids = new double[values.length];
+		for (int i = 0; i < length; i++) {
+			System.arraycopy(values, order[i] * dimension, centroids, i
+					* dimension, dimension);
+		}
+		indices = order;
+	}
+
+	/** Builds the node for the given range of centroids, returns its number. */
+	private int build(double[] values, int[] order, int from, int to) {
+		int node = nodes++;
+		first[node] = from;
+		end[node] = to;
+
+		// pivot and radius
+		int pivot = node * dimension;
+		for (int i = from; i < to; i++) {
+			for (int d = 0; d < dimension; d++) {
+				pivots[pivot + d] += values[order[i] * dimension + d];
+			}
+		}
+		for (int d = 0; d < dimension; d++) {
+			pivots[pivot + d] /= to - from;
+		}
+		int farthest = from;
+		double maxDistance = -1;
+		for (int i = from; i < to; i++) {
+			double dist = ClusterUtil.squaredDistance(values, order[i]
+					* dimension, pivots, pivot, dimension, Double.MAX_VALUE);
+			if (dist > maxDistance) {
+				maxDistance = dist;
+				farthest = i;
+			}
+		}
+		radii[node] = Math.sqrt(maxDistance);
+
+		if (to - from <= LEAF_SIZE) {
+			left[node] = -1;
+			right[node] = -1;
+			return node;
+		}
+
+		// split around the farthest centroid and the one farthest from it
+		int a = order[farthest] * dimension;
+		int b = a;
+		maxDistance = -1;
+		for (int i = from; i < to; i++) {
+			double dist = ClusterUtil.squaredDistance(values, order[i]
+					* dimension, values, a, dimension, Double.MAX_VALUE);
+			if (dist > maxDistance) {
+				maxDistance = dist;
+				b = order[i] * dimension;
+			}
+		}
+
+		double[] means = new double[2 * dimension];
+		System.arraycopy(values, a, means, 0, dimension);
+		System.arraycopy(values, b, means, dimension, dimension);
+
+		// refine with 2-means, so the nearer child mean is the nearer pivot
+		int split = from;
+		for (int iteration = 0; iteration < SPLIT_ITERATIONS; iteration++) {
+			int oldSplit = split;
+			split = partition(values, order, from, to, means);
+			if (split == from || split == to || split == oldSplit
+					&& iteration > 0)
+				break;
+
+			Arrays.fill(means, 0);
+			for (int i = from; i < to; i++) {
+				int m = i < split ? 0 : dimension;
+				for (int d = 0; d < dimension; d++) {
+					means[m + d] += values[order[i] * dimension + d];
+				}
+			}
+			for (int d = 0; d < dimension; d++) {
+				means[d] /= split - from;
+				means[dimension + d] /= to - split;
+			}
+		}
+		// identical centroids cannot be separated
+		if (split == from || split == to) {
+			split = (from + to) / 2;
+		}
+
+		left[node] = build(values, order, from, split);
+		right[node] = build(values, order, split, to);
+		return node;
+	}
+
+	/**
+	 * Moves the centroids nearer to the first mean to the front of the range.
+	 *
+	 * @return the index of the first centroid nearer to the second mean
+	 */
+	private int partition(double[] values, int[] order, int from, int to,
+			double[] means) {
+		int split = from;
+		for (int i = from; i < to; i++) {
+			int c = order[i] * dimension;
+			if (ClusterUtil.squaredDistance(values, c, means, 0, dimension,
+					Double.MAX_VALUE) <= ClusterUtil.squaredDistance(values, c,
+					means, dimension, dimension, Double.MAX_VALUE)) {
+				int tmp = order[split];
+				order[split++] = order[i];
+				order[i] = tmp;
+			}
+		}
+		return split;
+	}
+
+	/** Returns the number of centroids. */
+	public int getLength() {
+		return length;
+	}
+
+	/** Returns the dimension of the centroids. */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/**
+	 * Finds the nearest centroid of a point.
+	 *
+	 * @param point
+	 *            array holding the point
+	 * @param offset
+	 *            index of the first value of the point
+	 * @return the index of the nearest centroid in the codebook
+	 */
+	public int nearest(double[] point, int offset) {
+		Result result = new Result(Integer.MAX_VALUE);
+		search(point, offset, result);
+		return indices[result.index];
+	}
+
+	/**
+	 * Returns the squared euclidean distance of a point to its nearest
+	 * centroid, same as {@link ClusterUtil#minDistance}.
+	 */
+	public double minDistance(double[] point, int offset) {
+		Result result = new Result(Integer.MAX_VALUE);
+		search(point, offset, result);
+		return result.distance;
+	}
+
+	/**
+	 * Finds a centroid close to a point, visiting at most the given number of
+	 * leaves. This is not always the nearest centroid.
+	 *
+	 * @param maxLeaves
+	 *            number of leaves to visit, at least 1
+	 * @return the index of the centroid in the codebook
+	 */
+	public int nearestApproximate(double[] point, int offset, int maxLeaves) {
+		Result result = new Result(checkLeaves(maxLeaves));
+		search(point, offset, result);
+		return indices[result.index];
+	}
+
+	/**
+	 * Returns the squared euclidean distance of a point to the centroid found
+	 * by {@link #nearestApproximate(double[], int, int)}.
+	 */
+	public double minDistanceApproximate(double[] point, int offset,
+			int maxLeaves) {
+		Result result = new Result(checkLeaves(maxLeaves));
+		search(point, offset, result);
+		return result.distance;
+	}
+
+	/**
+	 * Calculates the average distortion between a feature vector and the
+	 * codebook, same as
+	 * {@link ClusterUtil#calculateAverageDistortion(FeatureVector, Codebook)}.
+	 */
+	public double calculateAverageDistortion(FeatureVector featureVector) {
+		return averageDistortion(featureVector, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Calculates the average distortion between a feature vector and the
+	 * codebook with the approximate search, which may be higher than the
+	 * exact one.
+	 */
+	public double calculateAverageDistortion(FeatureVector featureVector,
+			int maxLeaves) {
+		return averageDistortion(featureVector, checkLeaves(maxLeaves));
+	}
+
+	private double averageDistortion(FeatureVector featureVector, int maxLeaves) {
+		double[] points = featureVector.getData();
+		Result result = new Result(maxLeaves);
+		double sumDistortion = 0;
+		for (int i = 0; i < featureVector.size(); i++) {
+			result.reset(maxLeaves);
+			search(points, featureVector.getOffset(i), result);
+			sumDistortion += result.distance;
+		}
+		return sumDistortion / featureVector.size();
+	}
+
+	private static int checkLeaves(int maxLeaves) {
+		if (maxLeaves < 1)
+			throw new IllegalArgumentException("Max leaves must be >= 1");
+		return maxLeaves;
+	}
+
+	/**
+	 * Best bin first search: descends to the leaf with the nearer pivots,
+	 * remembering each node passed by. Then continues from the remembered node
+	 * that may be closest, until no node can hold a closer centroid or the
+	 * leaves to visit are used up.
+	 */
+	private void search(double[] point, int offset, Result result) {
+		result.push(0, pivotDistance(0, point, offset) - radii[0]);
+		while (result.size > 0 && result.leaves > 0) {
+			double gap = result.keys[0];
+			int node = result.pop();
+			// an equally near centroid may still come first in the codebook
+			if (gap > 0 && gap * gap > result.distance)
+				break;
+
+			while (left[node] >= 0) {
+				int near = left[node];
+				int far = right[node];
+				double nearPivot = pivotDistance(near, point, offset);
+				double farPivot = pivotDistance(far, point, offset);
+				if (farPivot < nearPivot) {
+					near = right[node];
+					far = left[node];
+					double tmp = nearPivot;
+					nearPivot = farPivot;
+					farPivot = tmp;
+				}
+				result.push(far, farPivot - radii[far]);
+				node = near;
+			}
+			scanLeaf(node, point, offset, result);
+			result.leaves--;
+		}
+	}
+
+	/** Returns the euclidean distance of the point to the pivot of a node. */
+	private double pivotDistance(int node, double[] point, int offset) {
+		return Math.sqrt(ClusterUtil.squaredDistance(point, offset, pivots,
+				node * dimension, dimension, Double.MAX_VALUE));
+	}
+
+	private void scanLeaf(int node, double[] point, int offset, Result result) {
+		for (int i = first[node], c = i * dimension; i < end[node]; i++, c += dimension) {
+			double d = ClusterUtil.squaredDistance(point, offset, centroids,
+					c, dimension, result.distance);
+			if (d < result.distance || d == result.distance
+					&& indices[i] < indices[result.index]) {
+				result.distance = d;
+				result.index = i;
+			}
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package at.fhooe.mcm.smc.math.vq;
+
+import java.util.Random;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+/**
+ * Read only {@link Codebook} that takes less memory, for keeping the
+ * codebooks of many speakers resident. Distances are calculated directly on
+ * the compressed centroids, without decoding them first:
+ * <ul>
+ * <li>{@link #float32(Codebook)} stores floats, half the size.</li>
+ * <li>{@link #float16(Codebook)} stores half precision values, a quarter of
+ * the size.</li>
+ * <li>{@link #productQuantized(Codebook, int, int)} splits the dimensions
+ * into subspaces and stores one byte per subspace and centroid, the index of
+ * the nearest centroid of a small codebook trained for that subspace. The
+ * distance of a point to all centroids is then looked up from a table of the
+ * distances of each of its subvectors to each subspace centroid.</li>
+ * </ul>
+ */
+public abstract class CompressedCodebook {
+
+	/** Maximum number of centroids per subspace, so a code fits into a byte. */
+	public static final int MAX_SUB_CENTROIDS = 256;
+	/** Number of {@link KMeans} iterations to train a subspace codebook. */
+	private static final int SUB_ITERATIONS = 50;
+
+	protected final int dimension;
+	protected final int length;
+
+	protected CompressedCodebook(int dimension, int length) {
+		this.dimension = dimension;
+		this.length = length;
+	}
+
+	/** Stores the centroids as floats. */
+	public static CompressedCodebook float32(Codebook codebook) {
+		return new Float32(codebook);
+	}
+
+	/** Stores the centroids as half precision values. */
+	public static CompressedCodebook float16(Codebook codebook) {
+		return new Half(codebook);
+	}
+
+	/**
+	 * Stores the centroids as product quantisation codes.
+	 *
+	 * @param subspaces
+	 *            number of subspaces the dimensions are split into, between 1
+	 *            and the dimension of the codebook
+	 * @param subCentroids
+	 *            number of centroids per subspace, at most the number of
+	 *            centroids of the codebook and {@link #MAX_SUB_CENTROIDS}
+	 */
+	public static CompressedCodebook productQuantized(Codebook codebook,
+			int subspaces, int subCentroids) {
+		return new ProductQuantized(codebook, subspaces, subCentroids);
+	}
+
+	/** Returns the number of centroids. */
+	public int getLength() {
+		return length;
+	}
+
+	/** Returns the dimension of the centroids. */
+	public int getDimension() {
+		return dimension;
+	}
+
+	/** Returns the number of bytes used to store the centroids. */
+	public abstract int getByteSize();
+
+	/**
+	 * Returns the centroids packed one after another, like
+	 * {@link Codebook#getCentroidValues()}, as far as the compression keeps
+	 * them.
+	 */
+	public abstract double[] getCentroidValues();
+
+	/**
+	 * Returns the squared euclidean distance from a point to the nearest
+	 * centroid, like {@link ClusterUtil#minDistance}.
+	 *
+	 * @param point
+	 *            array holding the point
+	 * @param offset
+	 *            index of the first value of the point
+	 */
+	public abstract double minDistance(double[] point, int offset);
+
+	/**
+	 * Calculates the average distortion between a feature vector and the
+	 * codebook, like
+	 * {@link ClusterUtil#calculateAverageDistortion(FeatureVector, Codebook)}.
+	 */
+	public double calculateAverageDistortion(FeatureVector featureVector) {
+		double[] points = featureVector.getData();
+		double sumDistortion = 0;
+		for (int i = 0; i < featureVector.size(); i++) {
+			sumDistortion += minDistance(points, featureVector.getOffset(i));
+		}
+		return sumDistortion / featureVector.size();
+	}
+
+	/** Returns a codebook with the centroids as far as the compression keeps them. */
+	public Codebook decode() {
+		return Codebook.create(getCentroidValues(), dimension);
+	}
+
+	private static class Float32 extends CompressedCodebook {
+		private final float[] centroids;
+
+		Float32(Codebook codebook) {
+			super(codebook.getDimension(), codebook.getLength());
+			double[] values = codebook.getCentroidValues();
+			centroids = new float[values.length];
+			for (int i = 0; i < values.length; i++) {
+				centroids[i] = (float) values[i];
+			}
+		}
+
+		@Override
+		public int getByteSize() {
+			return centroids.length * 4;
+		}
+
+		@Override
+		public double[] getCentroidValues() {
+			double[] values = new double[centroids.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = centroids[i];
+			}
+			return values;
+		}
+
+		@Override
+		public double minDistance(double[] point, int offset) {
+			double minDistance = Double.MAX_VALUE;
+			for (int c = 0; c < centroids.length; c += dimension) {
+				double distance = 0;
+				for (int d = 0; d < dimension && distance < minDistance; d++) {
+					double diff = point[offset + d] - centroids[c + d];
+					distance += diff * diff;
+				}
+				if (distance < minDistance) {
+					minDistance = distance;
+				}
+			}
+			return minDistance;
+		}
+	}
+
+	private static class Half extends CompressedCodebook {
+		private final short[] centroids;
+
+		Half(Codebook codebook) {
+			super(codebook.getDimension(), codebook.getLength());
+			double[] values = codebook.getCentroidValues();
+			centroids = new short[values.length];
+			for (int i = 0; i < values.length; i++) {
+				centroids[i] = Float16.fromFloat((float) values[i]);
+			}
+		}
+
+		@Override
+		public int getByteSize() {
+			return centroids.length * 2;
+		}
+
+		@Override
+		public double[] getCentroidValues() {
+			double[] values = new double[centroids.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = Float16.toFloat(centroids[i]);
+			}
+			return values;
+		}
+
+		@Override
+		public double minDistance(double[] point, int offset) {
+			double minDistance = Double.MAX_VALUE;
+			for (int c = 0; c < centroids.length; c += dimension) {
+				double distance = 0;
+				for (int d = 0; d < dimension && distance < minDistance; d++) {
+					double diff = point[offset + d]
+							- Float16.toFloat(centroids[c + d]);
+					distance += diff * diff;
+				}
+				if (distance < minDistance) {
+					minDistance = distance;
+				}
+			}
+			return minDistance;
+		}
+	}
+
+	private static class ProductQuantized extends CompressedCodebook {
+		private final int subspaces;
+		private final int subCentroids;
+		/** First dimension of each subspace, and the dimension after the last one. */
+		private final int[] bounds;
+		/** Centroids of all subspaces; subspace s starts at subCentroids * bounds[s]. */
+		private final float[] subspaceCentroids;
+		/** One code per subspace for each centroid. */
+		private final byte[] codes;
+
+		ProductQuantized(Codebook codebook, int subspaces, int subCentroids) {
+			super(codebook.getDimension(), codebook.getLength());
+			if (subspaces < 1 || subspaces > dimension)
+				throw new IllegalArgumentException("Subspaces must be between 1 and "
+						+ dimension);
+			if (subCentroids < 1 || subCentroids > MAX_SUB_CENTROIDS
+					|| subCentroids > length)
+				throw new IllegalArgumentException(
+						"Subspace centroids must be between 1 and "
+								+ Math.min(MAX_SUB_CENTROIDS, length));
+
+			this.subspaces = subspaces;
+			this.subCentroids = subCentroids;
+			bounds = new int[subspaces + 1];
+			for (int s = 0; s <= subspaces; s++) {
+				bounds[s] = dimension * s / subspaces;
+			}
+			subspaceCentroids = new float[subCentroids * dimension];
+			codes = new byte[length * subspaces];
+
+			double[] values = codebook.getCentroidValues();
+			for (int s = 0; s < subspaces; s++) {
+				train(values, s);
+			}
+		}
+
+		/** Clusters the subvectors of all centroids for subspace s and encodes them. */
+		private void train(double[] values, int s) {
+			int subDimension = bounds[s + 1] - bounds[s];
+			FeatureVector subvectors = new FeatureVector(subDimension, length);
+			for (int i = 0; i < length; i++) {
+				subvectors.add(values, i * dimension + bounds[s]);
+			}
+
+			// fixed seed, the same codebook always compresses the same way
+			KMeans kmeans = new KMeans(subCentroids, subvectors,
+					SUB_ITERATIONS, new Random(s));
+			kmeans.runAccelerated();
+			int first = subCentroids * bounds[s];
+			double[] sub = new double[subCentroids * subDimension];
+			for (int j = 0; j < subCentroids; j++) {
+				double[][] mean = kmeans.getMean(j).getArray();
+				for (int d = 0; d < subDimension; d++) {
+					subspaceCentroids[first + j * subDimension + d] = (float) mean[d][0];
+					sub[j * subDimension + d] = subspaceCentroids[first + j
+							* subDimension + d];
+				}
+			}
+
+			double[] points = subvectors.getData();
+			for (int i = 0; i < length; i++) {
+				int p = subvectors.getOffset(i);
+				double minDistance = Double.MAX_VALUE;
+				int nearest = 0;
+				for (int j = 0; j < subCentroids; j++) {
+					double d = ClusterUtil.squaredDistance(points, p, sub, j
+							* subDimension, subDimension, minDistance);
+					if (d < minDistance) {
+						minDistance = d;
+						nearest = j;
+					}
+				}
+				codes[i * subspaces + s] = (byte) nearest;
+			}
+		}
+
+		@Override
+		public int getByteSize() {
+			return codes.length + subspaceCentroids.length * 4;
+		}
+
+		@Override
+		public double[] getCentroidValues() {
+			double[] values = new double[length * dimension];
+			for (int i = 0; i < length; i++) {
+				for (int s = 0; s < subspaces; s++) {
+					int subDimension = bounds[s + 1] - bounds[s];
+					int c = subCentroids * bounds[s]
+							+ (codes[i * subspaces + s] & 0xff) * subDimension;
+					for (int d = 0; d < subDimension; d++) {
+						values[i * dimension + bounds[s] + d] = subspaceCentroids[c + d];
+					}
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public double minDistance(double[] point, int offset) {
+			return minDistance(point, offset, new double[subspaces
+					* subCentroids]);
+		}
+
+		@Override
+		public double calculateAverageDistortion(FeatureVector featureVector) {
+			double[] points = featureVector.getData();
+			double[] table = new double[subspaces * subCentroids];
+			double sumDistortion = 0;
+			for (int i = 0; i < featureVector.size(); i++) {
+				sumDistortion += minDistance(points,
+						featureVector.getOffset(i), table);
+			}
+			return sumDistortion / featureVector.size();
+		}
+
+		/**
+		 * Fills the table with the distance of each subvector of the point to
+		 * each centroid of its subspace, then adds up the table entries given
+		 * by the codes of each centroid.
+		 */
+		private double minDistance(double[] point, int offset, double[] table) {
+			for (int s = 0, t = 0; s < subspaces; s++) {
+				int subDimension = bounds[s + 1] - bounds[s];
+				int p = offset + bounds[s];
+				for (int j = 0, c = subCentroids * bounds[s]; j < subCentroids; j++, t++) {
+					double distance = 0;
+					for (int d = 0; d < subDimension; d++, c++) {
+						double diff = point[p + d] - subspaceCentroids[c];
+						distance += diff * diff;
+					}
+					table[t] = distance;
+				}
+			}
+
+			double minDistance = Double.MAX_VALUE;
+			for (int i = 0, k = 0; i < length; i++) {
+				double distance = 0;
+				for (int s = 0; s < subspaces; s++, k++) {
+					distance += table[s * subCentroids + (codes[k] & 0xff)];
+				}
+				if (distance < minDistance) {
+					minDistance = distance;
+				}
+			}
+			return minDistance;
+		}
+	}
+}
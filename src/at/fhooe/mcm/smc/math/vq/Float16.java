@@ -0,0 +1,67 @@
+package at.fhooe.mcm.smc.math.vq;
+
+/**
+ * Conversion between floats and IEEE 754 half precision values, stored in a
+ * short. Half precision has 11 significant bits and a range of +-65504, which
+ * is enough for MFCC centroids.
+ */
+public final class Float16 {
+
+	private Float16() {
+	}
+
+	/**
+	 * Converts a float to half precision, rounding to the nearest value.
+	 * Values out of range become infinity.
+	 */
+	public static short fromFloat(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+
+		if (exponent >= 0x1f) {
+			if (((bits >>> 23) & 0xff) == 0xff && mantissa != 0)
+				return (short) (sign | 0x7e00);
+			return (short) (sign | 0x7c00);
+		}
+		if (exponent <= 0) {
+			// subnormal, or too small for half precision
+			if (exponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			int shift = 14 - exponent;
+			int half = mantissa >> shift;
+			int rest = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (rest > halfway || rest == halfway && (half & 1) != 0) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+
+		int half = exponent << 10 | mantissa >> 13;
+		int rest = mantissa & 0x1fff;
+		// a carry into the exponent is correct, up to infinity
+		if (rest > 0x1000 || rest == 0x1000 && (half & 1) != 0) {
+			half++;
+		}
+		return (short) (sign | half);
+	}
+
+	/** Converts a half precision value to a float. */
+	public static float toFloat(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+
+		if (exponent == 0x1f)
+			return Float.intBitsToFloat(sign | 0x7f800000 | mantissa << 13);
+		if (exponent == 0) {
+			float value = mantissa * 0x1p-24f;
+			return sign != 0 ? -value : value;
+		}
+		return Float.intBitsToFloat(sign | (exponent + 112) << 23 | mantissa << 13);
+	}
+}
@@ -1,84 +1,184 @@
 package at.fhooe.mcm.smc.math.vq;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import at.fhooe.mcm.smc.math.matrix.Matrix;
 import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
 
-/** Clusters using the kmeans algorithm. 
+/** Clusters using the kmeans algorithm. The cluster centers are seeded with
+ * k-means++, iterations stop once the mean quantisation error (MQE) improves
+ * by less than {@link #setConvergenceThreshold(double)}.
  * 
  * @author thomaskaiser
  *
  */
 public class KMeans {
-	private static Random rnd = new Random();
+	/** Default relative MQE improvement below which clustering stops. */
+	public static final double DEFAULT_CONVERGENCE_THRESHOLD = 0.005;
 
 	private int maxIterations;
 	private int numberClusters;
+	private double convergenceThreshold = DEFAULT_CONVERGENCE_THRESHOLD;
 
 	private FeatureVector featureVector;
 	private Cluster[] clusters;
 
 	private boolean clustered = false;
 
+	/** MQE after each iteration of the last run. */
+	private double[] errors;
+	private int iterations;
+	/** Number of point to center distances calculated in the last run. */
+	private long distanceCount;
+
 	public KMeans(int numberClusters, FeatureVector featureVector,
 			int maxIterations) {
+		this(numberClusters, featureVector, maxIterations, new Random());
+	}
+
+	/**
+	 * Creates a clustering that seeds the cluster centers with the given
+	 * random generator, for reproducible results.
+	 */
+	public KMeans(int numberClusters, FeatureVector featureVector,
+			int maxIterations, Random random) {
 		if (numberClusters < 1)
 			throw new IllegalArgumentException("Cluster number must be >= 1");
 		if (maxIterations < 1)
 			throw new IllegalArgumentException("Max iteration must be >= 1");
-		if (featureVector == null || featureVector.size() == 0)
+		if (featureVector == null || featureVector.size() < numberClusters)
 			throw new IllegalArgumentException(
-					"Feature vector must not be null or empty");
+					"Feature vector must not be null and contain at least one point per cluster");
 
 		this.numberClusters = numberClusters;
 		this.clusters = new Cluster[numberClusters];
 		this.maxIterations = maxIterations;
 		this.featureVector = featureVector;
 
-		// select cluster center points
+		int[] startPoints = selectStartPoints(random);
+		for (int i = 0; i < numberClusters; i++)
+			clusters[i] = new Cluster(this.featureVector.get(startPoints[i]));
+	}
+
+	/**
+	 * Selects the cluster center points with k-means++: the first one
+	 * uniformly, each further one with a probability proportional to its
+	 * squared distance to the nearest center selected so far.
+	 */
+	private int[] selectStartPoints(Random random) {
+		double[] points = featureVector.getData();
+		int dimension = featureVector.getDimension();
+		int size = featureVector.size();
+
 		int[] startPoints = new int[numberClusters];
-		for (int i = 0; i < numberClusters;) {
-			startPoints[i] = rnd.nextInt(featureVector.size());
-			for (int j = 0; j < i; j++) {
-				if (startPoints[j] == startPoints[i])
-					i--;
+		double[] distances = new double[size];
+		Arrays.fill(distances, Double.MAX_VALUE);
+		startPoints[0] = random.nextInt(size);
+		for (int i = 1; i < numberClusters; i++) {
+			int last = featureVector.getOffset(startPoints[i - 1]);
+			double total = 0;
+			for (int k = 0; k < size; k++) {
+				double d = ClusterUtil.squaredDistance(points,
+						featureVector.getOffset(k), points, last, dimension,
+						distances[k]);
+				if (d < distances[k]) {
+					distances[k] = d;
+				}
+				total += distances[k];
 			}
-			i++;
+
+			int selected = 0;
+			if (total > 0) {
+				double target = random.nextDouble() * total;
+				while (selected < size - 1
+						&& (target -= distances[selected]) >= 0) {
+					selected++;
+				}
+				// rounding may end on an already selected point
+				while (distances[selected] == 0) {
+					selected = (selected + 1) % size;
+				}
+			} else {
+				// all remaining points coincide with a center
+				selected = random.nextInt(size);
+			}
+			startPoints[i] = selected;
 		}
+		return startPoints;
+	}
 
-		for (int i = 0; i < numberClusters; i++)
-			clusters[i] = new Cluster(this.featureVector.get(startPoints[i]));
+	/**
+	 * Sets the relative MQE improvement below which clustering stops, 0 only
+	 * stops once the MQE no longer decreases.
+	 */
+	public void setConvergenceThreshold(double convergenceThreshold) {
+		if (convergenceThreshold < 0)
+			throw new IllegalArgumentException(
+					"Convergence threshold must be >= 0");
+		this.convergenceThreshold = convergenceThreshold;
+	}
+
+	public double getConvergenceThreshold() {
+		return convergenceThreshold;
+	}
+
+	/**
+	 * Records the MQE of an iteration and checks whether to stop.
+	 *
+	 * @return true if the clustering has converged
+	 */
+	private boolean iterationDone(double oldMQE, double MQE) {
+		errors[iterations++] = MQE;
+		return iterations > 1
+				&& oldMQE - MQE <= convergenceThreshold * oldMQE;
+	}
+
+	/** Moves each cluster center to the mean of its points, keeping empty clusters in place. */
+	private void moveCenters() {
+		for (int n = 0; n < numberClusters; n++) {
+			Cluster cluster = clusters[n];
+			cluster.reset(cluster.getElementCount() > 0 ? cluster.getMean()
+					: cluster.getCenter());
+		}
 	}
 
 	public void run() {
-		double MQE = 0.99d * Double.MAX_VALUE;
-		double oldMQE = Double.MAX_VALUE;
+		double MQE = Double.MAX_VALUE;
+		double oldMQE;
 		double minDistance;
 		int clusterIndex = 0;
-		Matrix curPoint;
+		double[] points = featureVector.getData();
+		int curPoint;
 		int i = 0;
-		double diff = oldMQE - MQE;
-		double percentage = diff / oldMQE * 100;
+		errors = new double[maxIterations];
+		iterations = 0;
+		distanceCount = 0;
+		boolean converged = false;
 
-		while (MQE < oldMQE && i < maxIterations /* && percentage >= 0.5d */) {
+		while (!converged && i < maxIterations) {
 			oldMQE = MQE;
 			MQE = 0;
 
 			// adjust cluster center except on first run
 			if (i != 0) {
-				for (int n = 0; n < numberClusters; n++)
-					clusters[n].reset(clusters[n].getMean());
+				moveCenters();
 			}
 
 			// compute the new clustering
 			for (int k = 0; k < featureVector.size(); k++) {
-				curPoint = featureVector.get(k);
+				curPoint = featureVector.getOffset(k);
 				minDistance = Double.MAX_VALUE;
 
 				// compare the point to each cluster center
 				for (int j = 0; j < numberClusters; j++) {
-					double d = clusters[j].getDistanceFromCenter(curPoint);
+					double d = clusters[j].getDistanceFromCenter(points, curPoint);
 					if (d < minDistance) {
 						minDistance = d;
 						clusterIndex = j;
@@ -88,20 +188,380 @@ public class KMeans {
 				// increase mean quantisation error
 				MQE += minDistance;
 				// add the point to the cluster with minimal distance
-				clusters[clusterIndex].add(curPoint);
+				clusters[clusterIndex].add(points, curPoint);
 			}
+			distanceCount += (long) featureVector.size() * numberClusters;
 
 			i++;
-			diff = oldMQE - MQE;
-			percentage = diff / oldMQE * 100;
-			System.out.println("KMeansClustering: Iteration " + i + "/"
-					+ maxIterations + ". diff(MQE/oldMQE) = " + (oldMQE - MQE)
-					+ " (" + String.format("%.2f", percentage) + "%)");
+			converged = iterationDone(oldMQE, MQE);
+		}
+
+		clustered = true;
+	}
+
+	/**
+	 * Same as {@link #run()}, but the points are split into one range per
+	 * available processor for the assignment step. Each range is assigned on
+	 * the given executor and accumulates its own cluster sums, which are
+	 * added up at the end of each iteration.
+	 * 
+	 * @param executor
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for an iteration to finish
+	 */
+	public void run(ExecutorService executor) throws InterruptedException {
+		final int dimension = featureVector.getDimension();
+		final int size = featureVector.size();
+		final double[] points = featureVector.getData();
+
+		final double[] centers = new double[numberClusters * dimension];
+		int tasks = Math.min(Runtime.getRuntime().availableProcessors(), size);
+		PartialClustering[] partials = new PartialClustering[tasks];
+		for (int t = 0; t < tasks; t++) {
+			partials[t] = new PartialClustering(points, centers, dimension,
+					(int) ((long) size * t / tasks),
+					(int) ((long) size * (t + 1) / tasks));
+		}
+		double[] sum = new double[numberClusters * dimension];
+		double[] squaredSum = new double[numberClusters * dimension];
+		int[] count = new int[numberClusters];
+
+		double MQE = Double.MAX_VALUE;
+		double oldMQE;
+		int i = 0;
+		errors = new double[maxIterations];
+		iterations = 0;
+		distanceCount = 0;
+		boolean converged = false;
+
+		while (!converged && i < maxIterations) {
+			oldMQE = MQE;
+			MQE = 0;
+
+			// adjust cluster center except on first run
+			if (i != 0) {
+				moveCenters();
+			}
+			for (int n = 0; n < numberClusters; n++) {
+				double[][] center = clusters[n].getCenter().getArray();
+				for (int d = 0; d < dimension; d++) {
+					centers[n * dimension + d] = center[d][0];
+				}
+			}
+
+			// compute the new clustering in parallel
+			runAll(executor, partials);
+
+			// add up the partial results in a fixed order
+			Arrays.fill(sum, 0);
+			Arrays.fill(squaredSum, 0);
+			Arrays.fill(count, 0);
+			for (PartialClustering partial : partials) {
+				MQE += partial.error;
+				for (int j = 0; j < sum.length; j++) {
+					sum[j] += partial.sum[j];
+					squaredSum[j] += partial.squaredSum[j];
+				}
+				for (int n = 0; n < numberClusters; n++) {
+					count[n] += partial.count[n];
+				}
+			}
+			for (int n = 0; n < numberClusters; n++) {
+				clusters[n].add(sum, squaredSum, n * dimension, count[n]);
+			}
+			distanceCount += (long) size * numberClusters;
+
+			i++;
+			converged = iterationDone(oldMQE, MQE);
+		}
+
+		clustered = true;
+	}
+
+	/**
+	 * Same as {@link #run()}, but skips distance calculations that cannot
+	 * change the assignment of a point (Hamerly's algorithm). Each point keeps
+	 * an upper bound on the distance to its center and a lower bound on the
+	 * distance to all other centers. While the upper bound is below the lower
+	 * bound and below half the distance from its center to the nearest other
+	 * center, the point keeps its center without calculating any distance.
+	 * After each iteration the bounds are loosened by how far the centers
+	 * moved, so they stay valid without recalculating them.
+	 * <p>
+	 * The result is the same as that of {@link #run()}, in later iterations
+	 * most points are not compared to any center.
+	 */
+	public void runAccelerated() {
+		int dimension = featureVector.getDimension();
+		int size = featureVector.size();
+		double[] points = featureVector.getData();
+
+		double[] centers = new double[numberClusters * dimension];
+		double[] halfSeparation = new double[numberClusters];
+		int[] assignment = new int[size];
+		double[] upper = new double[size];
+		double[] lower = new double[size];
+
+		double[] sum = new double[numberClusters * dimension];
+		double[] squaredSum = new double[numberClusters * dimension];
+		int[] count = new int[numberClusters];
+
+		double MQE = Double.MAX_VALUE;
+		double oldMQE;
+		errors = new double[maxIterations];
+		iterations = 0;
+		distanceCount = 0;
+		boolean converged = false;
+
+		for (int i = 0; !converged && i < maxIterations; i++) {
+			oldMQE = MQE;
+
+			if (i == 0) {
+				copyCenters(centers, dimension);
+				for (int k = 0; k < size; k++) {
+					assign(points, k, centers, assignment, upper, lower);
+				}
+			} else {
+				moveCenters();
+				loosenBounds(centers, assignment, upper, lower);
+				updateSeparation(centers, halfSeparation);
+
+				for (int k = 0; k < size; k++) {
+					int a = assignment[k];
+					double bound = Math.max(halfSeparation[a], lower[k]);
+					if (upper[k] <= bound)
+						continue;
+
+					// tighten the upper bound and check again
+					upper[k] = Math.sqrt(ClusterUtil.squaredDistance(points,
+							featureVector.getOffset(k), centers, a * dimension,
+							dimension, Double.MAX_VALUE));
+					distanceCount++;
+					if (upper[k] <= bound)
+						continue;
+
+					assign(points, k, centers, assignment, upper, lower);
+				}
+			}
+
+			// accumulate the cluster sums
+			Arrays.fill(sum, 0);
+			Arrays.fill(squaredSum, 0);
+			Arrays.fill(count, 0);
+			for (int k = 0; k < size; k++) {
+				int p = featureVector.getOffset(k);
+				int c = assignment[k] * dimension;
+				for (int d = 0; d < dimension; d++) {
+					double x = points[p + d];
+					sum[c + d] += x;
+					squaredSum[c + d] += x * x;
+				}
+				count[assignment[k]]++;
+			}
+
+			// the exact distances are not known, but the sums are enough
+			MQE = 0;
+			for (int n = 0; n < numberClusters; n++) {
+				for (int d = 0, c = n * dimension; d < dimension; d++, c++) {
+					MQE += squaredSum[c] - 2 * centers[c] * sum[c] + count[n]
+							* centers[c] * centers[c];
+				}
+				clusters[n].add(sum, squaredSum, n * dimension, count[n]);
+			}
+			MQE = Math.max(0, MQE);
+
+			converged = iterationDone(oldMQE, MQE);
 		}
 
 		clustered = true;
 	}
 
+	/**
+	 * Assigns point k to its nearest center and sets its bounds to the exact
+	 * distances of the nearest and second nearest center.
+	 */
+	private void assign(double[] points, int k, double[] centers,
+			int[] assignment, double[] upper, double[] lower) {
+		int dimension = featureVector.getDimension();
+		int p = featureVector.getOffset(k);
+		double nearest = Double.MAX_VALUE;
+		double second = Double.MAX_VALUE;
+		int index = 0;
+		for (int j = 0, c = 0; j < numberClusters; j++, c += dimension) {
+			double d = ClusterUtil.squaredDistance(points, p, centers, c,
+					dimension, second);
+			if (d < nearest) {
+				second = nearest;
+				nearest = d;
+				index = j;
+			} else if (d < second) {
+				second = d;
+			}
+		}
+		distanceCount += numberClusters;
+
+		assignment[k] = index;
+		upper[k] = Math.sqrt(nearest);
+		lower[k] = Math.sqrt(second);
+	}
+
+	/**
+	 * Copies the moved cluster centers and loosens the bounds of each point by
+	 * the distance its own center, and the farthest moving other center,
+	 * moved.
+	 */
+	private void loosenBounds(double[] centers, int[] assignment,
+			double[] upper, double[] lower) {
+		int dimension = featureVector.getDimension();
+		double[] moved = new double[numberClusters];
+		double maxMoved = 0;
+		double secondMoved = 0;
+		int farthest = -1;
+		for (int n = 0; n < numberClusters; n++) {
+			double[][] center = clusters[n].getCenter().getArray();
+			double distance = 0;
+			for (int d = 0, c = n * dimension; d < dimension; d++, c++) {
+				double diff = center[d][0] - centers[c];
+				distance += diff * diff;
+				centers[c] = center[d][0];
+			}
+			moved[n] = Math.sqrt(distance);
+			if (moved[n] > maxMoved) {
+				secondMoved = maxMoved;
+				maxMoved = moved[n];
+				farthest = n;
+			} else if (moved[n] > secondMoved) {
+				secondMoved = moved[n];
+			}
+		}
+
+		for (int k = 0; k < assignment.length; k++) {
+			int a = assignment[k];
+			upper[k] += moved[a];
+			lower[k] -= a == farthest ? secondMoved : maxMoved;
+		}
+	}
+
+	/**
+	 * Calculates half the distance of each center to its nearest other center.
+	 * A point closer to its center than that cannot be closer to any other.
+	 */
+	private void updateSeparation(double[] centers, double[] halfSeparation) {
+		int dimension = featureVector.getDimension();
+		Arrays.fill(halfSeparation, Double.MAX_VALUE);
+		for (int n = 0; n < numberClusters; n++) {
+			for (int m = n + 1; m < numberClusters; m++) {
+				double d = 0.5 * Math.sqrt(ClusterUtil.squaredDistance(centers,
+						n * dimension, centers, m * dimension, dimension,
+						Double.MAX_VALUE));
+				if (d < halfSeparation[n]) {
+					halfSeparation[n] = d;
+				}
+				if (d < halfSeparation[m]) {
+					halfSeparation[m] = d;
+				}
+			}
+		}
+	}
+
+	private void copyCenters(double[] centers, int dimension) {
+		for (int n = 0; n < numberClusters; n++) {
+			double[][] center = clusters[n].getCenter().getArray();
+			for (int d = 0; d < dimension; d++) {
+				centers[n * dimension + d] = center[d][0];
+			}
+		}
+	}
+
+	private static void runAll(ExecutorService executor,
+			PartialClustering[] partials) throws InterruptedException {
+		List<Future<Void>> futures = new ArrayList<Future<Void>>(
+				partials.length);
+		for (PartialClustering partial : partials) {
+			futures.add(executor.submit(partial));
+		}
+
+		try {
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for (Future<Void> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Assigns a range of points to their nearest center and accumulates the
+	 * cluster sums of that range.
+	 */
+	private static class PartialClustering implements Callable<Void> {
+		private final double[] points;
+		private final double[] centers;
+		private final int dimension;
+		private final int from;
+		private final int to;
+
+		private final double[] sum;
+		private final double[] squaredSum;
+		private final int[] count;
+		private double error;
+
+		PartialClustering(double[] points, double[] centers, int dimension,
+				int from, int to) {
+			this.points = points;
+			this.centers = centers;
+			this.dimension = dimension;
+			this.from = from;
+			this.to = to;
+			this.sum = new double[centers.length];
+			this.squaredSum = new double[centers.length];
+			this.count = new int[centers.length / dimension];
+		}
+
+		public Void call() {
+			Arrays.fill(sum, 0);
+			Arrays.fill(squaredSum, 0);
+			Arrays.fill(count, 0);
+			error = 0;
+
+			for (int k = from; k < to; k++) {
+				int p = k * dimension;
+				double minDistance = Double.MAX_VALUE;
+				int clusterIndex = 0;
+
+				// compare the point to each cluster center
+				for (int j = 0, c = 0; j < count.length; j++, c += dimension) {
+					double d = 0;
+					for (int i = 0; i < dimension; i++) {
+						double diff = centers[c + i] - points[p + i];
+						d += diff * diff;
+					}
+					if (d < minDistance) {
+						minDistance = d;
+						clusterIndex = j;
+					}
+				}
+
+				error += minDistance;
+				int c = clusterIndex * dimension;
+				for (int i = 0; i < dimension; i++) {
+					double x = points[p + i];
+					sum[c + i] += x;
+					squaredSum[c + i] += x * x;
+				}
+				count[clusterIndex]++;
+			}
+			return null;
+		}
+	}
+
 	public int getNumberClusters() {
 		return numberClusters;
 	}
@@ -109,11 +569,47 @@ public class KMeans {
 	public Matrix getMean(int cluster) {
 		checkClustering();
 
-		Matrix y = clusters[cluster].getMean();
+		// an empty cluster keeps its center
+		Cluster c = clusters[cluster];
+		Matrix y = c.getElementCount() > 0 ? c.getMean() : c.getCenter();
 
 		return y;
 	}
 
+	/**
+	 * Returns the number of iterations of the last run.
+	 */
+	public int getIterations() {
+		checkClustering();
+		return iterations;
+	}
+
+	/**
+	 * Returns the MQE (sum of squared distances of all points to their
+	 * cluster center) after each iteration of the last run.
+	 */
+	public double[] getErrors() {
+		checkClustering();
+		return Arrays.copyOf(errors, iterations);
+	}
+
+	/**
+	 * Returns the number of distances between a point and a cluster center
+	 * calculated in the last run.
+	 */
+	public long getDistanceCount() {
+		checkClustering();
+		return distanceCount;
+	}
+
+	/**
+	 * Returns the MQE after the last iteration.
+	 */
+	public double getError() {
+		checkClustering();
+		return errors[iterations - 1];
+	}
+
 	public Cluster getCluster(int number) {
 		checkClustering();
 		return clusters[number];
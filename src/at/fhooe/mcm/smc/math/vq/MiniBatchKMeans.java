@@ -0,0 +1,271 @@
+package at.fhooe.mcm.smc.math.vq;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.mfcc.FrameSource;
+
+/**
+ * Clusters frames with mini-batch k-means, for training sets too large to
+ * keep in memory. Frames are streamed from a {@link FrameSource} into a
+ * buffer of a few batches. Each batch is drawn at random from the buffer,
+ * its frames are assigned to the nearest center, and each center moves
+ * towards the mean of its frames with a learning rate of one over the number
+ * of frames it has been assigned so far. Memory use only depends on the
+ * batch size and the number of clusters.
+ * <p>
+ * The centers are seeded by running {@link KMeans} on a uniform sample of
+ * one buffer of frames, drawn from a first pass over the source. Seeding from
+ * the first frames only would miss all speakers further into a pooled file.
+ */
+public class MiniBatchKMeans {
+
+	/** Default number of frames per batch. */
+	public static final int DEFAULT_BATCH_SIZE = 1024;
+	/** Number of batches held in the buffer the batches are drawn from. */
+	private static final int BUFFER_BATCHES = 8;
+	/** Number of {@link KMeans} iterations on the first buffer. */
+	private static final int SEED_ITERATIONS = 10;
+
+	private final int numberClusters;
+	private final int batchSize;
+	private final int maxEpochs;
+	private final Random random;
+	private double convergenceThreshold = KMeans.DEFAULT_CONVERGENCE_THRESHOLD;
+
+	private int dimension;
+	private double[] centers;
+	/** Number of frames assigned to each center so far. */
+	private long[] counts;
+	private double[] batchSum;
+	private int[] batchCount;
+
+	private int epochs;
+	private long batches;
+	private double error;
+
+	public MiniBatchKMeans(int numberClusters, int batchSize, int maxEpochs) {
+		this(numberClusters, batchSize, maxEpochs, new Random());
+	}
+
+	/**
+	 * Creates a clustering that draws batches and seeds the centers with the
+	 * given random generator, for reproducible results.
+	 */
+	public MiniBatchKMeans(int numberClusters, int batchSize, int maxEpochs,
+			Random random) {
+		if (numberClusters < 1)
+			throw new IllegalArgumentException("Cluster number must be >= 1");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("Batch size must be >= 1");
+		if (maxEpochs < 1)
+			throw new IllegalArgumentException("Max epochs must be >= 1");
+
+		this.numberClusters = numberClusters;
+		this.batchSize = batchSize;
+		this.maxEpochs = maxEpochs;
+		this.random = random;
+	}
+
+	/**
+	 * Sets the relative decrease of the average distortion of an epoch below
+	 * which training stops.
+	 */
+	public void setConvergenceThreshold(double convergenceThreshold) {
+		if (convergenceThreshold < 0)
+			throw new IllegalArgumentException(
+					"Convergence threshold must be >= 0");
+		this.convergenceThreshold = convergenceThreshold;
+	}
+
+	/**
+	 * Trains the codebook with up to the maximum number of passes over all
+	 * frames of the source.
+	 *
+	 * @return the trained codebook
+	 * @throws IllegalArgumentException
+	 *             if the source has fewer frames than clusters
+	 */
+	public Codebook run(FrameSource source) throws IOException {
+		dimension = source.getDimension();
+		int bufferFrames = Math.max(batchSize * BUFFER_BATCHES, numberClusters);
+		double[] buffer = new double[bufferFrames * dimension];
+		int[] order = new int[bufferFrames];
+
+		seed(source, buffer, bufferFrames);
+		counts = new long[numberClusters];
+		batchSum = new double[numberClusters * dimension];
+		batchCount = new int[numberClusters];
+		epochs = 0;
+		batches = 0;
+
+		double oldError = Double.MAX_VALUE;
+		boolean converged = false;
+		while (!converged && epochs < maxEpochs) {
+			source.reset();
+			int filled = fill(source, buffer, bufferFrames);
+
+			double sum = 0;
+			long frames = 0;
+			while (filled > 0) {
+				shuffle(order, filled);
+				for (int from = 0; from < filled; from += batchSize) {
+					int to = Math.min(filled, from + batchSize);
+					sum += processBatch(buffer, order, from, to);
+					batches++;
+				}
+				frames += filled;
+				filled = fill(source, buffer, bufferFrames);
+			}
+
+			epochs++;
+			error = sum / frames;
+			converged = oldError - error <= convergenceThreshold * oldError;
+			oldError = error;
+		}
+
+		return getCodebook();
+	}
+
+	/** Reads up to count frames into the buffer, returns the number read. */
+	private int fill(FrameSource source, double[] buffer, int count)
+			throws IOException {
+		int filled = 0;
+		while (filled < count) {
+			int n = source.read(buffer, filled * dimension, count - filled);
+			if (n < 0)
+				break;
+			filled += n;
+		}
+		return filled;
+	}
+
+	/**
+	 * Draws a uniform sample of up to bufferFrames frames from the source
+	 * (reservoir sampling) and clusters it to get the initial centers.
+	 */
+	private void seed(FrameSource source, double[] buffer, int bufferFrames)
+			throws IOException {
+		FeatureVector featureVector = new FeatureVector(dimension, bufferFrames);
+
+		source.reset();
+		long seen = 0;
+		int filled;
+		while ((filled = fill(source, buffer, bufferFrames)) > 0) {
+			for (int k = 0; k < filled; k++, seen++) {
+				if (seen < bufferFrames) {
+					featureVector.add(buffer, k * dimension);
+				} else {
+					long r = (long) (random.nextDouble() * (seen + 1));
+					if (r < bufferFrames) {
+						System.arraycopy(buffer, k * dimension,
+								featureVector.getData(), (int) r * dimension,
+								dimension);
+					}
+				}
+			}
+		}
+		if (seen < numberClusters)
+			throw new IllegalArgumentException(
+					"Source must contain at least one frame per cluster");
+
+		KMeans kmeans = new KMeans(numberClusters, featureVector,
+				SEED_ITERATIONS, random);
+		kmeans.runAccelerated();
+		centers = new double[numberClusters * dimension];
+		for (int n = 0; n < numberClusters; n++) {
+			double[][] mean = kmeans.getMean(n).getArray();
+			for (int d = 0; d < dimension; d++) {
+				centers[n * dimension + d] = mean[d][0];
+			}
+		}
+	}
+
+	/** Fills order with a random permutation of 0 .. count - 1. */
+	private void shuffle(int[] order, int count) {
+		for (int i = 0; i < count; i++) {
+			int j = random.nextInt(i + 1);
+			order[i] = order[j];
+			order[j] = i;
+		}
+	}
+
+	/**
+	 * Assigns the frames of a batch to their nearest center and moves the
+	 * centers towards the mean of their frames.
+	 *
+	 * @return the summed distortion of the frames before the update
+	 */
+	private double processBatch(double[] buffer, int[] order, int from, int to) {
+		Arrays.fill(batchSum, 0);
+		Arrays.fill(batchCount, 0);
+
+		double distortion = 0;
+		for (int i = from; i < to; i++) {
+			int p = order[i] * dimension;
+			double minDistance = Double.MAX_VALUE;
+			int nearest = 0;
+			for (int n = 0, c = 0; n < numberClusters; n++, c += dimension) {
+				double d = ClusterUtil.squaredDistance(buffer, p, centers, c,
+						dimension, minDistance);
+				if (d < minDistance) {
+					minDistance = d;
+					nearest = n;
+				}
+			}
+			distortion += minDistance;
+
+			int c = nearest * dimension;
+			for (int d = 0; d < dimension; d++) {
+				batchSum[c + d] += buffer[p + d];
+			}
+			batchCount[nearest]++;
+		}
+
+		// learning rate of each center is batch count / total count
+		for (int n = 0; n < numberClusters; n++) {
+			if (batchCount[n] == 0)
+				continue;
+			counts[n] += batchCount[n];
+			double rate = 1d / counts[n];
+			for (int d = 0, c = n * dimension; d < dimension; d++, c++) {
+				centers[c] += (batchSum[c] - batchCount[n] * centers[c]) * rate;
+			}
+		}
+		return distortion;
+	}
+
+	/** Returns the trained codebook. */
+	public Codebook getCodebook() {
+		checkTrained();
+		return Codebook.create(centers.clone(), dimension);
+	}
+
+	/** Returns the number of passes over the source of the last run. */
+	public int getEpochs() {
+		checkTrained();
+		return epochs;
+	}
+
+	/** Returns the number of batches of the last run. */
+	public long getBatches() {
+		checkTrained();
+		return batches;
+	}
+
+	/**
+	 * Returns the average distortion per frame of the last epoch, measured
+	 * while the centers were being updated.
+	 */
+	public double getError() {
+		checkTrained();
+		return error;
+	}
+
+	private void checkTrained() {
+		if (counts == null)
+			throw new RuntimeException("there is no clustering yet;");
+	}
+}
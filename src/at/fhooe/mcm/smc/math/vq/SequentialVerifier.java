@@ -0,0 +1,192 @@
+package at.fhooe.mcm.smc.math.vq;
+
+/**
+ * Verifies a claimed speaker frame by frame while audio is still being
+ * recorded, and decides as soon as the outcome is statistically clear.
+ * <p>
+ * For each frame, the distortion to the claimed speaker and the difference
+ * to each other speaker's distortion are accumulated. The claimed speaker is
+ * accepted once, with z standard errors of margin, its mean distortion is
+ * below the threshold and every other speaker's mean is above it. It is
+ * rejected once either condition is clearly violated. Consecutive frames
+ * overlap, so they are not independent; z should be chosen conservatively.
+ * <p>
+ * Without an early decision, {@link #finish()} decides like
+ * {@link CodebookIndex#verify(at.fhooe.mcm.smc.math.mfcc.FeatureVector, long)}
+ * with the threshold applied to the claimed speaker's distortion.
+ */
+public class SequentialVerifier {
+
+	public enum Decision {
+		UNDECIDED, ACCEPT, REJECT
+	}
+
+	/** Default number of frames before deciding, about half a second. */
+	public static final int DEFAULT_MIN_FRAMES = 15;
+	/** Default confidence, in standard errors. */
+	public static final double DEFAULT_Z = 3;
+
+	private final CodebookIndex index;
+	private final double threshold;
+	private final int minFrames;
+	private final double z;
+
+	/** The claimed speaker first, then all others. */
+	private final long[] speakers;
+	private final double[] distances;
+
+	private int frames;
+	private double claimedSum;
+	private double claimedSquaredSum;
+	/** Sums of other speaker's minus claimed speaker's distance. */
+	private final double[] marginSums;
+	private final double[] marginSquaredSums;
+	/** Other speakers that are no longer in the index and are ignored. */
+	private final boolean[] removed;
+
+	private Decision decision = Decision.UNDECIDED;
+
+	public SequentialVerifier(CodebookIndex index, long claimedId,
+			double threshold) {
+		this(index, claimedId, threshold, DEFAULT_MIN_FRAMES, DEFAULT_Z);
+	}
+
+	/**
+	 * @param index
+	 *            codebooks of all speakers
+	 * @param claimedId
+	 *            the speaker to verify
+	 * @param threshold
+	 *            maximum average distortion of the claimed speaker
+	 * @param minFrames
+	 *            number of frames before an early decision is made
+	 * @param z
+	 *            required margin in standard errors
+	 */
+	public SequentialVerifier(CodebookIndex index, long claimedId,
+			double threshold, int minFrames, double z) {
+		if (!index.contains(claimedId))
+			throw new IllegalArgumentException("No codebook for speaker "
+					+ claimedId);
+		if (minFrames < 2 || z < 0)
+			throw new IllegalArgumentException(
+					"minFrames must be >= 2 and z >= 0");
+
+		this.index = index;
+		this.threshold = threshold;
+		this.minFrames = minFrames;
+		this.z = z;
+
+		long[] all = index.getSpeakerIds();
+		speakers = new long[all.length];
+		speakers[0] = claimedId;
+		for (int i = 0, n = 1; i < all.length; i++) {
+			if (all[i] != claimedId) {
+				speakers[n++] = all[i];
+			}
+		}
+		distances = new double[speakers.length];
+		marginSums = new double[speakers.length];
+		marginSquaredSums = new double[speakers.length];
+		removed = new boolean[speakers.length];
+	}
+
+	/**
+	 * Adds the features of one frame, unless a decision has been made
+	 * already.
+	 *
+	 * @return the current decision
+	 */
+	public Decision add(double[] features, int offset) {
+		if (decision != Decision.UNDECIDED)
+			return decision;
+		if (features.length - offset < index.getDimension())
+			throw new IllegalArgumentException("feature dimension does not match index dimension "
+					+ index.getDimension());
+
+		index.speakerDistances(features, offset, speakers, distances);
+		double claimed = distances[0];
+		frames++;
+		claimedSum += claimed;
+		claimedSquaredSum += claimed * claimed;
+		for (int i = 1; i < speakers.length; i++) {
+			if (distances[i] == Double.MAX_VALUE) {
+				// removed from the index meanwhile
+				removed[i] = true;
+			}
+			double margin = distances[i] - claimed;
+			marginSums[i] += margin;
+			marginSquaredSums[i] += margin * margin;
+		}
+
+		if (frames >= minFrames) {
+			decide();
+		}
+		return decision;
+	}
+
+	private void decide() {
+		double claimedError = z * standardError(claimedSum, claimedSquaredSum);
+		double claimedMean = claimedSum / frames;
+		if (claimedMean - claimedError > threshold) {
+			decision = Decision.REJECT;
+			return;
+		}
+
+		boolean allBelow = claimedMean + claimedError < threshold;
+		for (int i = 1; i < speakers.length; i++) {
+			if (removed[i])
+				continue;
+			double error = z * standardError(marginSums[i], marginSquaredSums[i]);
+			double mean = marginSums[i] / frames;
+			if (mean + error < 0) {
+				decision = Decision.REJECT;
+				return;
+			}
+			allBelow &= mean - error > 0;
+		}
+		if (allBelow) {
+			decision = Decision.ACCEPT;
+		}
+	}
+
+	private double standardError(double sum, double squaredSum) {
+		double mean = sum / frames;
+		double variance = Math.max(0, squaredSum / frames - mean * mean)
+				* frames / (frames - 1);
+		return Math.sqrt(variance / frames);
+	}
+
+	/**
+	 * Ends the verification. If no early decision was made, the claimed
+	 * speaker is accepted if its average distortion is within the threshold
+	 * and no other speaker's is lower.
+	 *
+	 * @return the final decision, never {@link Decision#UNDECIDED}
+	 */
+	public Decision finish() {
+		if (decision != Decision.UNDECIDED)
+			return decision;
+
+		boolean accept = frames > 0 && claimedSum / frames <= threshold;
+		for (int i = 1; i < speakers.length && accept; i++) {
+			accept = removed[i] || marginSums[i] >= 0;
+		}
+		decision = accept ? Decision.ACCEPT : Decision.REJECT;
+		return decision;
+	}
+
+	public Decision getDecision() {
+		return decision;
+	}
+
+	/** Returns the number of frames added. */
+	public int getFrameCount() {
+		return frames;
+	}
+
+	/** Returns the average distortion of the frames to the claimed speaker. */
+	public double getAverageDistortion() {
+		return frames == 0 ? Double.MAX_VALUE : claimedSum / frames;
+	}
+}
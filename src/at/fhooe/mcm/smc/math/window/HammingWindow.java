@@ -37,8 +37,12 @@ public class HammingWindow implements WindowFunction {
 	 * @see at.fhooe.mcm.smc.math.WindowFunction#applyWindow(double[])
 	 */
 	public void applyWindow(double[] frame) {
-		double[] temp = FrameUtil.multiply(frame, window);
-		System.arraycopy(temp, 0, frame, 0, frame.length);
+		if (frame.length != window.length) {
+			throw new IllegalArgumentException("Dimensions don't match! " + frame.length + " != " + window.length);
+		}
+		for (int i = 0; i < frame.length; i++) {
+			frame[i] *= window[i];
+		}
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,36 @@
+package at.fhooe.mcm.smc.math.window;
+
+/**
+ * Rectangular window, leaves the frame unchanged. Useful where a
+ * {@link WindowFunction} is required but the frame is windowed elsewhere.
+ */
+public class RectangularWindow implements WindowFunction {
+
+	private int length;
+
+	public RectangularWindow(int length) {
+		this.length = length;
+	}
+
+	/* (non-Javadoc)
+	 * @see at.fhooe.mcm.smc.math.WindowFunction#applyWindow(double[])
+	 */
+	public void applyWindow(double[] frame) {
+		// all weights are 1
+	}
+
+	/* (non-Javadoc)
+	 * @see at.fhooe.mcm.smc.math.WindowFunction#getWindowedFrame(double[])
+	 */
+	public double[] getWindowedFrame(double[] frame) {
+		return frame.clone();
+	}
+
+	/**
+	 * Returns the sum of the window function.
+	 * @return
+	 */
+	public double getWindowSum() {
+		return length;
+	}
+}
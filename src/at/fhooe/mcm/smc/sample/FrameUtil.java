@@ -36,6 +36,39 @@ public class FrameUtil {
 		return getPower(sample) / sample.length;
 	}
 	
+	/**
+	 * Returns the average power per sample of len samples starting at offset.
+	 * @param sample
+	 * @param offset
+	 * @param len
+	 * @return
+	 */
+	public static double getAveragePower(double[] sample, int offset, int len) {
+		double power = 0;
+		for (int i = offset; i < offset + len; i++) {
+			power += sample[i] * sample[i];
+		}
+		return power / len;
+	}
+	
+	/**
+	 * Returns the fraction of neighbouring samples that differ in sign, of len 
+	 * samples starting at offset.
+	 * @param sample
+	 * @param offset
+	 * @param len
+	 * @return
+	 */
+	public static double getZeroCrossingRate(double[] sample, int offset, int len) {
+		int crossings = 0;
+		for (int i = offset + 1; i < offset + len; i++) {
+			if ((sample[i] >= 0) != (sample[i - 1] >= 0)) {
+				crossings++;
+			}
+		}
+		return (double) crossings / (len - 1);
+	}
+	
 	/**
 	 * Normalizes the input array to double values between -1.0 and 1.0.
 	 * @param input
@@ -0,0 +1,78 @@
+package at.fhooe.mcm.smc.sample;
+
+/**
+ * Decodes little endian 16 bit PCM data, as delivered by the recorder and
+ * stored in WAV files, in bulk.
+ */
+public final class PcmDecoder {
+
+	/** Factor that scales 16 bit samples to [-1.0, 1.0). */
+	public static final double NORMALIZATION = 1d / 32768;
+
+	private PcmDecoder() {
+	}
+
+	/**
+	 * Decodes count samples.
+	 *
+	 * @param pcm
+	 *            little endian PCM bytes
+	 * @param offset
+	 *            index of the low byte of the first sample in pcm
+	 * @param out
+	 *            receives the samples
+	 * @param outOffset
+	 *            index of the first sample in out
+	 * @param count
+	 *            number of samples
+	 * @param normalize
+	 *            true to scale the samples to [-1.0, 1.0), false to keep the
+	 *            range of a short
+	 */
+	public static void decode(byte[] pcm, int offset, double[] out,
+			int outOffset, int count, boolean normalize) {
+		checkRange(pcm.length, offset, count * 2);
+		checkRange(out.length, outOffset, count);
+
+		if (normalize) {
+			for (int i = 0, p = offset; i < count; i++, p += 2) {
+				out[outOffset + i] = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8))
+						* NORMALIZATION;
+			}
+		} else {
+			for (int i = 0, p = offset; i < count; i++, p += 2) {
+				out[outOffset + i] = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+			}
+		}
+	}
+
+	/**
+	 * Decodes length bytes into a new array. A trailing odd byte is ignored.
+	 */
+	public static double[] decode(byte[] pcm, int offset, int length,
+			boolean normalize) {
+		double[] samples = new double[length / 2];
+		decode(pcm, offset, samples, 0, samples.length, normalize);
+		return samples;
+	}
+
+	/**
+	 * Decodes count samples to shorts.
+	 */
+	public static void decode(byte[] pcm, int offset, short[] out,
+			int outOffset, int count) {
+		checkRange(pcm.length, offset, count * 2);
+		checkRange(out.length, outOffset, count);
+
+		for (int i = 0, p = offset; i < count; i++, p += 2) {
+			out[outOffset + i] = (short) ((pcm[p] & 0xff) | (pcm[p + 1] << 8));
+		}
+	}
+
+	private static void checkRange(int length, int offset, int count) {
+		if (offset < 0 || count < 0 || offset + count > length)
+			throw new IllegalArgumentException("offset " + offset
+					+ " and count " + count + " out of range for length "
+					+ length);
+	}
+}
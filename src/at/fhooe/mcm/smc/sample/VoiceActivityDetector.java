@@ -0,0 +1,132 @@
+package at.fhooe.mcm.smc.sample;
+
+/**
+ * Decides for each analysis window whether it contains speech, so silent
+ * windows can be skipped before MFCC extraction and clustering.
+ * <p>
+ * A window is speech if its average power is well above the noise floor, or
+ * somewhat above it with a high zero crossing rate, as in unvoiced fricatives.
+ * The noise floor follows the power of non-speech windows and drops
+ * immediately to quieter ones. A few windows after speech are kept as well,
+ * so word endings are not cut off.
+ * <p>
+ * Instances keep state between windows and are not thread safe.
+ */
+public class VoiceActivityDetector {
+
+	/** Power ratio over the noise floor for speech (6 dB). */
+	public static final double DEFAULT_ENERGY_RATIO = 4;
+	/** Power ratio over the noise floor for high zero crossing speech (3 dB). */
+	public static final double DEFAULT_WEAK_ENERGY_RATIO = 2;
+	/** Zero crossing rate above which weak windows count as fricatives. */
+	public static final double DEFAULT_FRICATIVE_ZCR = 0.3;
+	/** Average power below which a window is never speech, for 16 bit samples. */
+	public static final double DEFAULT_MIN_POWER = 100;
+
+	/** Speed at which the noise floor follows non-speech windows. */
+	private static final double FLOOR_ADAPTATION = 0.05;
+	/** Number of windows kept after the last speech window. */
+	private static final int HANGOVER = 2;
+
+	private final int windowSize;
+	private final double energyRatio;
+	private final double weakEnergyRatio;
+	private final double fricativeZcr;
+	private final double minPower;
+
+	private double noiseFloor = -1;
+	private int hangover;
+
+	private int windows;
+	private int speechWindows;
+
+	/**
+	 * Creates a detector with default thresholds for samples in the range of
+	 * a short.
+	 */
+	public VoiceActivityDetector(int windowSize) {
+		this(windowSize, DEFAULT_ENERGY_RATIO, DEFAULT_WEAK_ENERGY_RATIO,
+				DEFAULT_FRICATIVE_ZCR, DEFAULT_MIN_POWER);
+	}
+
+	public VoiceActivityDetector(int windowSize, double energyRatio,
+			double weakEnergyRatio, double fricativeZcr, double minPower) {
+		if (windowSize < 2)
+			throw new IllegalArgumentException("window size must be >= 2");
+		if (energyRatio < weakEnergyRatio || weakEnergyRatio < 1)
+			throw new IllegalArgumentException(
+					"energy ratios must satisfy energyRatio >= weakEnergyRatio >= 1");
+
+		this.windowSize = windowSize;
+		this.energyRatio = energyRatio;
+		this.weakEnergyRatio = weakEnergyRatio;
+		this.fricativeZcr = fricativeZcr;
+		this.minPower = minPower;
+	}
+
+	/**
+	 * Classifies the window of {@link #getWindowSize()} samples starting at
+	 * offset. Windows must be passed in order.
+	 *
+	 * @return true if the window should be processed
+	 */
+	public boolean isSpeech(double[] samples, int offset) {
+		double power = FrameUtil.getAveragePower(samples, offset, windowSize);
+		if (noiseFloor < 0 || power < noiseFloor) {
+			noiseFloor = power;
+		}
+
+		boolean speech = false;
+		if (power >= minPower) {
+			if (power > noiseFloor * energyRatio) {
+				speech = true;
+			} else if (power > noiseFloor * weakEnergyRatio) {
+				speech = FrameUtil.getZeroCrossingRate(samples, offset,
+						windowSize) > fricativeZcr;
+			}
+		}
+
+		if (!speech) {
+			noiseFloor += FLOOR_ADAPTATION * (power - noiseFloor);
+		}
+
+		windows++;
+		if (speech) {
+			hangover = HANGOVER;
+		} else if (hangover > 0) {
+			hangover--;
+			speech = true;
+		}
+		if (speech) {
+			speechWindows++;
+		}
+		return speech;
+	}
+
+	/** Returns the current noise floor as average power per sample. */
+	public double getNoiseFloor() {
+		return noiseFloor;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	/** Returns the number of windows classified since the last reset. */
+	public int getWindowCount() {
+		return windows;
+	}
+
+	/** Returns the number of windows classified as speech since the last reset. */
+	public int getSpeechWindowCount() {
+		return speechWindows;
+	}
+
+	/** Forgets the noise floor, so a new recording can be processed. */
+	public void reset() {
+		noiseFloor = -1;
+		hangover = 0;
+		windows = 0;
+		speechWindows = 0;
+	}
+}
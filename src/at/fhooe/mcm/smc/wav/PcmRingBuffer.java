@@ -0,0 +1,104 @@
+package at.fhooe.mcm.smc.wav;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring buffer for audio data with exactly one writing and one
+ * reading thread. Neither side ever blocks: the writer drops what does not
+ * fit, the reader gets what is available.
+ */
+public class PcmRingBuffer {
+
+	private final byte[] data;
+	private final int mask;
+
+	/** Total number of bytes written, only advanced by the writer. */
+	private final AtomicLong writePosition = new AtomicLong();
+	/** Total number of bytes read, only advanced by the reader. */
+	private final AtomicLong readPosition = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Creates a ring buffer.
+	 *
+	 * @param minCapacity
+	 *            minimum capacity in bytes, rounded up to a power of two
+	 */
+	public PcmRingBuffer(int minCapacity) {
+		if (minCapacity < 1 || minCapacity > 1 << 30)
+			throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+
+		int capacity = Integer.highestOneBit(minCapacity);
+		if (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+		data = new byte[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Writes as much of the given data as fits. Only to be called by the
+	 * writing thread.
+	 *
+	 * @return the number of bytes written, the rest is counted as dropped
+	 */
+	public int write(byte[] src, int offset, int count) {
+		long write = writePosition.get();
+		int free = data.length - (int) (write - readPosition.get());
+		int n = Math.min(count, free);
+
+		copy(src, offset, data, (int) (write & mask), n, true);
+		// publishes the copied bytes to the reader
+		writePosition.lazySet(write + n);
+
+		if (n < count) {
+			dropped.addAndGet(count - n);
+		}
+		return n;
+	}
+
+	/**
+	 * Reads up to count bytes. Only to be called by the reading thread.
+	 *
+	 * @return the number of bytes read, 0 if the buffer is empty
+	 */
+	public int read(byte[] dst, int offset, int count) {
+		long read = readPosition.get();
+		int n = Math.min(count, (int) (writePosition.get() - read));
+
+		copy(data, (int) (read & mask), dst, offset, n, false);
+		// hands the space back to the writer
+		readPosition.lazySet(read + n);
+		return n;
+	}
+
+	/** Copies between the ring and a linear array, wrapping at the end of the ring. */
+	private void copy(byte[] src, int srcPos, byte[] dst, int dstPos, int n,
+			boolean intoRing) {
+		int ringPos = intoRing ? dstPos : srcPos;
+		int first = Math.min(n, data.length - ringPos);
+		System.arraycopy(src, srcPos, dst, dstPos, first);
+		if (first < n) {
+			if (intoRing) {
+				System.arraycopy(src, srcPos + first, dst, 0, n - first);
+			} else {
+				System.arraycopy(src, 0, dst, dstPos + first, n - first);
+			}
+		}
+	}
+
+	/** Returns the number of bytes that can be read. */
+	public int available() {
+		return (int) (writePosition.get() - readPosition.get());
+	}
+
+	/** Returns the capacity in bytes. */
+	public int getCapacity() {
+		return data.length;
+	}
+
+	/** Returns the number of bytes the writer had to drop because the buffer was full. */
+	public long getDroppedBytes() {
+		return dropped.get();
+	}
+}
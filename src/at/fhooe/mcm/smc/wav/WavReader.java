@@ -3,20 +3,90 @@ package at.fhooe.mcm.smc.wav;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 
+import at.fhooe.mcm.smc.sample.PcmDecoder;
+
+/**
+ * Reads a WAV file. The RIFF chunks are walked to find the <code>fmt </code>
+ * and <code>data</code> chunks, so files with additional chunks like
+ * <code>LIST</code> or <code>fact</code> are read as well. Integer PCM with 8,
+ * 16, 24 or 32 bit and float PCM with 32 or 64 bit are supported.
+ * <p>
+ * The data chunk is memory mapped, so samples can be read in bulk with
+ * {@link #readSamples(short[], int, int)} and
+ * {@link #readSamples(double[], int, int)} without a system call per read.
+ * Samples are returned per frame: multiple channels are mixed down to their
+ * average, and all formats are scaled to the range of 16 bit samples.
+ */
 public class WavReader {
 
+	private static final int FORMAT_PCM = 1;
+	private static final int FORMAT_IEEE_FLOAT = 3;
+	private static final int FORMAT_EXTENSIBLE = 0xfffe;
+
+	private static final int RIFF = chunkId("RIFF");
+	private static final int WAVE = chunkId("WAVE");
+	private static final int FMT = chunkId("fmt ");
+	private static final int DATA = chunkId("data");
+
+	/** Number of samples converted at once when reading doubles. */
+	private static final int BLOCK_SIZE = 4096;
+
 	private String filePath;
 	private RandomAccessFile raf;
+	private int format;
 	private int channels;
 	private int sampleRate;
 	private int byteRate;
 	private int frameSize;
-	private short resolution; 
+	private short resolution;
+	private int bytesPerSample;
 	private int length;
 	private int payloadLength;
-	
-	private long currentPos;
+
+	/** The mapped data chunk, position is the current read position. */
+	private ByteBuffer data;
+	/** Little endian 16 bit view of {@link #data}. */
+	private ShortBuffer samples;
+	private byte[] block;
+
+	/**
+	 * Iterates over the frames of the data chunk, reading them directly from
+	 * the mapped file. Iterators are independent of each other and of the
+	 * read position of the reader.
+	 */
+	public class SampleIterator {
+		private final ByteBuffer buffer;
+		private final int end;
+		private int position;
+
+		private SampleIterator(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.end = buffer.limit() - buffer.limit() % frameSize;
+		}
+
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		/** Returns the next frame, mixed down and scaled like {@link WavReader#readSamples(double[], int, int)}. */
+		public double next() {
+			if (position >= end)
+				throw new IllegalStateException("No more samples");
+			double value = frameValue(buffer, position);
+			position += frameSize;
+			return value;
+		}
+
+		/** Returns the number of frames left. */
+		public int remaining() {
+			return (end - position) / frameSize;
+		}
+	}
 
 	public WavReader(String filePath) {
 		this.filePath = filePath;
@@ -26,45 +96,262 @@ public class WavReader {
 	private void init() {
 		try {
 			raf = new RandomAccessFile(filePath, "r");
-			
-			// read and file length payload length fields
-			raf.seek(4);
+
+			if (raf.readInt() != RIFF)
+				throw new IOException(filePath + " is not a RIFF file");
 			length = Integer.reverseBytes(raf.readInt());
-			raf.seek(40);
-			payloadLength = Integer.reverseBytes(raf.readInt());
-			
-			// get other metadata
-			// channel count
-			raf.seek(22);
-			channels = Short.reverseBytes(raf.readShort());
-			sampleRate = Integer.reverseBytes(raf.readInt());
-			byteRate =  Integer.reverseBytes(raf.readInt());
-			frameSize = Short.reverseBytes(raf.readShort());
-			resolution = Short.reverseBytes(raf.readShort());
-			
-			// set at start of data part
-			currentPos = 44;
-			raf.seek(currentPos);
+			if (raf.readInt() != WAVE)
+				throw new IOException(filePath + " is not a WAVE file");
+
+			long dataOffset = -1;
+			long dataLength = 0;
+			boolean hasFormat = false;
+			long fileLength = raf.length();
+			long position = 12;
+			while (position + 8 <= fileLength && (!hasFormat || dataOffset < 0)) {
+				raf.seek(position);
+				int id = raf.readInt();
+				long size = Integer.reverseBytes(raf.readInt()) & 0xffffffffL;
+				position += 8;
+
+				if (id == FMT) {
+					readFormat(size);
+					hasFormat = true;
+				} else if (id == DATA) {
+					dataOffset = position;
+					dataLength = size;
+				}
+				// chunks are padded to an even length
+				position += size + (size & 1);
+			}
+
+			if (!hasFormat)
+				throw new IOException(filePath + " has no fmt chunk");
+			if (dataOffset < 0)
+				throw new IOException(filePath + " has no data chunk");
+
+			// a header that was not finalized may claim more or no data
+			long available = Math.max(0, fileLength - dataOffset);
+			if (dataLength == 0 || dataLength > available) {
+				dataLength = available;
+			}
+			payloadLength = (int) Math.min(dataLength, Integer.MAX_VALUE);
+
+			data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+					dataOffset, payloadLength);
+			data.order(ByteOrder.LITTLE_ENDIAN);
+			samples = data.asShortBuffer();
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
-	
+
+	private void readFormat(long size) throws IOException {
+		if (size < 16)
+			throw new IOException("fmt chunk too short: " + size);
+
+		format = Short.reverseBytes(raf.readShort()) & 0xffff;
+		channels = Short.reverseBytes(raf.readShort());
+		sampleRate = Integer.reverseBytes(raf.readInt());
+		byteRate = Integer.reverseBytes(raf.readInt());
+		frameSize = Short.reverseBytes(raf.readShort());
+		resolution = Short.reverseBytes(raf.readShort());
+
+		if (format == FORMAT_EXTENSIBLE && size >= 40) {
+			// cbSize, valid bits and channel mask precede the sub format
+			raf.skipBytes(8);
+			format = Short.reverseBytes(raf.readShort()) & 0xffff;
+		}
+
+		bytesPerSample = (resolution + 7) / 8;
+		boolean supported;
+		if (format == FORMAT_PCM) {
+			supported = resolution == 8 || resolution == 16
+					|| resolution == 24 || resolution == 32;
+		} else if (format == FORMAT_IEEE_FLOAT) {
+			supported = resolution == 32 || resolution == 64;
+		} else {
+			supported = false;
+		}
+		if (!supported)
+			throw new IOException("Unsupported WAV format " + format + " with "
+					+ resolution + " bit");
+		if (channels < 1 || frameSize < channels * bytesPerSample)
+			throw new IOException("Invalid frame size " + frameSize + " for "
+					+ channels + " channels");
+	}
+
+	/**
+	 * Reads raw bytes of the data chunk.
+	 *
+	 * @return the number of bytes read, -1 at the end of the data
+	 */
 	public int read(byte[] buffer, int offset, int count) throws IOException {
-		int read = raf.read(buffer, offset, count);
-		currentPos += read;
-		raf.seek(currentPos);
+		checkOpen();
+		if (!data.hasRemaining())
+			return -1;
+
+		int read = Math.min(count, data.remaining());
+		data.get(buffer, offset, read);
+		return read;
+	}
+
+	/**
+	 * Reads up to count samples, rounded to the nearest short.
+	 *
+	 * @return the number of samples read, -1 at the end of the data
+	 */
+	public int readSamples(short[] out, int offset, int count)
+			throws IOException {
+		checkOpen();
+		if (isMono16()) {
+			ShortBuffer view = sampleView();
+			if (!view.hasRemaining())
+				return -1;
+
+			int read = Math.min(count, view.remaining());
+			view.get(out, offset, read);
+			data.position(view.position() * 2);
+			return read;
+		}
+
+		int read = Math.min(count, data.remaining() / frameSize);
+		if (read == 0)
+			return -1;
+
+		int position = data.position();
+		for (int i = 0; i < read; i++, position += frameSize) {
+			double value = Math.rint(frameValue(data, position));
+			out[offset + i] = (short) Math.max(Short.MIN_VALUE,
+					Math.min(Short.MAX_VALUE, value));
+		}
+		data.position(position);
 		return read;
 	}
-	
+
+	/**
+	 * Reads up to count samples as doubles in the range of a short.
+	 *
+	 * @return the number of samples read, -1 at the end of the data
+	 */
+	public int readSamples(double[] out, int offset, int count)
+			throws IOException {
+		checkOpen();
+		if (isMono16()) {
+			int read = Math.min(count, data.remaining() / 2);
+			if (read == 0)
+				return -1;
+
+			if (block == null) {
+				block = new byte[BLOCK_SIZE * 2];
+			}
+			for (int done = 0; done < read; done += BLOCK_SIZE) {
+				int n = Math.min(BLOCK_SIZE, read - done);
+				data.get(block, 0, n * 2);
+				PcmDecoder.decode(block, 0, out, offset + done, n, false);
+			}
+			return read;
+		}
+
+		int read = Math.min(count, data.remaining() / frameSize);
+		if (read == 0)
+			return -1;
+
+		int position = data.position();
+		for (int i = 0; i < read; i++, position += frameSize) {
+			out[offset + i] = frameValue(data, position);
+		}
+		data.position(position);
+		return read;
+	}
+
+	/**
+	 * Returns an iterator over all samples of the data chunk, starting at the
+	 * beginning.
+	 */
+	public SampleIterator iterator() throws IOException {
+		checkOpen();
+		ByteBuffer buffer = data.duplicate();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.clear();
+		return new SampleIterator(buffer);
+	}
+
+	/**
+	 * Returns the number of samples in the data chunk, one per frame.
+	 */
+	public int getSampleCount() {
+		return frameSize > 0 ? payloadLength / frameSize : 0;
+	}
+
 	public void reset() {
-		init();
+		if (data != null) {
+			data.rewind();
+		} else {
+			init();
+		}
 	}
-	
+
 	public void close() throws IOException {
 		raf.close();
+		data = null;
+		samples = null;
+	}
+
+	/** Mixes down the frame at position and scales it to 16 bit. */
+	private double frameValue(ByteBuffer buffer, int position) {
+		if (channels == 1)
+			return sampleValue(buffer, position);
+
+		double sum = 0;
+		for (int c = 0; c < channels; c++, position += bytesPerSample) {
+			sum += sampleValue(buffer, position);
+		}
+		return sum / channels;
+	}
+
+	private double sampleValue(ByteBuffer buffer, int position) {
+		if (format == FORMAT_IEEE_FLOAT) {
+			return bytesPerSample == 4 ? buffer.getFloat(position) * 32768d
+					: buffer.getDouble(position) * 32768d;
+		}
+		switch (bytesPerSample) {
+		case 1:
+			// 8 bit samples are unsigned
+			return ((buffer.get(position) & 0xff) - 128) * 256;
+		case 2:
+			return buffer.getShort(position);
+		case 3:
+			int value = (buffer.get(position) & 0xff)
+					| (buffer.get(position + 1) & 0xff) << 8
+					| buffer.get(position + 2) << 16;
+			return value / 256d;
+		default:
+			return buffer.getInt(position) / 65536d;
+		}
+	}
+
+	private boolean isMono16() {
+		return format == FORMAT_PCM && resolution == 16 && channels == 1
+				&& frameSize == 2;
+	}
+
+	private ShortBuffer sampleView() {
+		// both views share the mapping, continue where the last read ended
+		samples.position(data.position() / 2);
+		return samples;
+	}
+
+	private void checkOpen() throws IOException {
+		if (data == null)
+			throw new IOException("File " + filePath + " is not open");
+	}
+
+	private static int chunkId(String id) {
+		return id.charAt(0) << 24 | id.charAt(1) << 16 | id.charAt(2) << 8
+				| id.charAt(3);
 	}
 
 	/**
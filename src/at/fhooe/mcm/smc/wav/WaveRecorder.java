@@ -8,16 +8,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.util.concurrent.locks.LockSupport;
 
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
 import android.media.MediaRecorder.AudioSource;
+import android.os.Process;
 import android.util.Log;
 
 /**
  * This class lets the user record audio from the built-in microphone as .wav file (as opposed to
  * .3gpp file using the AMR-NB codec when recording with the default {@link MediaRecorder}).
+ * The recorded data can also be received in memory with an {@link OnBufferListener}, with or
+ * without writing a file.
  * 
  * @author Thomas Kaiser, AT
  */
@@ -42,6 +46,27 @@ public class WaveRecorder {
         STOPPED
     };
 
+    /**
+     * Receives the recorded audio data while recording, see
+     * {@link WaveRecorder#setOnBufferListener(OnBufferListener)}.
+     */
+    public interface OnBufferListener {
+        /**
+         * Called with each block of recorded data, on the thread that handles the
+         * {@link AudioRecord} notifications, or on the consumer thread with
+         * {@link WaveRecorder#setThreadedCapture(boolean)}. The buffer is reused for the next block, so it must be
+         * processed or copied before returning.
+         * 
+         * @param pcm
+         *            little endian 16 bit PCM data
+         * @param offset
+         *            index of the first byte
+         * @param count
+         *            number of bytes
+         */
+        void onBuffer(byte[] pcm, int offset, int count);
+    }
+
     /** Length of WAV header in bytes. */
     private static final int HEADER_LENGTH = 44;
 
@@ -59,9 +84,12 @@ public class WaveRecorder {
     /** Recorder state, see {@link State}. */
     private State state;
 
-    /** File writer. */
+    /** File writer, null if no output file was set. */
     private RandomAccessFile fWriter;
 
+    /** Receives the recorded data, may be null. */
+    private OnBufferListener bufferListener;
+
     // Number of channels, sample rate, sample size(size in bits), buffer size,
     // audio source, sample size(see AudioFormat)
     /** Number of channels (1). */
@@ -99,6 +127,21 @@ public class WaveRecorder {
      */
     private boolean mIsInserting = false;
 
+    /** See {@link #setThreadedCapture(boolean)}. */
+    private boolean threadedCapture;
+
+    /** Reads from {@link #aRecorder} into {@link #ringBuffer} in threaded capture. */
+    private Thread captureThread;
+
+    /** Hands the data from {@link #ringBuffer} to the listener and the file in threaded capture. */
+    private Thread consumerThread;
+
+    /** Passes the data from the capture to the consumer thread. */
+    private PcmRingBuffer ringBuffer;
+
+    /** Tells the capture and consumer threads to finish. */
+    private volatile boolean capturing;
+
     /**
      * This listener gets notified periodically and writes the audio data from the buffer into the
      * file.
@@ -107,14 +150,13 @@ public class WaveRecorder {
             new AudioRecord.OnRecordPositionUpdateListener() {
                 public void onPeriodicNotification(AudioRecord recorder) {
                     // Log.v(TAG, "Update Listener called");
-                    aRecorder.read(buffer, 0, buffer.length); // Fill buffer
-                    try {
-                        fWriter.write(buffer); // Write buffer to file
-                        payloadSize += buffer.length;
-                        // Log.v(TAG, "Written " + buffer.length
-                        // + " bytes to file, new payload size = " + payloadSize);
-                    } catch (IOException e) {
-                        Log.w(TAG, "IOException occured in updateListener, state=" + state);
+                    if (threadedCapture) {
+                        // the capture thread reads
+                        return;
+                    }
+                    int read = aRecorder.read(buffer, 0, buffer.length); // Fill buffer
+                    if (read > 0) {
+                        deliver(buffer, read);
                     }
                 }
 
@@ -123,6 +165,32 @@ public class WaveRecorder {
                 }
             };
 
+    /**
+     * Hands recorded data to the listener and writes it to the file.
+     * 
+     * @param data
+     *            Recorded data.
+     * @param count
+     *            Number of bytes.
+     */
+    private void deliver(byte[] data, int count) {
+        if (bufferListener != null) {
+            bufferListener.onBuffer(data, 0, count);
+        }
+        if (fWriter == null) {
+            payloadSize += count;
+            return;
+        }
+        try {
+            fWriter.write(data, 0, count); // Write buffer to file
+            payloadSize += count;
+            // Log.v(TAG, "Written " + count
+            // + " bytes to file, new payload size = " + payloadSize);
+        } catch (IOException e) {
+            Log.w(TAG, "IOException occured in updateListener, state=" + state);
+        }
+    }
+
     /**
      * Default constructor. Leaves the recorder in {@link State#INITIALIZING}, except if some kind
      * of error happens.
@@ -200,16 +268,127 @@ public class WaveRecorder {
         }
     }
 
+    /**
+     * Sets a listener that receives the recorded data while recording, call in
+     * {@link State#INITIALIZING}. If a listener is set, the output file is optional: without one,
+     * the data is only handed to the listener and nothing is written to storage.
+     * 
+     * @param listener
+     *            The listener, or null to remove it.
+     */
+    public void setOnBufferListener(OnBufferListener listener) {
+        if (state == State.INITIALIZING) {
+            bufferListener = listener;
+        } else {
+            Log.e(TAG, "Buffer listener can only be set in State=INITIALIZING, current state="
+                    + state);
+        }
+    }
+
+    /**
+     * Enables threaded capture, call in {@link State#INITIALIZING}. A high priority thread then
+     * only copies the recorded data into a lock-free ring buffer, and a second thread hands it to
+     * the {@link OnBufferListener} and writes it to the file. Slow storage or feature extraction
+     * can then no longer delay reading from the microphone. Data that does not fit into the ring
+     * buffer (one second of audio) is dropped.
+     * 
+     * @param threaded
+     *            True to use threaded capture.
+     */
+    public void setThreadedCapture(boolean threaded) {
+        if (state == State.INITIALIZING) {
+            threadedCapture = threaded;
+        } else {
+            Log.e(TAG, "Threaded capture can only be set in State=INITIALIZING, current state="
+                    + state);
+        }
+    }
+
+    /**
+     * Starts the capture and consumer threads if threaded capture is enabled.
+     */
+    private void startCapture() {
+        if (!threadedCapture) {
+            return;
+        }
+        if (ringBuffer == null) {
+            ringBuffer = new PcmRingBuffer(sampleRate * bitsPerSample / 8 * numChannels);
+        }
+        capturing = true;
+
+        captureThread = new Thread("WaveRecorder capture") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                byte[] captureBuffer = new byte[buffer.length];
+                while (capturing) {
+                    int read = aRecorder.read(captureBuffer, 0, captureBuffer.length);
+                    if (read > 0 && ringBuffer.write(captureBuffer, 0, read) < read) {
+                        Log.w(TAG, "Ring buffer full, dropped " + ringBuffer.getDroppedBytes()
+                                + " bytes in total");
+                    }
+                }
+            }
+        };
+        consumerThread = new Thread("WaveRecorder consumer") {
+            @Override
+            public void run() {
+                byte[] consumerBuffer = new byte[buffer.length];
+                long waitNanos = TIMER_INTERVAL * 1000000L / 4;
+                while (true) {
+                    // read the flag first, so everything written before it was cleared is drained
+                    boolean finished = !capturing;
+                    int read = ringBuffer.read(consumerBuffer, 0, consumerBuffer.length);
+                    if (read > 0) {
+                        deliver(consumerBuffer, read);
+                    } else if (finished) {
+                        break;
+                    } else {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                }
+            }
+        };
+        captureThread.start();
+        consumerThread.start();
+    }
+
+    /**
+     * Stops the capture and consumer threads after the consumer has handled all captured data.
+     */
+    private void stopCapture() {
+        if (captureThread == null) {
+            return;
+        }
+        capturing = false;
+        try {
+            captureThread.join();
+            consumerThread.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Interrupted while waiting for capture threads");
+            Thread.currentThread().interrupt();
+        }
+        captureThread = null;
+        consumerThread = null;
+    }
+
     /**
      * Prepares the recorder for recording, in case the recorder is not in the INITIALIZING state
-     * and the file path was not set the recorder is set to the ERROR state, which makes a
-     * reconstruction necessary. The header of the wave file is written. The file is DELETED! In
-     * case of an exception, the state is changed to ERROR.
+     * and neither the file path nor a buffer listener was set the recorder is set to the ERROR
+     * state, which makes a reconstruction necessary. The header of the wave file is written. The
+     * file is DELETED! In case of an exception, the state is changed to ERROR.
      */
     public void prepare() {
         try {
             if (state == State.INITIALIZING) {
-                if ((aRecorder.getState() == AudioRecord.STATE_INITIALIZED) & (fPath != null)) {
+                if ((aRecorder.getState() == AudioRecord.STATE_INITIALIZED) & (fPath == null)
+                        & (bufferListener != null)) {
+                    // only deliver to the listener
+                    buffer = new byte[framePeriod * bitsPerSample / 8 * numChannels];
+                    state = State.READY;
+
+                    payloadSize = 0;
+                } else if ((aRecorder.getState() == AudioRecord.STATE_INITIALIZED) & (fPath != null)) {
                     // write file header
 
                     fWriter = new RandomAccessFile(fPath, "rw");
@@ -280,7 +459,7 @@ public class WaveRecorder {
         if (state == State.RECORDING) {
             stop();
         } else {
-            if ((state == State.READY)) {
+            if ((state == State.READY) && (fWriter != null)) {
                 try {
                     fWriter.close(); // Remove prepared file
                 } catch (IOException e) {
@@ -358,6 +537,14 @@ public class WaveRecorder {
             aRecorder.read(buffer, 0, buffer.length);
             Log.i(TAG, "Started to record to " + fPath);
             state = State.RECORDING;
+            startCapture();
+        } else if (state == State.STOPPED && fWriter == null) {
+            // nothing to position without a file, just continue
+            aRecorder.startRecording();
+            aRecorder.read(buffer, 0, buffer.length);
+            Log.i(TAG, "Continuing record to buffer listener");
+            state = State.RECORDING;
+            startCapture();
         } else if (state == State.STOPPED) {
             // put the filewriter at the correct position and let's go
             try {
@@ -417,6 +604,7 @@ public class WaveRecorder {
                 Log.i(TAG, "Continuing record to " + fPath + " from file position="
                         + fWriter.getFilePointer());
                 state = State.RECORDING;
+                startCapture();
             } catch (IOException e) {
                 Log.e(TAG, "Couldn't move file pointer end of file", e);
             }
@@ -432,7 +620,16 @@ public class WaveRecorder {
      */
     public void stop() {
         if (state == State.RECORDING) {
+            capturing = false;
             aRecorder.stop();
+            stopCapture();
+
+            if (fWriter == null) {
+                Log.i(TAG, "Stopped recording without output file, total payloadsize="
+                        + payloadSize);
+                state = State.STOPPED;
+                return;
+            }
 
             try {
                 fWriter.seek(4); // Write filesize to header
@@ -0,0 +1,83 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+
+/**
+ * Checks that the early abandoning distance search gives exactly the result
+ * of computing every distance in full.
+ */
+public class ClusterUtilTest extends TestCase {
+	private final Random r = new Random(11);
+
+	private double[] randomValues(int count, double scale) {
+		double[] values = new double[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = r.nextGaussian() * scale;
+		}
+		return values;
+	}
+
+	private static double fullMinDistance(double[] point, int offset,
+			double[] centers, int dimension) {
+		double min = Double.MAX_VALUE;
+		for (int k = 0; k < centers.length; k += dimension) {
+			double distance = 0;
+			for (int d = 0; d < dimension; d++) {
+				double diff = point[offset + d] - centers[k + d];
+				distance += diff * diff;
+			}
+			min = Math.min(min, distance);
+		}
+		return min;
+	}
+
+	public void testMinDistanceMatchesFullDistance() {
+		int[] dimensions = { 1, 3, 13, 14 };
+		int[] lengths = { 1, 16, 64, 256 };
+		for (int dimension : dimensions) {
+			for (int length : lengths) {
+				double[] centers = randomValues(length * dimension, 10);
+				double[] points = randomValues(200 * dimension, 12);
+				for (int p = 0; p < points.length; p += dimension) {
+					assertEquals(fullMinDistance(points, p, centers, dimension),
+							ClusterUtil.minDistance(points, p, centers, dimension), 0);
+				}
+			}
+		}
+	}
+
+	public void testSquaredDistanceWithoutBoundIsFull() {
+		double[] a = randomValues(14, 5);
+		double[] b = randomValues(14, 5);
+		assertEquals(fullMinDistance(a, 0, b, 14),
+				ClusterUtil.squaredDistance(a, 0, b, 0, 14, Double.MAX_VALUE), 0);
+	}
+
+	public void testAverageDistortionMatchesFullDistance() {
+		int dimension = 13;
+		for (int length : new int[] { 8, 64, 300 }) {
+			double[] centers = randomValues(length * dimension, 10);
+			Codebook cb = Codebook.create(centers, dimension);
+			FeatureVector fv = new FeatureVector(dimension, 500);
+			double[][] mfcc = new double[500][];
+			for (int i = 0; i < 500; i++) {
+				mfcc[i] = randomValues(dimension, 12);
+				fv.add(mfcc[i]);
+			}
+
+			double sum = 0;
+			for (int i = 0; i < 500; i++) {
+				sum += fullMinDistance(mfcc[i], 0, centers, dimension);
+			}
+			double expected = sum * (1d / 500);
+
+			assertEquals(expected, ClusterUtil.calculateAverageDistortion(fv, cb), 0);
+			assertEquals(expected, ClusterUtil.calculateAverageDistortion(mfcc, cb), 0);
+		}
+	}
+}
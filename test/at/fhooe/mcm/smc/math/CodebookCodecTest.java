@@ -0,0 +1,65 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.matrix.Matrix;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookCodec;
+
+public class CodebookCodecTest extends TestCase {
+
+	private Codebook createCodebook() {
+		Random r = new Random(1);
+		Matrix[] centroids = new Matrix[64];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = new Matrix(14, 1);
+			for (int d = 0; d < 14; d++) {
+				centroids[i].set(d, 0, r.nextGaussian() * 20);
+			}
+		}
+		Codebook cb = new Codebook();
+		cb.setLength(centroids.length);
+		cb.setCentroids(centroids);
+		return cb;
+	}
+
+	public void testRoundTripDouble() {
+		Codebook cb = createCodebook();
+		byte[] data = CodebookCodec.encode(cb, CodebookCodec.PRECISION_DOUBLE);
+		assertTrue(CodebookCodec.isEncoded(data));
+
+		Codebook decoded = CodebookCodec.decode(data);
+		assertEquals(cb.getLength(), decoded.getLength());
+		assertEquals(cb.getDimension(), decoded.getDimension());
+		double[] expected = cb.getCentroidValues();
+		double[] actual = decoded.getCentroidValues();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual[i], 0);
+		}
+	}
+
+	public void testRoundTripFloat() {
+		Codebook cb = createCodebook();
+		byte[] data = CodebookCodec.encode(cb, CodebookCodec.PRECISION_FLOAT);
+		assertEquals(16 + 64 * 14 * 4 + 4, data.length);
+
+		double[] expected = cb.getCentroidValues();
+		double[] actual = CodebookCodec.decode(data).getCentroidValues();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals((float) expected[i], (float) actual[i], 0f);
+		}
+	}
+
+	public void testChecksum() {
+		byte[] data = CodebookCodec.encode(createCodebook(),
+				CodebookCodec.PRECISION_FLOAT);
+		data[100] ^= 1;
+		try {
+			CodebookCodec.decode(data);
+			fail("corrupted codebook must not be decoded");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
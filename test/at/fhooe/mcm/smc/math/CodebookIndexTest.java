@@ -0,0 +1,96 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.matrix.Matrix;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex.Match;
+
+public class CodebookIndexTest extends TestCase {
+	private static final int dimension = 13;
+	private static final int speakers = 20;
+
+	private Random r = new Random(11);
+	private Codebook[] codebooks = new Codebook[speakers];
+	private CodebookIndex index = new CodebookIndex();
+
+	protected void setUp() {
+		for (int i = 0; i < speakers; i++) {
+			codebooks[i] = createCodebook(16, i);
+			index.add(i, codebooks[i]);
+		}
+	}
+
+	private Codebook createCodebook(int size, double mean) {
+		Matrix[] centroids = new Matrix[size];
+		for (int i = 0; i < size; i++) {
+			centroids[i] = new Matrix(dimension, 1);
+			for (int d = 0; d < dimension; d++) {
+				centroids[i].set(d, 0, mean + r.nextGaussian());
+			}
+		}
+		Codebook cb = new Codebook();
+		cb.setLength(size);
+		cb.setCentroids(centroids);
+		return cb;
+	}
+
+	private FeatureVector createFeatures(double mean) {
+		FeatureVector fv = new FeatureVector(dimension, 50);
+		double[] point = new double[dimension];
+		for (int i = 0; i < 50; i++) {
+			for (int d = 0; d < dimension; d++) {
+				point[d] = mean + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	public void testIdentifyMatchesFullScoring() {
+		for (int speaker = 0; speaker < speakers; speaker += 3) {
+			FeatureVector fv = createFeatures(speaker);
+
+			int best = -1;
+			double bestDistortion = Double.MAX_VALUE;
+			for (int i = 0; i < speakers; i++) {
+				double d = ClusterUtil.calculateAverageDistortion(fv, codebooks[i]);
+				if (d < bestDistortion) {
+					bestDistortion = d;
+					best = i;
+				}
+			}
+
+			Match match = index.identify(fv);
+			assertEquals(best, match.getId());
+			assertEquals(bestDistortion, match.getDistortion(), 1e-9);
+
+			match = index.verify(fv, best);
+			assertEquals(best, match.getId());
+			assertEquals(bestDistortion, match.getDistortion(), 1e-9);
+
+			match = index.verify(fv, (best + 1) % speakers);
+			assertTrue(match.getId() != (best + 1) % speakers);
+		}
+	}
+
+	public void testRemove() {
+		FeatureVector fv = createFeatures(5);
+		assertEquals(5, index.identify(fv).getId());
+
+		index.remove(5);
+		assertFalse(index.contains(5));
+		assertEquals(speakers - 1, index.size());
+		assertEquals(-1, index.verify(fv, 5).getId());
+
+		long best = index.identify(fv).getId();
+		assertTrue(best == 4 || best == 6);
+
+		index.add(5, codebooks[5]);
+		assertEquals(5, index.identify(fv).getId());
+	}
+}
@@ -0,0 +1,109 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookTree;
+
+public class CodebookTreeTest extends TestCase {
+	private static final int dimension = 13;
+
+	private double[] randomValues(int count, Random r) {
+		double[] values = new double[count * dimension];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = r.nextGaussian() * 10;
+		}
+		return values;
+	}
+
+	/** Index of the nearest centroid by linear search, the first of equals. */
+	private static int linearNearest(double[] points, int p, double[] centroids) {
+		int nearest = 0;
+		double minDistance = Double.MAX_VALUE;
+		for (int c = 0; c < centroids.length / dimension; c++) {
+			double d = ClusterUtil.squaredDistance(points, p, centroids, c
+					* dimension, dimension, Double.MAX_VALUE);
+			if (d < minDistance) {
+				minDistance = d;
+				nearest = c;
+			}
+		}
+		return nearest;
+	}
+
+	public void testExactMatchesLinearSearch() {
+		Random r = new Random(12);
+		double[] centroids = randomValues(300, r);
+		// duplicates, spread over the codebook
+		for (int i = 0; i < 40; i++) {
+			System.arraycopy(centroids, r.nextInt(300) * dimension, centroids,
+					r.nextInt(300) * dimension, dimension);
+		}
+		CodebookTree tree = new CodebookTree(Codebook.create(centroids, dimension));
+		assertEquals(300, tree.getLength());
+
+		// random points, and points right on the centroids
+		double[] points = new double[(5000 + 300) * dimension];
+		System.arraycopy(randomValues(5000, r), 0, points, 0, 5000 * dimension);
+		System.arraycopy(centroids, 0, points, 5000 * dimension, centroids.length);
+		for (int p = 0; p < points.length; p += dimension) {
+			double expected = ClusterUtil.minDistance(points, p, centroids, dimension);
+			assertEquals(expected, tree.minDistance(points, p), 0);
+			assertEquals(linearNearest(points, p, centroids), tree.nearest(points, p));
+
+			// a single leaf never beats the exact search
+			assertTrue(tree.minDistanceApproximate(points, p, 1) >= expected);
+		}
+	}
+
+	public void testApproximate() {
+		Random r = new Random(13);
+		double[] centroids = randomValues(1024, r);
+		CodebookTree tree = new CodebookTree(Codebook.create(centroids, dimension));
+
+		// points close to the centroids, like the frames a codebook was trained on
+		FeatureVector fv = new FeatureVector(dimension, 500);
+		double[] points = new double[500 * dimension];
+		for (int k = 0; k < 500; k++) {
+			int c = r.nextInt(1024) * dimension;
+			for (int d = 0; d < dimension; d++) {
+				points[k * dimension + d] = centroids[c + d] + r.nextGaussian();
+			}
+		}
+		for (int k = 0; k < 500; k++) {
+			fv.add(points, k * dimension);
+			int p = k * dimension;
+			int approximate = tree.nearestApproximate(points, p, 1);
+			assertEquals(tree.minDistanceApproximate(points, p, 1),
+					ClusterUtil.squaredDistance(points, p, centroids, approximate
+							* dimension, dimension, Double.MAX_VALUE), 1e-9);
+			assertTrue(tree.minDistanceApproximate(points, p, 1) >= tree.minDistance(points, p));
+		}
+
+		Codebook cb = Codebook.create(centroids, dimension);
+		double exact = ClusterUtil.calculateAverageDistortion(fv, cb);
+		assertEquals(exact, tree.calculateAverageDistortion(fv), 1e-9);
+		// more leaves give a distortion closer to the exact one
+		double previous = Double.MAX_VALUE;
+		for (int leaves = 1; leaves <= 64; leaves *= 4) {
+			double approximate = tree.calculateAverageDistortion(fv, leaves);
+			assertTrue(approximate >= exact - 1e-9);
+			assertTrue(approximate <= previous);
+			previous = approximate;
+		}
+		// a quarter of the leaves is enough for these points
+		assertEquals(exact, previous, exact * 0.01);
+	}
+
+	public void testIdenticalCentroids() {
+		double[] centroids = new double[10 * dimension];
+		CodebookTree tree = new CodebookTree(Codebook.create(centroids, dimension));
+		double[] point = new double[dimension];
+		point[0] = 1;
+		assertEquals(1, tree.minDistance(point, 0), 0);
+		assertEquals(1, tree.minDistanceApproximate(point, 0, 1), 0);
+	}
+}
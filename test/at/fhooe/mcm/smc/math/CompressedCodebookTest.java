@@ -0,0 +1,103 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CompressedCodebook;
+import at.fhooe.mcm.smc.math.vq.Float16;
+
+public class CompressedCodebookTest extends TestCase {
+	private static final int dimension = 13;
+
+	private Codebook codebook;
+	private FeatureVector features;
+
+	@Override
+	protected void setUp() throws Exception {
+		Random r = new Random(21);
+		double[] centroids = new double[64 * dimension];
+		for (int i = 0; i < centroids.length; i++) {
+			centroids[i] = r.nextGaussian() * 10;
+		}
+		codebook = Codebook.create(centroids, dimension);
+
+		features = new FeatureVector(dimension, 500);
+		double[] point = new double[dimension];
+		for (int k = 0; k < 500; k++) {
+			int c = r.nextInt(64) * dimension;
+			for (int d = 0; d < dimension; d++) {
+				point[d] = centroids[c + d] + r.nextGaussian() * 3;
+			}
+			features.add(point);
+		}
+	}
+
+	public void testFloat16Conversion() {
+		float[] values = { 0, 1, -1, 0.5f, 65504, -2.5f, 1e-7f, 6.1e-5f };
+		for (float value : values) {
+			assertEquals(value, Float16.toFloat(Float16.fromFloat(value)), Math.abs(value) / 1024 + 1e-7);
+		}
+		assertEquals((short) 0x3c00, Float16.fromFloat(1));
+		assertEquals((short) 0xc000, Float16.fromFloat(-2));
+		assertTrue(Float.isInfinite(Float16.toFloat(Float16.fromFloat(1e6f))));
+		assertTrue(Float.isNaN(Float16.toFloat(Float16.fromFloat(Float.NaN))));
+		// 2049 lies halfway between 2048 and 2050, ties round to even
+		assertEquals(2048f, Float16.toFloat(Float16.fromFloat(2049)));
+		assertEquals(2052f, Float16.toFloat(Float16.fromFloat(2051)));
+	}
+
+	public void testFloatStorage() {
+		double exact = ClusterUtil.calculateAverageDistortion(features, codebook);
+		int doubles = 64 * dimension * 8;
+
+		CompressedCodebook float32 = CompressedCodebook.float32(codebook);
+		assertEquals(doubles / 2, float32.getByteSize());
+		assertEquals(exact, float32.calculateAverageDistortion(features), exact * 1e-5);
+
+		CompressedCodebook float16 = CompressedCodebook.float16(codebook);
+		assertEquals(doubles / 4, float16.getByteSize());
+		assertEquals(exact, float16.calculateAverageDistortion(features), exact * 1e-2);
+		assertEquals(float16.minDistance(features.getData(), 0),
+				ClusterUtil.calculateAverageDistortion(new double[][] { features.get(0).getColumnPackedCopy() },
+						float16.decode()), 1e-6);
+	}
+
+	public void testProductQuantized() {
+		double exact = ClusterUtil.calculateAverageDistortion(features, codebook);
+
+		CompressedCodebook pq = CompressedCodebook.productQuantized(codebook, 4, 16);
+		assertEquals(64, pq.getLength());
+		assertTrue(pq.getByteSize() < 64 * dimension * 8 / 6);
+
+		// asymmetric distances match the distances to the decoded centroids
+		Codebook decoded = pq.decode();
+		double[] points = features.getData();
+		for (int k = 0; k < 20; k++) {
+			assertEquals(ClusterUtil.minDistance(points, k * dimension,
+					decoded.getCentroidValues(), dimension),
+					pq.minDistance(points, k * dimension), 1e-6);
+		}
+		assertEquals(ClusterUtil.calculateAverageDistortion(features, decoded),
+				pq.calculateAverageDistortion(features), 1e-6);
+
+		// one subspace with as many centroids as the codebook is lossless
+		CompressedCodebook lossless = CompressedCodebook.productQuantized(codebook, 1, 64);
+		assertEquals(exact, lossless.calculateAverageDistortion(features), exact * 1e-5);
+	}
+
+	public void testInvalidProductQuantization() {
+		try {
+			CompressedCodebook.productQuantized(codebook, 14, 16);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			CompressedCodebook.productQuantized(codebook, 4, 65);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.fft.FFT;
+import at.fhooe.mcm.smc.math.window.HammingWindow;
+
+public class FFTTest extends TestCase {
+
+	private static final int size = 512;
+
+	public void testRealMatchesComplex() {
+		Random r = new Random(42);
+		double[] complexIn = new double[size];
+		for (int i = 0; i < size; i++) {
+			complexIn[i] = r.nextDouble() * 2 - 1;
+		}
+		double[] realIn = complexIn.clone();
+
+		FFT complexFft = new FFT(size, new HammingWindow(size), false);
+		FFT realFft = new FFT(size, new HammingWindow(size), true);
+		complexFft.transform(complexIn, new double[complexFft.getScratchSize()]);
+		realFft.transform(realIn, new double[realFft.getScratchSize()]);
+
+		for (int i = 0; i < size; i++) {
+			assertEquals(complexIn[i], realIn[i], 1e-9);
+		}
+	}
+
+	public void testRealMatchesDft() {
+		double[] in = new double[size];
+		for (int i = 0; i < size; i++) {
+			in[i] = Math.sin(2 * Math.PI * 13 * i / size) + 0.5d
+					* Math.cos(2 * Math.PI * 100 * i / size);
+		}
+		HammingWindow window = new HammingWindow(size);
+		double[] expected = window.getWindowedFrame(in);
+		double windowSum = window.getWindowSum();
+
+		FFT fft = new FFT(size, new HammingWindow(size), true);
+		fft.transform(in, new double[fft.getScratchSize()]);
+
+		for (int k = 0; k <= size / 2; k++) {
+			double re = 0, im = 0;
+			for (int n = 0; n < size; n++) {
+				re += expected[n] * Math.cos(2 * Math.PI * k * n / size);
+				im -= expected[n] * Math.sin(2 * Math.PI * k * n / size);
+			}
+			re = re / windowSum * 2;
+			im = im / windowSum * 2;
+			assertEquals(re * re + im * im, in[k], 1e-9);
+		}
+	}
+}
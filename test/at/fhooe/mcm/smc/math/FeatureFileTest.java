@@ -0,0 +1,76 @@
+package at.fhooe.mcm.smc.math;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureFile;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+public class FeatureFileTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("features", ".mfcf");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private FeatureVector createFeatures(int frames, int dimension, double start) {
+		FeatureVector fv = new FeatureVector(dimension, frames);
+		double[] point = new double[dimension];
+		for (int k = 0; k < frames; k++) {
+			for (int d = 0; d < dimension; d++) {
+				point[d] = start + k + d * 0.25;
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	public void testAppendAndRead() throws IOException {
+		// more than one read block
+		FeatureFile.append(file, createFeatures(2000, 13, 0));
+		FeatureFile.append(file, createFeatures(500, 13, 2000));
+
+		FeatureFile features = new FeatureFile(file);
+		try {
+			assertEquals(13, features.getDimension());
+			assertEquals(2500, features.getFrameCount());
+
+			double[] frames = new double[700 * 13];
+			int total = 0;
+			int n;
+			while ((n = features.read(frames, 0, 700)) > 0) {
+				for (int k = 0; k < n; k++) {
+					assertEquals(total + k, frames[k * 13], 0);
+					assertEquals(total + k + 3, frames[k * 13 + 12], 0);
+				}
+				total += n;
+			}
+			assertEquals(2500, total);
+			assertEquals(-1, features.read(frames, 0, 700));
+
+			features.reset();
+			assertEquals(10, features.read(frames, 13, 10));
+			assertEquals(0, frames[13], 0);
+		} finally {
+			features.close();
+		}
+	}
+
+	public void testDimensionMismatch() throws IOException {
+		FeatureFile.append(file, createFeatures(10, 13, 0));
+		try {
+			FeatureFile.append(file, createFeatures(10, 12, 0));
+			fail();
+		} catch (IOException e) {
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package at.fhooe.mcm.smc.math;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+
+public class FeatureVectorTest extends TestCase {
+
+	public void testDefaultCapacityIsSmall() {
+		FeatureVector fv = new FeatureVector(14);
+		assertTrue(fv.getData().length <= 256 * 14);
+	}
+
+	public void testGrowsBeyondCapacity() {
+		FeatureVector fv = new FeatureVector(3, 1);
+		double[] point = new double[3];
+		for (int i = 0; i < 1000; i++) {
+			point[0] = i;
+			point[2] = -i;
+			fv.add(point);
+		}
+
+		assertEquals(1000, fv.size());
+		double[] out = new double[3];
+		for (int i = 0; i < 1000; i++) {
+			fv.get(i, out);
+			assertEquals(i, out[0], 0);
+			assertEquals(-i, out[2], 0);
+		}
+	}
+}
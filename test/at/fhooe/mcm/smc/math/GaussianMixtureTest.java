@@ -0,0 +1,197 @@
+package at.fhooe.mcm.smc.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixtureCodec;
+import at.fhooe.mcm.smc.math.mfcc.FeatureFile;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+
+public class GaussianMixtureTest extends TestCase {
+	private static final int dimension = 6;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("gmm", ".mfcf");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private FeatureVector createPoints(long seed, int centers, int count) {
+		Random r = new Random(seed);
+		double[] means = new double[centers * dimension];
+		for (int i = 0; i < means.length; i++) {
+			means[i] = r.nextGaussian() * 10;
+		}
+		FeatureVector fv = new FeatureVector(dimension, count);
+		double[] point = new double[dimension];
+		for (int k = 0; k < count; k++) {
+			int c = r.nextInt(centers);
+			for (int d = 0; d < dimension; d++) {
+				point[d] = means[c * dimension + d] + r.nextGaussian() * (1 + d % 3);
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	private GaussianMixture train(FeatureVector fv, int components) {
+		KMeans kmeans = new KMeans(components, fv, 20, new Random(1));
+		kmeans.runAccelerated();
+		return GaussianMixture.fromKMeans(kmeans, fv);
+	}
+
+	public void testEmIncreasesLikelihood() {
+		FeatureVector fv = createPoints(1, 4, 1000);
+		GaussianMixture gmm = train(fv, 4);
+		double before = gmm.getAverageLogLikelihood(fv);
+		int iterations = gmm.runEM(fv);
+		double after = gmm.getAverageLogLikelihood(fv);
+
+		assertTrue(iterations >= 1);
+		assertTrue(after >= before);
+		double sum = 0;
+		for (double w : gmm.getWeights()) {
+			sum += w;
+		}
+		assertEquals(1, sum, 1e-9);
+	}
+
+	public void testLogLikelihoodMatchesDefinition() {
+		FeatureVector fv = createPoints(2, 3, 300);
+		GaussianMixture gmm = train(fv, 3);
+		gmm.runEM(fv);
+
+		double[] weights = gmm.getWeights();
+		double[] means = gmm.getMeans();
+		double[] variances = gmm.getVariances();
+		double[] points = fv.getData();
+		for (int t = 0; t < 10; t++) {
+			int p = fv.getOffset(t);
+			double likelihood = 0;
+			for (int k = 0; k < weights.length; k++) {
+				double density = weights[k];
+				for (int d = 0; d < dimension; d++) {
+					double var = variances[k * dimension + d];
+					double diff = points[p + d] - means[k * dimension + d];
+					density *= Math.exp(-0.5 * diff * diff / var)
+							/ Math.sqrt(2 * Math.PI * var);
+				}
+				likelihood += density;
+			}
+			assertEquals(Math.log(likelihood), gmm.logLikelihood(points, p), 1e-9);
+		}
+	}
+
+	public void testFarFramesDoNotUnderflow() {
+		GaussianMixture gmm = new GaussianMixture(new double[] { 0.5, 0.5 },
+				new double[] { 0, 1 }, new double[] { 1e-4, 1e-4 });
+		double value = gmm.logLikelihood(new double[] { 1e4 }, 0);
+		assertFalse(Double.isInfinite(value) || Double.isNaN(value));
+	}
+
+	public void testOwnModelScoresHigher() {
+		FeatureVector a = createPoints(3, 8, 2000);
+		FeatureVector b = createPoints(4, 8, 2000);
+		GaussianMixture gmmA = train(a, 8);
+		gmmA.runEM(a);
+		GaussianMixture gmmB = train(b, 8);
+		gmmB.runEM(b);
+
+		assertTrue(gmmA.getAverageLogLikelihood(a) > gmmB.getAverageLogLikelihood(a));
+		assertTrue(gmmB.getAverageLogLikelihood(b) > gmmA.getAverageLogLikelihood(b));
+	}
+
+	public void testCodecRoundTrip() {
+		FeatureVector fv = createPoints(5, 4, 500);
+		GaussianMixture gmm = train(fv, 4);
+		gmm.runEM(fv);
+
+		byte[] data = GaussianMixtureCodec.encode(gmm, GaussianMixtureCodec.PRECISION_DOUBLE);
+		assertTrue(GaussianMixtureCodec.isEncoded(data));
+		GaussianMixture decoded = GaussianMixtureCodec.decode(data);
+		assertEquals(gmm.getComponentCount(), decoded.getComponentCount());
+		assertEquals(gmm.getDimension(), decoded.getDimension());
+		assertEquals(gmm.getAverageLogLikelihood(fv), decoded.getAverageLogLikelihood(fv), 1e-9);
+
+		data = GaussianMixtureCodec.encode(gmm, GaussianMixtureCodec.PRECISION_FLOAT);
+		decoded = GaussianMixtureCodec.decode(data);
+		assertEquals(gmm.getAverageLogLikelihood(fv), decoded.getAverageLogLikelihood(fv), 1e-3);
+
+		data[data.length / 2] ^= 1;
+		try {
+			GaussianMixtureCodec.decode(data);
+			fail("corrupted data must not decode");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** Writes the points to the file, returns them as read back with float precision. */
+	private FeatureVector writeFile(FeatureVector fv) throws IOException {
+		FeatureFile.append(file, fv);
+		FeatureVector stored = new FeatureVector(dimension, fv.size());
+		FeatureFile features = new FeatureFile(file);
+		double[] point = new double[dimension];
+		while (features.read(point, 0, 1) > 0) {
+			stored.add(point);
+		}
+		features.close();
+		return stored;
+	}
+
+	public void testFromCodebookMatchesKMeans() throws IOException {
+		FeatureVector fv = writeFile(createPoints(6, 4, 1000));
+		KMeans kmeans = new KMeans(4, fv, 20, new Random(1));
+		kmeans.runAccelerated();
+		double[] centroids = new double[4 * dimension];
+		for (int k = 0; k < 4; k++) {
+			for (int d = 0; d < dimension; d++) {
+				centroids[k * dimension + d] = kmeans.getMean(k).get(d, 0);
+			}
+		}
+
+		GaussianMixture expected = GaussianMixture.fromKMeans(kmeans, fv);
+		FeatureFile features = new FeatureFile(file);
+		GaussianMixture gmm = GaussianMixture.fromCodebook(
+				Codebook.create(centroids, dimension), features);
+		features.close();
+
+		assertArrayEquals(expected.getWeights(), gmm.getWeights(), 1e-12);
+		assertArrayEquals(expected.getMeans(), gmm.getMeans(), 1e-9);
+		assertArrayEquals(expected.getVariances(), gmm.getVariances(), 1e-6);
+	}
+
+	public void testStreamedEmMatchesInMemory() throws IOException {
+		FeatureVector fv = writeFile(createPoints(7, 4, 1000));
+		GaussianMixture expected = train(fv, 4);
+		int iterations = expected.runEM(fv, 5, 0);
+		GaussianMixture gmm = train(fv, 4);
+		FeatureFile features = new FeatureFile(file);
+		assertEquals(iterations, gmm.runEM(features, 5, 0));
+		features.close();
+
+		assertArrayEquals(expected.getWeights(), gmm.getWeights(), 1e-9);
+		assertArrayEquals(expected.getMeans(), gmm.getMeans(), 1e-9);
+		assertArrayEquals(expected.getVariances(), gmm.getVariances(), 1e-9);
+		assertEquals(expected.getAverageLogLikelihood(fv), gmm.getAverageLogLikelihood(fv), 1e-9);
+	}
+
+	private static void assertArrayEquals(double[] expected, double[] actual, double delta) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals("index " + i, expected[i], actual[i], delta);
+		}
+	}
+}
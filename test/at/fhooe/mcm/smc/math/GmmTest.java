@@ -1,169 +1,510 @@
 package at.fhooe.mcm.smc.math;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-import at.fhooe.mcm.smc.math.matrix.Matrix;
-import at.fhooe.mcm.smc.math.others.KMeansClustering;
-import at.fhooe.mcm.smc.math.others.MFCC_comirva;
-import at.fhooe.mcm.smc.math.others.PointList;
-import at.fhooe.mcm.smc.math.others.gmm.CovarianceSingularityException;
-import at.fhooe.mcm.smc.math.others.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.SequentialGmmVerifier;
+import at.fhooe.mcm.smc.math.gmm.UbmScorer;
+import at.fhooe.mcm.smc.math.mfcc.FeatureFile;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.mfcc.MFCC;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+import at.fhooe.mcm.smc.math.vq.MiniBatchKMeans;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
 import at.fhooe.mcm.smc.wav.WavReader;
 
+/**
+ * Compares GMM speaker models with VQ codebooks on the sample recordings.
+ * The first 45 seconds of each speaker's recording train the models, the rest
+ * is cut into segments as long as a verification recording. Reports how many
+ * segments each model type identifies, the time to score a frame, and the
+ * cohort margins of genuine and impostor claims used to choose the
+ * verification threshold, next to the error rates of the VQ verifier. Also scores models adapted from a UBM with the top
+ * components of the UBM only, and measures the log likelihood ratios to the
+ * UBM of genuine and impostor claims. For these, each speaker in turn is left
+ * out of the UBM and the enrolled speakers and only claims as one of them;
+ * the claimed speaker's frames are part of the UBM, as in the application,
+ * where every enrolled user may contribute to the UBM pool. The UBM is
+ * trained from a feature file like VoiceApplication trains it.
+ * <p>
+ * The directory of the sample recordings can be passed as first argument.
+ * The thresholds in VoiceAuthenticatorActivity were measured on the
+ * recordings written by {@link SyntheticSpeakers} into the same directory.
+ * Clustering starts from random centroids, so the numbers vary slightly
+ * between runs.
+ */
 public class GmmTest {
 	public static final int SAMPLERATE = 8000;
-	public static final int WINDOWSIZE = 256;
+	public static final int WINDOWSIZE = 512;
 	public static final int MINFREQ = 1;
 	public static final int MAXFREQ = SAMPLERATE / 2;
-	public static final int FILTERS = 20;
+	public static final int FILTERS = 15;
 	public static final int COEFFICIENTS = FILTERS - 1;
-	public static final int CLUSTER_MAX_ITERATIONS = 20;
-	public static final int CLUSTER_COUNT = 96;
-
-	public static void main(String args[]) throws IOException,
-			CovarianceSingularityException {
-		String dir = "/Users/thomaskaiser/Documents/MCM/MC480_Project_I/SVN/trunk/Implementation/ProjectFiles/samples";
-		String tk = dir + "/Tk.wav";
-		String tk1 = dir + "/Tk1.wav";
-		String you = dir + "/You.wav";
-		String maddow = dir + "/maddow.wav";
-		String olbermann = dir + "/olbermann.wav";
-		String chomsky = dir + "/chomsky.wav";
-		String finkelstein = dir + "/finkelstein.wav";
+	public static final int CLUSTER_MAX_ITERATIONS = 10;
+	public static final int CLUSTER_COUNT = 64;
+	public static final int GMM_COMPONENTS = 32;
+	public static final int UBM_COMPONENTS = 64;
+	public static final int UBM_MAX_EPOCHS = 10;
+	/** Maximum average distortion of the VQ verifier, as in VoiceAuthenticatorActivity. */
+	public static final double VQ_THRESHOLD = 10000;
+	/** Frames of the 45 second enrollment recording, used for training. */
+	public static final int TRAINING_FRAMES = 45000 * SAMPLERATE / 1000
+			/ (WINDOWSIZE / 2);
+	/** Frames of a 2.5 second verification recording. */
+	public static final int SEGMENT_FRAMES = 2500 * SAMPLERATE / 1000
+			/ (WINDOWSIZE / 2);
+
+	public static void main(String args[]) throws IOException {
+		String dir = args.length > 0 ? args[0]
+				: "/Users/thomaskaiser/Documents/MCM/MC480_Project_I/SVN/trunk/Implementation/ProjectFiles/samples";
+		String[] speakers = { dir + "/Tk.wav", dir + "/maddow.wav",
+				dir + "/olbermann.wav", dir + "/chomsky.wav",
+				dir + "/finkelstein.wav" };
+		String[] tests = { dir + "/Tk1.wav", dir + "/You.wav" };
 
 		GmmTest test = new GmmTest();
-		System.out.printf("Starting to create GMM for %s\n", tk);
-		long start = System.currentTimeMillis();
-		GaussianMixture tkGmm = test.createGmm(tk);
-		long elapsed = System.currentTimeMillis() - start;
-		System.out.printf("Created GMM in %d ms\n", elapsed);
-		
-		System.out.printf("Starting to create GMM for %s\n", maddow);
-		start = System.currentTimeMillis();
-		GaussianMixture maddowGmm = test.createGmm(maddow);
-		elapsed = System.currentTimeMillis() - start;
-		System.out.printf("Created GMM in %d ms\n",  elapsed);
-
-		PointList tkPoints = test.getFeatureVector(tk);
-		PointList youPoints = test.getFeatureVector(you);
-		PointList maddowPoints = test.getFeatureVector(maddow);
-
-		double p_tk_tk = tkGmm.getLogLikelihood(tkPoints);
-		double p_tk_you = tkGmm.getLogLikelihood(youPoints);
-		double p_tk_maddow = tkGmm.getLogLikelihood(maddowPoints);
-
-		System.out.printf("Log likelyhood for tk from tk: %.3f\n", p_tk_tk);
-		System.out.printf("Log likelyhood for you from tk: %.3f\n", p_tk_you);
-		System.out.printf("Log likelyhood for maddow from tk: %.3f\n", p_tk_maddow);
+		GaussianMixture[] gmms = new GaussianMixture[speakers.length];
+		Codebook[] codebooks = new Codebook[speakers.length];
+		FeatureVector[] features = new FeatureVector[speakers.length];
+		FeatureVector[][] segments = new FeatureVector[speakers.length][];
+		FeatureVector pool = null;
+		for (int i = 0; i < speakers.length; i++) {
+			FeatureVector pl = test.getFeatureVector(speakers[i]);
+			int trainingFrames = Math.min(TRAINING_FRAMES, pl.size());
+			features[i] = test.slice(pl, 0, trainingFrames);
+			segments[i] = test.split(pl, trainingFrames, SEGMENT_FRAMES);
+			if (pool == null) {
+				pool = new FeatureVector(pl.getDimension(), speakers.length
+						* trainingFrames);
+			}
+			for (int t = 0; t < trainingFrames; t++) {
+				pool.add(pl.getData(), pl.getOffset(t));
+			}
+
+			long start = System.currentTimeMillis();
+			codebooks[i] = new Lbg(CLUSTER_COUNT, features[i]).run();
+			long elapsed = System.currentTimeMillis() - start;
+			System.out.printf("Created codebook for %s in %d ms\n", speakers[i], elapsed);
+
+			start = System.currentTimeMillis();
+			gmms[i] = test.createGmm(features[i], GMM_COMPONENTS);
+			elapsed = System.currentTimeMillis() - start;
+			System.out.printf("Created GMM for %s in %d ms, %d EM iterations\n",
+					speakers[i], elapsed, gmms[i].getIterations());
+		}
+
+		test.identify(codebooks, gmms, segments);
+		test.verifyCodebooks(codebooks, segments);
+		double threshold = test.printCohortMargins(gmms, segments);
+		test.verifySequentially(gmms, segments, threshold);
+		test.verifyAgainstUbm(features, segments);
+
+		long ubmStart = System.currentTimeMillis();
+		GaussianMixture ubm = test.createUbm(pool);
+		GaussianMixture[] adapted = new GaussianMixture[speakers.length];
+		for (int i = 0; i < speakers.length; i++) {
+			adapted[i] = ubm.adapt(features[i], GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+		}
+		System.out.printf("Created UBM from %d frames and adapted models in %d ms\n",
+				pool.size(), System.currentTimeMillis() - ubmStart);
+		UbmScorer scorer = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS);
+
+		for (String file : tests) {
+			FeatureVector pl = test.getFeatureVector(file);
+			System.out.printf("Scores for %s (%d frames):\n", file, pl.size());
+			for (int i = 0; i < speakers.length; i++) {
+				long start = System.nanoTime();
+				double distortion = ClusterUtil.calculateAverageDistortion(pl, codebooks[i]);
+				long vqTime = System.nanoTime() - start;
+				start = System.nanoTime();
+				double likelihood = gmms[i].getAverageLogLikelihood(pl);
+				long gmmTime = System.nanoTime() - start;
+				System.out.printf("  %s: distortion %.3f (%d ns/frame), log likelihood %.3f (%d ns/frame)\n",
+						speakers[i], distortion, vqTime / pl.size(), likelihood,
+						gmmTime / pl.size());
+			}
+			long scoreStart = System.nanoTime();
+			double[] ratios = scorer.getLogLikelihoodRatios(pl, adapted);
+			long ubmTime = System.nanoTime() - scoreStart;
+			for (int i = 0; i < speakers.length; i++) {
+				System.out.printf("  %s: log likelihood ratio to UBM %.3f\n", speakers[i], ratios[i]);
+			}
+			System.out.printf("  top %d UBM scoring of all models: %d ns/frame\n",
+					scorer.getTopComponents(), ubmTime / pl.size());
+		}
 	}
 
-	public GaussianMixture createGmm(String wavFilePath) throws IOException {
-		PointList pl = getFeatureVector(wavFilePath);
+	/** Prints how many held out segments are attributed to the right speaker. */
+	public void identify(Codebook[] codebooks, GaussianMixture[] gmms,
+			FeatureVector[][] segments) {
+		int total = 0, frames = 0, vqCorrect = 0, gmmCorrect = 0;
+		long vqTime = 0, gmmTime = 0;
+		for (int s = 0; s < segments.length; s++) {
+			for (FeatureVector segment : segments[s]) {
+				int vqBest = 0, gmmBest = 0;
+				double minDistortion = Double.MAX_VALUE;
+				double maxLikelihood = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < gmms.length; i++) {
+					long start = System.nanoTime();
+					double distortion = ClusterUtil.calculateAverageDistortion(segment, codebooks[i]);
+					vqTime += System.nanoTime() - start;
+					start = System.nanoTime();
+					double likelihood = gmms[i].getAverageLogLikelihood(segment);
+					gmmTime += System.nanoTime() - start;
+					if (distortion < minDistortion) {
+						minDistortion = distortion;
+						vqBest = i;
+					}
+					if (likelihood > maxLikelihood) {
+						maxLikelihood = likelihood;
+						gmmBest = i;
+					}
+				}
+				total++;
+				frames += segment.size() * gmms.length;
+				vqCorrect += vqBest == s ? 1 : 0;
+				gmmCorrect += gmmBest == s ? 1 : 0;
+			}
+		}
+		System.out.printf("Identified %d of %d segments with VQ (%d ns/frame), %d with GMM (%d ns/frame)\n",
+				vqCorrect, total, vqTime / frames, gmmCorrect, gmmTime / frames);
+	}
 
-		KMeansClustering kmeans = new KMeansClustering(CLUSTER_COUNT, pl,
-				false, CLUSTER_MAX_ITERATIONS);
-		kmeans.run();
+	/**
+	 * Prints the average distortion margins of the best other codebook over
+	 * the claimed one for genuine and impostor claims, and runs the sequential
+	 * VQ verifier on all claims. An impostor is left out of the other
+	 * codebooks, as if not enrolled.
+	 */
+	public void verifyCodebooks(Codebook[] codebooks, FeatureVector[][] segments) {
+		List<Double> genuineMargins = new ArrayList<Double>();
+		List<Double> impostorMargins = new ArrayList<Double>();
+		int genuine = 0, falseRejects = 0, impostor = 0, falseAccepts = 0;
+		long frames = 0;
+		double[] distortions = new double[codebooks.length];
+		for (int s = 0; s < segments.length; s++) {
+			CodebookIndex index = new CodebookIndex();
+			for (int i = 0; i < codebooks.length; i++) {
+				index.add(i, codebooks[i]);
+			}
+			CodebookIndex withoutSpeaker = new CodebookIndex();
+			for (int i = 0; i < codebooks.length; i++) {
+				if (i != s) {
+					withoutSpeaker.add(i, codebooks[i]);
+				}
+			}
+			for (FeatureVector segment : segments[s]) {
+				for (int i = 0; i < codebooks.length; i++) {
+					distortions[i] = ClusterUtil.calculateAverageDistortion(segment, codebooks[i]);
+				}
+				for (int c = 0; c < codebooks.length; c++) {
+					double bestOther = Double.MAX_VALUE;
+					for (int i = 0; i < codebooks.length; i++) {
+						if (i != c && (i != s || c == s)) {
+							bestOther = Math.min(bestOther, distortions[i]);
+						}
+					}
+					(c == s ? genuineMargins : impostorMargins).add(bestOther - distortions[c]);
 
-		double[] weights = kmeans.getClusterWeights();
-		Matrix[] means = kmeans.getMeans();
-		Matrix[] covariances = kmeans.getFullCovariances();
+					SequentialVerifier verifier = new SequentialVerifier(
+							c == s ? index : withoutSpeaker, c, VQ_THRESHOLD);
+					for (int t = 0; t < segment.size(); t++) {
+						if (verifier.add(segment.getData(), segment.getOffset(t)) != Decision.UNDECIDED)
+							break;
+					}
+					boolean accepted = verifier.finish() == Decision.ACCEPT;
+					frames += verifier.getFrameCount();
+					if (c == s) {
+						genuine++;
+						falseRejects += accepted ? 0 : 1;
+					} else {
+						impostor++;
+						falseAccepts += accepted ? 1 : 0;
+					}
+				}
+			}
+		}
+		printDistributions("VQ distortion margin", genuineMargins, impostorMargins);
+		System.out.printf("Sequential VQ verification at %.0f: %d of %d genuine claims rejected, %d of %d impostor claims accepted, %.1f of %d frames on average\n",
+				VQ_THRESHOLD, falseRejects, genuine, falseAccepts, impostor,
+				frames / (double) (genuine + impostor), SEGMENT_FRAMES);
+	}
 
-		GaussianMixture gmm = new GaussianMixture(weights, means, covariances);
-		int attempt = 0;
-		int MAX_ATTEMPTS = 3;
-//		while (attempt++ < MAX_ATTEMPTS) {
-			try {
-				gmm.runEM(pl);
-//				System.out.printf("GMM training succeeded!\n");
-				// break out of loop
-//				break;
-			} catch (CovarianceSingularityException e) {
-//				System.err.printf("Exception occurred in GMM attempt %d, retrying %d times\n", attempt, (MAX_ATTEMPTS - attempt));
-//				pl = e.getCorrectedPointList();
-			}
-//		}
-
-//		// create pointlist from clusters
-//		int numberClusters = kmeans.getNumberClusters();
-//		Matrix[] centers = new Matrix[numberClusters];
-//		double[][] centerCoords = new double[numberClusters][];
-//
-//		for (int i = 0; i < numberClusters; i++) {
-//			centers[i] = kmeans.getCluster(i).getCenter();
-//			centerCoords[i] = centers[i].getColumnPackedCopy();
-//		}
-//		PointList clusterList = new PointList(centers[0].getRowDimension(),
-//				numberClusters);
-//		for (int i = 0; i < numberClusters; i++) {
-//			clusterList.add(centerCoords[i]);
-//		}
-//		int attempt = 0;
-//		while (attempt++ < 3) {
-//			try {
-//				gmm.runEM(clusterList);
-//				System.out.printf("GMM succeeded!\n");
-//				// break out of loop
-//				break;
-//			} catch (CovarianceSingularityException e) {
-//				System.out.printf("Exception occurred in GMM attempt %d, retrying\n", attempt);
-//				clusterList = e.getCorrectedPointList();
-//			}
-//		}
-		return gmm;
+	/**
+	 * Prints the average log likelihood margins of the claimed model over the
+	 * best cohort model for genuine and impostor claims. An impostor is left
+	 * out of the cohort, as if not enrolled.
+	 *
+	 * @return the threshold with equal false accept and false reject rates
+	 */
+	public double printCohortMargins(GaussianMixture[] gmms,
+			FeatureVector[][] segments) {
+		List<Double> genuine = new ArrayList<Double>();
+		List<Double> impostor = new ArrayList<Double>();
+		double[] likelihoods = new double[gmms.length];
+		for (int s = 0; s < segments.length; s++) {
+			for (FeatureVector segment : segments[s]) {
+				for (int i = 0; i < gmms.length; i++) {
+					likelihoods[i] = gmms[i].getAverageLogLikelihood(segment);
+				}
+				for (int c = 0; c < gmms.length; c++) {
+					double bestOther = Double.NEGATIVE_INFINITY;
+					for (int i = 0; i < gmms.length; i++) {
+						if (i != c && (i != s || c == s)) {
+							bestOther = Math.max(bestOther, likelihoods[i]);
+						}
+					}
+					(c == s ? genuine : impostor).add(likelihoods[c] - bestOther);
+				}
+			}
+		}
+		return printDistributions("cohort margin", genuine, impostor);
 	}
 
-	public PointList getFeatureVector(String wavFilePath) throws IOException {
-		double[] samples = readSamples(wavFilePath);
-		double[][] mfccs = calculateMFCCs(samples);
+	/**
+	 * Runs the sequential verifier on all genuine and impostor claims and
+	 * prints the error rates and the frames needed to decide.
+	 */
+	public void verifySequentially(GaussianMixture[] gmms,
+			FeatureVector[][] segments, double threshold) {
+		int genuine = 0, falseRejects = 0, impostor = 0, falseAccepts = 0;
+		long frames = 0;
+		for (int s = 0; s < segments.length; s++) {
+			for (FeatureVector segment : segments[s]) {
+				for (int c = 0; c < gmms.length; c++) {
+					List<GaussianMixture> cohort = new ArrayList<GaussianMixture>();
+					for (int i = 0; i < gmms.length; i++) {
+						if (i != c && (i != s || c == s)) {
+							cohort.add(gmms[i]);
+						}
+					}
+					SequentialGmmVerifier verifier = new SequentialGmmVerifier(gmms[c],
+							cohort.toArray(new GaussianMixture[cohort.size()]), threshold);
+					for (int t = 0; t < segment.size(); t++) {
+						if (verifier.add(segment.getData(), segment.getOffset(t)) != Decision.UNDECIDED)
+							break;
+					}
+					boolean accepted = verifier.finish() == Decision.ACCEPT;
+					frames += verifier.getFrameCount();
+					if (c == s) {
+						genuine++;
+						falseRejects += accepted ? 0 : 1;
+					} else {
+						impostor++;
+						falseAccepts += accepted ? 1 : 0;
+					}
+				}
+			}
+		}
+		System.out.printf("Sequential verification at %.3f: %d of %d genuine claims rejected, %d of %d impostor claims accepted, %.1f of %d frames on average\n",
+				threshold, falseRejects, genuine, falseAccepts, impostor,
+				frames / (double) (genuine + impostor), SEGMENT_FRAMES);
+	}
 
-		PointList pl = createPointList(mfccs);
-		return pl;
+	/**
+	 * Trains a UBM without each speaker in turn and adapts the other speakers'
+	 * models from it. Prints the log likelihood ratios to the UBM of genuine
+	 * and impostor claims, then runs the sequential verifier at the threshold
+	 * with equal error rates.
+	 */
+	public void verifyAgainstUbm(FeatureVector[] features,
+			FeatureVector[][] segments) throws IOException {
+		int n = features.length;
+		UbmScorer[] scorers = new UbmScorer[n];
+		GaussianMixture[][] adapted = new GaussianMixture[n][n];
+		List<Double> genuine = new ArrayList<Double>();
+		List<Double> impostor = new ArrayList<Double>();
+		long time = 0, frames = 0;
+		for (int left = 0; left < n; left++) {
+			FeatureVector pool = new FeatureVector(features[0].getDimension());
+			for (int i = 0; i < n; i++) {
+				if (i != left) {
+					for (int t = 0; t < features[i].size(); t++) {
+						pool.add(features[i].getData(), features[i].getOffset(t));
+					}
+				}
+			}
+			long start = System.currentTimeMillis();
+			GaussianMixture ubm = createUbm(pool);
+			for (int i = 0; i < n; i++) {
+				if (i != left) {
+					adapted[left][i] = ubm.adapt(features[i], GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+				}
+			}
+			System.out.printf("Created UBM from %d frames without %d and adapted models in %d ms\n",
+					pool.size(), left, System.currentTimeMillis() - start);
+			scorers[left] = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS);
+
+			for (int s = 0; s < n; s++) {
+				for (FeatureVector segment : segments[s]) {
+					for (int c = 0; c < n; c++) {
+						if (c == left)
+							continue;
+						start = System.nanoTime();
+						double ratio = scorers[left].getLogLikelihoodRatio(segment, adapted[left][c]);
+						time += System.nanoTime() - start;
+						frames += segment.size();
+						(c == s ? genuine : impostor).add(ratio);
+					}
+				}
+			}
+		}
+		System.out.printf("Top %d UBM scoring: %d ns/frame\n",
+				UbmScorer.DEFAULT_TOP_COMPONENTS, time / frames);
+		double threshold = printDistributions("UBM log likelihood ratio", genuine, impostor);
+
+		int genuineClaims = 0, falseRejects = 0, impostorClaims = 0, falseAccepts = 0;
+		frames = 0;
+		for (int left = 0; left < n; left++) {
+			for (int s = 0; s < n; s++) {
+				for (FeatureVector segment : segments[s]) {
+					for (int c = 0; c < n; c++) {
+						if (c == left)
+							continue;
+						SequentialGmmVerifier verifier = new SequentialGmmVerifier(scorers[left],
+								adapted[left][c], threshold);
+						for (int t = 0; t < segment.size(); t++) {
+							if (verifier.add(segment.getData(), segment.getOffset(t)) != Decision.UNDECIDED)
+								break;
+						}
+						boolean accepted = verifier.finish() == Decision.ACCEPT;
+						frames += verifier.getFrameCount();
+						if (c == s) {
+							genuineClaims++;
+							falseRejects += accepted ? 0 : 1;
+						} else {
+							impostorClaims++;
+							falseAccepts += accepted ? 1 : 0;
+						}
+					}
+				}
+			}
+		}
+		System.out.printf("Sequential UBM verification at %.3f: %d of %d genuine claims rejected, %d of %d impostor claims accepted, %.1f of %d frames on average\n",
+				threshold, falseRejects, genuineClaims, falseAccepts, impostorClaims,
+				frames / (double) (genuineClaims + impostorClaims), SEGMENT_FRAMES);
 	}
 
-	private PointList createPointList(double[][] mfccs) {
-		int vectorSize = mfccs[0].length;
-		int vectorCount = mfccs.length;
-		PointList pl = new PointList(vectorSize, vectorCount);
-		for (int i = 0; i < vectorCount; i++) {
-			pl.add(mfccs[i]);
+	/**
+	 * Prints minimum, mean and maximum of both score distributions.
+	 *
+	 * @return the threshold with equal false accept and false reject rates
+	 */
+	public double printDistributions(String name, List<Double> genuine,
+			List<Double> impostor) {
+		Collections.sort(genuine);
+		Collections.sort(impostor);
+		System.out.printf("Genuine %s: min %.3f, mean %.3f, max %.3f (%d claims)\n",
+				name, genuine.get(0), mean(genuine), genuine.get(genuine.size() - 1), genuine.size());
+		System.out.printf("Impostor %s: min %.3f, mean %.3f, max %.3f (%d claims)\n",
+				name, impostor.get(0), mean(impostor), impostor.get(impostor.size() - 1), impostor.size());
+
+		List<Double> candidates = new ArrayList<Double>(genuine);
+		candidates.addAll(impostor);
+		double bestThreshold = 0, bestDifference = Double.MAX_VALUE, rate = 0;
+		for (double threshold : candidates) {
+			double falseRejects = countBelow(genuine, threshold) / (double) genuine.size();
+			double falseAccepts = 1 - countBelow(impostor, threshold) / (double) impostor.size();
+			if (Math.abs(falseRejects - falseAccepts) < bestDifference) {
+				bestDifference = Math.abs(falseRejects - falseAccepts);
+				bestThreshold = threshold;
+				rate = (falseRejects + falseAccepts) / 2;
+			}
 		}
-		return pl;
+		System.out.printf("Equal error rate of %s: %.1f%% at %.3f\n", name, rate * 100, bestThreshold);
+		return bestThreshold;
 	}
 
-	private double[][] calculateMFCCs(double[] sampleValues) {
-		MFCC_comirva mfcc2 = new MFCC_comirva(SAMPLERATE, WINDOWSIZE,
-				COEFFICIENTS, false, MINFREQ + 1, MAXFREQ, FILTERS);
+	private static double mean(List<Double> values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.size();
+	}
 
-		int hopSize = WINDOWSIZE / 2;
-		int mfccCount = (sampleValues.length / hopSize) - 1;
-		double[][] mfcc = new double[mfccCount][COEFFICIENTS];
+	private static int countBelow(List<Double> values, double threshold) {
+		int count = 0;
+		while (count < values.size() && values.get(count) < threshold) {
+			count++;
+		}
+		return count;
+	}
 
-		for (int i = 0, pos = 0; pos < sampleValues.length - hopSize; i++, pos += hopSize) {
-			mfcc[i] = mfcc2.processWindow(sampleValues, pos);
+	public GaussianMixture createGmm(FeatureVector pl, int components) {
+		KMeans kmeans = new KMeans(components, pl, CLUSTER_MAX_ITERATIONS);
+		kmeans.runAccelerated();
+		GaussianMixture gmm = GaussianMixture.fromKMeans(kmeans, pl);
+		gmm.runEM(pl);
+		return gmm;
+	}
+
+	/**
+	 * Trains a UBM from the frames written to a feature file, with
+	 * mini-batch k-means and EM reading the file, as VoiceApplication does.
+	 */
+	public GaussianMixture createUbm(FeatureVector pool) throws IOException {
+		File file = File.createTempFile("ubm", ".mfcf");
+		file.delete();
+		try {
+			FeatureFile.append(file, pool);
+			FeatureFile features = new FeatureFile(file);
+			try {
+				Codebook codebook = new MiniBatchKMeans(UBM_COMPONENTS,
+						MiniBatchKMeans.DEFAULT_BATCH_SIZE, UBM_MAX_EPOCHS).run(features);
+				GaussianMixture ubm = GaussianMixture.fromCodebook(codebook, features);
+				ubm.runEM(features, GaussianMixture.DEFAULT_MAX_ITERATIONS,
+						GaussianMixture.DEFAULT_THRESHOLD);
+				return ubm;
+			} finally {
+				features.close();
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	/** Returns the frames from start up to end. */
+	public FeatureVector slice(FeatureVector pl, int start, int end) {
+		FeatureVector slice = new FeatureVector(pl.getDimension(), end - start);
+		for (int t = start; t < end; t++) {
+			slice.add(pl.getData(), pl.getOffset(t));
 		}
+		return slice;
+	}
 
-		return mfcc;
+	/** Cuts the frames from start on into segments, dropping the remainder. */
+	public FeatureVector[] split(FeatureVector pl, int start, int length) {
+		FeatureVector[] segments = new FeatureVector[(pl.size() - start) / length];
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = slice(pl, start + i * length, start + (i + 1) * length);
+		}
+		return segments;
 	}
 
-	private double[] readSamples(String wavFileName) throws IOException {
-		WavReader reader = new WavReader(wavFileName);
-		int sampleSize = reader.getFrameSize();
-		int sampleCount = reader.getPayloadLength() / sampleSize;
-		byte[] buffer = new byte[sampleSize];
-
-		int windowCount = (int) Math.floor(sampleCount / WINDOWSIZE);
-
-		double[] samples = new double[windowCount * WINDOWSIZE];
-		for (int i = 0; i < samples.length; i++) {
-			reader.read(buffer, 0, sampleSize);
-			short sample = 0;
-			// hardcoded two bytes here
-			short b1 = buffer[0];
-			short b2 = buffer[1];
-			b2 <<= 8;
-			sample = (short) (b1 | b2);
-			samples[i] = sample;
-		}
-		return samples;
+	public FeatureVector getFeatureVector(String wavFilePath) throws IOException {
+		WavReader reader = new WavReader(wavFilePath);
+		// MFCC needs a whole number of hops
+		int hop = WINDOWSIZE / 2;
+		double[] samples = new double[reader.getSampleCount() / hop * hop];
+		reader.readSamples(samples, 0, samples.length);
+		reader.close();
+
+		MFCC mfcc = new MFCC(SAMPLERATE, WINDOWSIZE, COEFFICIENTS, false,
+				MINFREQ + 1, MAXFREQ, FILTERS);
+		double[][] mfccs = mfcc.process(samples);
+		FeatureVector pl = new FeatureVector(mfcc.getFeatureDimension(), mfccs.length);
+		for (int i = 0; i < mfccs.length; i++) {
+			pl.add(mfccs[i]);
+		}
+		return pl;
 	}
 }
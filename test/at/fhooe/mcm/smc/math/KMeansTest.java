@@ -0,0 +1,128 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+
+public class KMeansTest extends TestCase {
+	private static final int dimension = 12;
+
+	private FeatureVector createPoints(int centers, int perCenter, double[] means) {
+		Random r = new Random(3);
+		for (int i = 0; i < means.length; i++) {
+			means[i] = r.nextGaussian() * 30;
+		}
+		FeatureVector fv = new FeatureVector(dimension, centers * perCenter);
+		double[] point = new double[dimension];
+		for (int k = 0; k < centers * perCenter; k++) {
+			int c = k % centers;
+			for (int d = 0; d < dimension; d++) {
+				point[d] = means[c * dimension + d] + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	public void testSeedingFindsSeparatedCenters() {
+		double[] means = new double[4 * dimension];
+		FeatureVector fv = createPoints(4, 100, means);
+
+		KMeans kmeans = new KMeans(4, fv, 50, new Random(1));
+		kmeans.run();
+		double[] centroids = new double[4 * dimension];
+		for (int c = 0; c < 4; c++) {
+			System.arraycopy(kmeans.getMean(c).getColumnPackedCopy(), 0,
+					centroids, c * dimension, dimension);
+		}
+		for (int c = 0; c < 4; c++) {
+			assertTrue(ClusterUtil.minDistance(means, c * dimension, centroids,
+					dimension) < 1);
+		}
+	}
+
+	public void testStopsOnConvergence() {
+		FeatureVector fv = createPoints(16, 30, new double[16 * dimension]);
+
+		KMeans kmeans = new KMeans(8, fv, 100, new Random(5));
+		kmeans.setConvergenceThreshold(0.01);
+		kmeans.run();
+		int iterations = kmeans.getIterations();
+		assertTrue(iterations < 100);
+
+		double[] errors = kmeans.getErrors();
+		assertEquals(iterations, errors.length);
+		for (int i = 1; i < errors.length; i++) {
+			assertTrue(errors[i] <= errors[i - 1]);
+		}
+		assertEquals(errors[errors.length - 1], kmeans.getError(), 0);
+		// the last improvement was below the threshold
+		if (iterations > 1) {
+			assertTrue(errors[iterations - 2] - errors[iterations - 1] <= 0.01 * errors[iterations - 2]);
+		}
+	}
+
+	public void testParallelMatchesSerial() throws InterruptedException {
+		FeatureVector fv = createPoints(10, 40, new double[10 * dimension]);
+
+		KMeans serial = new KMeans(8, fv, 30, new Random(7));
+		serial.run();
+
+		KMeans parallel = new KMeans(8, fv, 30, new Random(7));
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			parallel.run(executor);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(serial.getIterations(), parallel.getIterations());
+		assertEquals(serial.getError(), parallel.getError(), serial.getError() * 1e-9);
+		for (int c = 0; c < 8; c++) {
+			double[] a = serial.getMean(c).getColumnPackedCopy();
+			double[] b = parallel.getMean(c).getColumnPackedCopy();
+			for (int d = 0; d < dimension; d++) {
+				assertEquals(a[d], b[d], 1e-9);
+			}
+		}
+	}
+
+	public void testAcceleratedMatchesSerial() {
+		FeatureVector fv = createPoints(40, 25, new double[40 * dimension]);
+
+		KMeans serial = new KMeans(32, fv, 40, new Random(11));
+		serial.setConvergenceThreshold(0);
+		serial.run();
+
+		KMeans accelerated = new KMeans(32, fv, 40, new Random(11));
+		accelerated.setConvergenceThreshold(0);
+		accelerated.runAccelerated();
+
+		assertEquals(serial.getIterations(), accelerated.getIterations());
+		double[] a = serial.getErrors();
+		double[] b = accelerated.getErrors();
+		for (int i = 0; i < a.length; i++) {
+			assertEquals(a[i], b[i], a[i] * 1e-9);
+		}
+		for (int c = 0; c < 32; c++) {
+			assertEquals(serial.getCluster(c).getElementCount(),
+					accelerated.getCluster(c).getElementCount());
+		}
+		// most distances are skipped
+		assertTrue(accelerated.getDistanceCount() < serial.getDistanceCount() / 2);
+	}
+
+	public void testTooFewPoints() {
+		FeatureVector fv = createPoints(1, 3, new double[dimension]);
+		try {
+			new KMeans(4, fv, 10);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
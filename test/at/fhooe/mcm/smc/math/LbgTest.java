@@ -0,0 +1,100 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+
+public class LbgTest extends TestCase {
+	private static final int dimension = 14;
+
+	/** Creates points around the given number of well separated centers. */
+	private FeatureVector createPoints(int centers, int perCenter, double[] means) {
+		Random r = new Random(9);
+		for (int i = 0; i < means.length; i++) {
+			means[i] = r.nextGaussian() * 50;
+		}
+		FeatureVector fv = new FeatureVector(dimension, centers * perCenter);
+		double[] point = new double[dimension];
+		for (int k = 0; k < centers * perCenter; k++) {
+			int c = k % centers;
+			for (int d = 0; d < dimension; d++) {
+				point[d] = means[c * dimension + d] + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	public void testFindsCenters() {
+		double[] means = new double[2 * dimension];
+		FeatureVector fv = createPoints(2, 200, means);
+
+		Lbg lbg = new Lbg(2, fv);
+		Codebook cb = lbg.run();
+		assertEquals(2, cb.getLength());
+		double[] centroids = cb.getCentroidValues();
+		for (int c = 0; c < 2; c++) {
+			// each center has a centroid close by
+			assertTrue(ClusterUtil.minDistance(means, c * dimension, centroids, dimension) < 1);
+		}
+		// within cluster variance is 1 per dimension
+		assertEquals(dimension, lbg.getDistortion(), 1);
+	}
+
+	public void testDistortionDecreases() {
+		FeatureVector fv = createPoints(20, 50, new double[20 * dimension]);
+		double last = Double.MAX_VALUE;
+		for (int size = 1; size <= 64; size *= 2) {
+			Lbg lbg = new Lbg(size, fv);
+			Codebook cb = lbg.run();
+			assertEquals(size, cb.getLength());
+			assertTrue(lbg.getDistortion() < last);
+			assertEquals(lbg.getDistortion(),
+					ClusterUtil.calculateAverageDistortion(fv, cb), lbg.getDistortion() * 0.01);
+			last = lbg.getDistortion();
+		}
+	}
+
+	public void testDeterministic() {
+		FeatureVector fv = createPoints(20, 50, new double[20 * dimension]);
+		double[] first = new Lbg(64, fv).run().getCentroidValues();
+		double[] second = new Lbg(64, fv).run().getCentroidValues();
+		assertEquals(64 * dimension, first.length);
+		for (int i = 0; i < first.length; i++) {
+			assertEquals(first[i], second[i]);
+		}
+	}
+
+	public void testSizeNotPowerOfTwo() {
+		FeatureVector fv = createPoints(5, 100, new double[5 * dimension]);
+		Lbg lbg = new Lbg(5, fv);
+		assertEquals(5, lbg.run().getLength());
+	}
+
+	public void testEmptyCells() {
+		// fewer distinct points than centroids leaves cells empty
+		Random r = new Random(4);
+		double[][] distinct = new double[6][dimension];
+		for (double[] point : distinct) {
+			for (int d = 0; d < dimension; d++) {
+				point[d] = r.nextGaussian() * 10;
+			}
+		}
+		FeatureVector fv = new FeatureVector(dimension, 60);
+		for (int i = 0; i < 60; i++) {
+			fv.add(distinct[i % distinct.length]);
+		}
+
+		Codebook cb = new Lbg(12, fv).run();
+		double[] centroids = cb.getCentroidValues();
+		for (int i = 0; i < centroids.length; i++) {
+			assertFalse(Double.isNaN(centroids[i]) || Double.isInfinite(centroids[i]));
+		}
+		for (double[] point : distinct) {
+			assertEquals(0, ClusterUtil.minDistance(point, 0, centroids, dimension), 1e-9);
+		}
+	}
+}
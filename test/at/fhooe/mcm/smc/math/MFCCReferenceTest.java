@@ -0,0 +1,66 @@
+package at.fhooe.mcm.smc.math;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.MFCC;
+
+/**
+ * Compares the MFCCs of a fixed signal with coefficients calculated by the
+ * original Matrix based implementation, so optimisations of {@link MFCC}
+ * cannot change the features (and invalidate stored codebooks) unnoticed.
+ */
+public class MFCCReferenceTest extends TestCase {
+	private static final int sampleRate = 8000;
+	private static final int windowSize = 512;
+
+	/** MFCCs of {@link #createSignal()}, one row per window. */
+	private static final double[][] reference = {
+			{ 30.64253919067056, -10.53815259280947, -7.7567846645266965, -7.96035773089252, -30.564144260810167, -22.11619160513577, 13.154191034043754, 14.47559664934668, -9.599583932640478, -10.583647133248615, 0.4086171176523461, -2.7478735248271953, -4.460474862872908 },
+			{ 22.168154763935117, -17.248609114374027, -11.962985860356763, -9.385081130760103, -29.31882403634733, -18.560796048384535, 18.520950758320016, 21.059855266998596, -2.4732342428308858, -3.6280517450146927, 6.540603851318769, 2.0786345642238224, -1.196251014103649 },
+			{ 20.175492443294655, -18.683893402215148, -12.3790594000595, -8.43670364919775, -27.06294101133124, -15.604378699877426, 21.184490196570415, 22.48217949320908, -2.7471131998070817, -5.375927135344714, 4.036504410763304, -0.3658462108674154, -3.005195887735093 },
+			{ 23.06409791131335, -23.255400579829697, -19.111422373897213, -9.56884602753128, -21.409717560645994, -9.8155703917141, 20.517432937280205, 16.496884009587106, -6.731466241488419, -2.6526935505722973, 10.020337421522, 1.5161946594473985, -7.631866324731303 },
+			{ 24.043999099022546, -25.522159561336856, -21.65689872757401, -9.074350032867162, -18.500331204734145, -8.15672977150891, 18.910340247056848, 13.629304243163203, -7.483040388745672, -0.5460912568813834, 12.51493877919796, 1.7176590810678825, -9.805013830628244 },
+			{ 25.324492206025553, -31.76108837150921, -25.494847446787, -4.2395864610352945, -12.4389597758395, -10.41006337245147, 11.748169985045394, 12.629679192717358, -0.8912095953575605, 3.3121664215230506, 7.835579239876676, -3.8544509798875914, -7.503354409926198 },
+			{ 24.943932069294117, -32.157995891159885, -24.78564601258664, -2.847758913510434, -12.492097349840542, -12.458814193874945, 10.354444912940219, 14.244872380313325, 1.8844490118572352, 3.2833868188705484, 4.690428902408366, -5.8559818802838155, -5.4183369615032415 }
+	};
+
+	/** Two tones and a chirp, four windows long. */
+	private double[] createSignal() {
+		double[] signal = new double[4 * windowSize];
+		for (int i = 0; i < signal.length; i++) {
+			double t = i / (double) sampleRate;
+			signal[i] = 1000 * Math.sin(2 * Math.PI * 440 * t) + 500
+					* Math.sin(2 * Math.PI * 1250 * t) + 250
+					* Math.sin(2 * Math.PI * (200 + 1500 * t) * t);
+		}
+		return signal;
+	}
+
+	private MFCC createMfcc() {
+		return new MFCC(sampleRate, windowSize, 14, false, 2, sampleRate / 2, 15);
+	}
+
+	public void testProcessMatchesReference() {
+		double[][] mfccs = createMfcc().process(createSignal());
+
+		assertEquals(reference.length, mfccs.length);
+		for (int i = 0; i < reference.length; i++) {
+			assertEquals(reference[i].length, mfccs[i].length);
+			for (int j = 0; j < reference[i].length; j++) {
+				assertEquals("window " + i + ", coefficient " + j,
+						reference[i][j], mfccs[i][j], 1e-9);
+			}
+		}
+	}
+
+	public void testProcessWindowMatchesReference() {
+		MFCC mfcc = createMfcc();
+		double[] signal = createSignal();
+		double[] out = new double[mfcc.getFeatureDimension()];
+		for (int i = 0; i < reference.length; i++) {
+			mfcc.processWindow(signal, i * windowSize / 2, out, 0);
+			for (int j = 0; j < out.length; j++) {
+				assertEquals(reference[i][j], out[j], 1e-9);
+			}
+		}
+	}
+}
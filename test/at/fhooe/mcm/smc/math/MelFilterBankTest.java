@@ -0,0 +1,54 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.MelFilterBank;
+import at.fhooe.mcm.smc.math.mfcc.SparseFilterBank;
+import at.fhooe.mcm.smc.sample.FrameUtil;
+
+public class MelFilterBankTest extends TestCase {
+
+	private MelFilterBank createBank() {
+		return new MelFilterBank(8000, 512, 20, 4000, 15);
+	}
+
+	public void testSparseMatchesDense() {
+		MelFilterBank mfb = createBank();
+		double[][] filterBank = mfb.getFilterBank();
+
+		Random r = new Random(3);
+		double[] spectrum = new double[filterBank[0].length];
+		for (int i = 0; i < spectrum.length; i++) {
+			spectrum[i] = r.nextDouble() * 100;
+		}
+
+		double[] out = new double[filterBank.length];
+		mfb.filter(spectrum, out);
+
+		for (int i = 0; i < filterBank.length; i++) {
+			double[] filtered = FrameUtil.multiply(filterBank[i], spectrum);
+			double expected = FrameUtil.sum(filtered, 0, filtered.length);
+			assertEquals(expected, out[i], 1e-9);
+		}
+	}
+
+	public void testSparseStoresOnlyBands() {
+		MelFilterBank mfb = createBank();
+		double[][] filterBank = mfb.getFilterBank();
+		SparseFilterBank sparse = mfb.getSparseFilterBank();
+
+		int nonZero = 0;
+		for (int i = 0; i < filterBank.length; i++) {
+			double[] dense = sparse.getFilter(i);
+			for (int j = 0; j < dense.length; j++) {
+				assertEquals(filterBank[i][j], dense[j]);
+				if (dense[j] != 0) {
+					nonZero++;
+				}
+			}
+		}
+		// at most the two zero end points of each triangle are stored
+		assertTrue(sparse.getWeightCount() <= nonZero + 2 * filterBank.length);
+	}
+}
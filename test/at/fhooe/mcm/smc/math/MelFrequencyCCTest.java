@@ -0,0 +1,77 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.MelFrequencyCC;
+
+public class MelFrequencyCCTest extends TestCase {
+	private static final int windowSize = 256;
+
+	private double[] createInput(int windows) {
+		Random r = new Random(5);
+		double[] input = new double[windows * windowSize / 2];
+		for (int i = 0; i < input.length; i++) {
+			input[i] = 0.5 * Math.sin(2 * Math.PI * 440 * i / 8000d) + 0.4
+					* (r.nextDouble() - 0.5);
+		}
+		return input;
+	}
+
+	private MelFrequencyCC createMfcc() {
+		return new MelFrequencyCC(8000, windowSize, 15, 1, 4000, 15);
+	}
+
+	private void assertSameResult(double[][] expected, double[][] actual) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals(expected[i][j], actual[i][j], 0);
+			}
+		}
+	}
+
+	public void testParallelMatchesSerial() throws Exception {
+		MelFrequencyCC mfcc = createMfcc();
+		double[] input = createInput(101);
+		double[][] serial = mfcc.processAll(input);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertSameResult(serial, mfcc.processAll(input, executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testSharedInstanceFromManyThreads() throws Exception {
+		final MelFrequencyCC mfcc = createMfcc();
+		final double[] input = createInput(60);
+		double[][] serial = createMfcc().processAll(input);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		ExecutorService callers = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<double[][]>> results = new ArrayList<Future<double[][]>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(callers.submit(new Callable<double[][]>() {
+					public double[][] call() throws Exception {
+						return mfcc.processAll(input, executor);
+					}
+				}));
+			}
+			for (Future<double[][]> result : results) {
+				assertSameResult(serial, result.get());
+			}
+		} finally {
+			callers.shutdown();
+			executor.shutdown();
+		}
+	}
+}
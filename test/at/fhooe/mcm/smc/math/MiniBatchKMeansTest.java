@@ -0,0 +1,85 @@
+package at.fhooe.mcm.smc.math;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.mfcc.FeatureFile;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.ClusterUtil;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+import at.fhooe.mcm.smc.math.vq.MiniBatchKMeans;
+
+public class MiniBatchKMeansTest extends TestCase {
+	private static final int dimension = 12;
+
+	private File file;
+
+	@Override
+	protected void setUp() throws Exception {
+		file = File.createTempFile("minibatch", ".mfcf");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	/** Creates points around randomly placed centers, one center after another like pooled recordings. */
+	private FeatureVector createPoints(int centers, int perCenter) {
+		Random r = new Random(4);
+		double[] means = new double[centers * dimension];
+		for (int i = 0; i < means.length; i++) {
+			means[i] = r.nextGaussian() * 10;
+		}
+		FeatureVector fv = new FeatureVector(dimension, centers * perCenter);
+		double[] point = new double[dimension];
+		for (int k = 0; k < centers * perCenter; k++) {
+			int c = k / perCenter;
+			for (int d = 0; d < dimension; d++) {
+				point[d] = means[c * dimension + d] + r.nextGaussian() * 2;
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	public void testCloseToKMeans() throws IOException {
+		FeatureVector fv = createPoints(30, 400);
+		FeatureFile.append(file, fv);
+
+		KMeans kmeans = new KMeans(16, fv, 100, new Random(2));
+		kmeans.runAccelerated();
+		double full = kmeans.getError() / fv.size();
+
+		MiniBatchKMeans miniBatch = new MiniBatchKMeans(16, 256, 10, new Random(2));
+		FeatureFile features = new FeatureFile(file);
+		Codebook codebook;
+		try {
+			codebook = miniBatch.run(features);
+		} finally {
+			features.close();
+		}
+
+		assertEquals(16, codebook.getLength());
+		assertTrue(miniBatch.getEpochs() >= 1);
+		assertTrue(miniBatch.getBatches() >= 12000 / 256);
+		double distortion = ClusterUtil.calculateAverageDistortion(fv, codebook);
+		assertTrue(distortion + " vs " + full, distortion < full * 1.1);
+	}
+
+	public void testTooFewFrames() throws IOException {
+		FeatureFile.append(file, createPoints(1, 8));
+		FeatureFile features = new FeatureFile(file);
+		try {
+			new MiniBatchKMeans(16, 256, 1).run(features);
+			fail();
+		} catch (IllegalArgumentException e) {
+		} finally {
+			features.close();
+		}
+	}
+}
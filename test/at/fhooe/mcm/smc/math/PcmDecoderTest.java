@@ -0,0 +1,53 @@
+package at.fhooe.mcm.smc.math;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.sample.PcmDecoder;
+
+public class PcmDecoderTest extends TestCase {
+
+	private static final short[] SAMPLES = { 0, 1, -1, 0x7f, 0x80, 0xff,
+			0x1280, (short) 0xff80, Short.MAX_VALUE, Short.MIN_VALUE };
+
+	private byte[] encode(short[] samples) {
+		// leading byte to test the offset
+		byte[] pcm = new byte[1 + samples.length * 2];
+		for (int i = 0; i < samples.length; i++) {
+			pcm[1 + 2 * i] = (byte) samples[i];
+			pcm[2 + 2 * i] = (byte) (samples[i] >> 8);
+		}
+		return pcm;
+	}
+
+	public void testDecode() {
+		byte[] pcm = encode(SAMPLES);
+
+		double[] decoded = PcmDecoder.decode(pcm, 1, pcm.length - 1, false);
+		short[] shorts = new short[SAMPLES.length];
+		PcmDecoder.decode(pcm, 1, shorts, 0, shorts.length);
+		assertEquals(SAMPLES.length, decoded.length);
+		for (int i = 0; i < SAMPLES.length; i++) {
+			assertEquals((double) SAMPLES[i], decoded[i]);
+			assertEquals(SAMPLES[i], shorts[i]);
+		}
+	}
+
+	public void testNormalize() {
+		byte[] pcm = encode(SAMPLES);
+
+		double[] decoded = new double[SAMPLES.length + 2];
+		PcmDecoder.decode(pcm, 1, decoded, 2, SAMPLES.length, true);
+		for (int i = 0; i < SAMPLES.length; i++) {
+			assertEquals(SAMPLES[i] / 32768d, decoded[i + 2]);
+		}
+		assertEquals(-1d, decoded[decoded.length - 1]);
+	}
+
+	public void testRange() {
+		try {
+			PcmDecoder.decode(new byte[4], 1, new double[2], 0, 2, false);
+			fail("reading past the end must fail");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.SequentialGmmVerifier;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
+
+public class SequentialGmmVerifierTest extends TestCase {
+	private static final int dimension = 13;
+	private static final int speakers = 5;
+	private static final int components = 4;
+	private static final int frames = 150;
+
+	private Random r = new Random(5);
+	private GaussianMixture[] models = new GaussianMixture[speakers];
+
+	protected void setUp() {
+		for (int i = 0; i < speakers; i++) {
+			models[i] = createModel(i);
+		}
+	}
+
+	private GaussianMixture createModel(double mean) {
+		double[] weights = new double[components];
+		double[] means = new double[components * dimension];
+		double[] variances = new double[components * dimension];
+		for (int k = 0; k < components; k++) {
+			weights[k] = 1d / components;
+		}
+		for (int i = 0; i < means.length; i++) {
+			means[i] = mean + r.nextGaussian() * 0.5;
+			variances[i] = 1;
+		}
+		return new GaussianMixture(weights, means, variances);
+	}
+
+	private FeatureVector createFeatures(double mean) {
+		FeatureVector fv = new FeatureVector(dimension, frames);
+		double[] point = new double[dimension];
+		for (int i = 0; i < frames; i++) {
+			for (int d = 0; d < dimension; d++) {
+				point[d] = mean + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	/** Returns the models of all speakers except the claimed one. */
+	private GaussianMixture[] cohort(int claimed) {
+		GaussianMixture[] cohort = new GaussianMixture[speakers - 1];
+		for (int i = 0, n = 0; i < speakers; i++) {
+			if (i != claimed) {
+				cohort[n++] = models[i];
+			}
+		}
+		return cohort;
+	}
+
+	/** Adds frames until a decision is made, returns the number of frames used. */
+	private int run(SequentialGmmVerifier verifier, FeatureVector fv) {
+		for (int i = 0; i < fv.size(); i++) {
+			if (verifier.add(fv.getData(), fv.getOffset(i)) != Decision.UNDECIDED)
+				return i + 1;
+		}
+		verifier.finish();
+		return fv.size();
+	}
+
+	public void testAcceptsEarly() {
+		FeatureVector fv = createFeatures(2);
+		SequentialGmmVerifier verifier = new SequentialGmmVerifier(models[2], cohort(2), 1);
+		int used = run(verifier, fv);
+		assertEquals(Decision.ACCEPT, verifier.getDecision());
+		assertTrue(used < frames);
+		assertEquals(SequentialVerifier.DEFAULT_MIN_FRAMES, used, 10);
+		assertTrue(verifier.getAverageMargin() > 1);
+	}
+
+	public void testRejectsImpostorEarly() {
+		FeatureVector fv = createFeatures(3);
+		SequentialGmmVerifier verifier = new SequentialGmmVerifier(models[2], cohort(2), 1);
+		assertTrue(run(verifier, fv) < frames);
+		assertEquals(Decision.REJECT, verifier.getDecision());
+	}
+
+	public void testRejectsUnenrolledImpostor() {
+		// speaker 3 is not part of the cohort, only the margin threshold rejects
+		GaussianMixture[] cohort = { models[0], models[1], models[4] };
+		FeatureVector fv = createFeatures(2.5);
+		SequentialGmmVerifier verifier = new SequentialGmmVerifier(models[2], cohort, 20);
+		run(verifier, fv);
+		assertEquals(Decision.REJECT, verifier.getDecision());
+	}
+
+	public void testFinishMatchesAverageMargin() {
+		FeatureVector fv = createFeatures(2);
+		// never decides early
+		SequentialGmmVerifier verifier = new SequentialGmmVerifier(models[2], cohort(2), 0,
+				frames + 1, 0);
+		assertEquals(frames, run(verifier, fv));
+
+		double min = Double.POSITIVE_INFINITY;
+		for (GaussianMixture other : cohort(2)) {
+			min = Math.min(min, models[2].getAverageLogLikelihood(fv)
+					- other.getAverageLogLikelihood(fv));
+		}
+		assertEquals(min, verifier.getAverageMargin(), 1e-9);
+		assertEquals(min >= 0 ? Decision.ACCEPT : Decision.REJECT, verifier.getDecision());
+	}
+
+	public void testRejectsEmptyCohort() {
+		try {
+			new SequentialGmmVerifier(models[0], new GaussianMixture[0], 0);
+			fail("empty cohort must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
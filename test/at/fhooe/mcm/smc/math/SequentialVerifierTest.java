@@ -0,0 +1,102 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.matrix.Matrix;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.Codebook;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex;
+import at.fhooe.mcm.smc.math.vq.CodebookIndex.Match;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
+
+public class SequentialVerifierTest extends TestCase {
+	private static final int dimension = 13;
+	private static final int speakers = 5;
+	private static final int frames = 150;
+
+	private Random r = new Random(5);
+	private CodebookIndex index = new CodebookIndex();
+
+	protected void setUp() {
+		for (int i = 0; i < speakers; i++) {
+			index.add(i, createCodebook(16, i));
+		}
+	}
+
+	private Codebook createCodebook(int size, double mean) {
+		Matrix[] centroids = new Matrix[size];
+		for (int i = 0; i < size; i++) {
+			centroids[i] = new Matrix(dimension, 1);
+			for (int d = 0; d < dimension; d++) {
+				centroids[i].set(d, 0, mean + r.nextGaussian());
+			}
+		}
+		Codebook cb = new Codebook();
+		cb.setLength(size);
+		cb.setCentroids(centroids);
+		return cb;
+	}
+
+	private FeatureVector createFeatures(double mean) {
+		FeatureVector fv = new FeatureVector(dimension, frames);
+		double[] point = new double[dimension];
+		for (int i = 0; i < frames; i++) {
+			for (int d = 0; d < dimension; d++) {
+				point[d] = mean + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	/** Adds frames until a decision is made, returns the number of frames used. */
+	private int run(SequentialVerifier verifier, FeatureVector fv) {
+		for (int i = 0; i < fv.size(); i++) {
+			if (verifier.add(fv.getData(), fv.getOffset(i)) != Decision.UNDECIDED)
+				return i + 1;
+		}
+		verifier.finish();
+		return fv.size();
+	}
+
+	public void testAcceptsEarly() {
+		FeatureVector fv = createFeatures(2);
+		SequentialVerifier verifier = new SequentialVerifier(index, 2, 30);
+		int used = run(verifier, fv);
+		assertEquals(Decision.ACCEPT, verifier.getDecision());
+		assertTrue(used < frames);
+		assertEquals(SequentialVerifier.DEFAULT_MIN_FRAMES, used, 10);
+	}
+
+	public void testRejectsImpostorEarly() {
+		FeatureVector fv = createFeatures(3);
+		SequentialVerifier verifier = new SequentialVerifier(index, 2, 30);
+		assertTrue(run(verifier, fv) < frames);
+		assertEquals(Decision.REJECT, verifier.getDecision());
+	}
+
+	public void testRejectsAboveThreshold() {
+		FeatureVector fv = createFeatures(2);
+		SequentialVerifier verifier = new SequentialVerifier(index, 2, 1);
+		assertTrue(run(verifier, fv) < frames);
+		assertEquals(Decision.REJECT, verifier.getDecision());
+	}
+
+	public void testFinishMatchesVerify() {
+		// too few frames for an early decision
+		FeatureVector fv = createFeatures(2.5);
+		for (long claimed = 2; claimed <= 3; claimed++) {
+			SequentialVerifier verifier = new SequentialVerifier(index,
+					claimed, 1000, frames + 1, 3);
+			run(verifier, fv);
+
+			Match match = index.verify(fv, claimed);
+			assertEquals(match.getId() == claimed, verifier.getDecision() == Decision.ACCEPT);
+			if (match.getId() == claimed) {
+				assertEquals(match.getDistortion(), verifier.getAverageDistortion(), 1e-9);
+			}
+		}
+	}
+}
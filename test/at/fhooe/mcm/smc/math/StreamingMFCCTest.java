@@ -0,0 +1,96 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.Constants;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.mfcc.MFCC;
+import at.fhooe.mcm.smc.math.mfcc.StreamingMFCC;
+import at.fhooe.mcm.smc.math.mfcc.StreamingMFCC.OnFeatureListener;
+
+public class StreamingMFCCTest extends TestCase {
+	private static final int sampleRate = 8000;
+	private static final int windowSize = 512;
+	private static final int filters = 15;
+
+	private MFCC createMfcc() {
+		return new MFCC(sampleRate, windowSize, filters - 1, false, 2,
+				sampleRate / 2, filters);
+	}
+
+	public void testChunksMatchWholeSample() {
+		Random r = new Random(7);
+		short[] samples = new short[20 * windowSize];
+		double[] doubles = new double[samples.length];
+		byte[] pcm = new byte[samples.length * 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = (short) (r.nextInt(65536) - 32768);
+			doubles[i] = samples[i];
+			pcm[2 * i] = (byte) samples[i];
+			pcm[2 * i + 1] = (byte) (samples[i] >> 8);
+		}
+
+		double[][] expected = createMfcc().process(doubles);
+
+		final List<double[]> frames = new ArrayList<double[]>();
+		StreamingMFCC streaming = new StreamingMFCC(createMfcc(),
+				new OnFeatureListener() {
+					public void onFeature(double[] features, int frameIndex) {
+						assertEquals(frames.size(), frameIndex);
+						frames.add(features);
+					}
+				});
+
+		// odd chunk sizes split samples across chunks
+		for (int offset = 0; offset < pcm.length;) {
+			int count = Math.min(1 + r.nextInt(777), pcm.length - offset);
+			streaming.add(pcm, offset, count);
+			offset += count;
+		}
+
+		assertEquals(expected.length, frames.size());
+		for (int i = 0; i < expected.length; i++) {
+			for (int j = 0; j < expected[i].length; j++) {
+				assertEquals(expected[i][j], frames.get(i)[j], 1e-9);
+			}
+		}
+	}
+
+	/**
+	 * Streams PCM into a feature vector set up like the one of the
+	 * verification activity, which must accept every frame.
+	 */
+	public void testFramesFitCreatedFeatureVector() {
+		MFCC mfcc = new MFCC(Constants.SAMPLERATE, Constants.WINDOWSIZE,
+				Constants.COEFFICIENTS, false, Constants.MINFREQ + 1,
+				Constants.MAXFREQ, Constants.FILTERS);
+		final FeatureVector[] features = new FeatureVector[1];
+		StreamingMFCC streaming = new StreamingMFCC(mfcc,
+				new OnFeatureListener() {
+					public void onFeature(double[] frame, int frameIndex) {
+						features[0].add(frame);
+					}
+				});
+		features[0] = streaming.createFeatureVector(16);
+		assertEquals(mfcc.getFeatureDimension(), features[0].getDimension());
+
+		Random r = new Random(3);
+		byte[] pcm = new byte[Constants.SAMPLERATE * 2];
+		for (int i = 0; i < pcm.length; i += 2) {
+			short sample = (short) (8000 * Math.sin(2 * Math.PI * 300 * i
+					/ 2 / Constants.SAMPLERATE) + r.nextInt(200));
+			pcm[i] = (byte) sample;
+			pcm[i + 1] = (byte) (sample >> 8);
+		}
+		for (int offset = 0; offset < pcm.length; offset += 1000) {
+			streaming.add(pcm, offset, Math.min(1000, pcm.length - offset));
+		}
+
+		assertEquals(streaming.getFrameCount(), features[0].size());
+		assertEquals(Constants.SAMPLERATE / (Constants.WINDOWSIZE / 2) - 1,
+				features[0].size());
+	}
+}
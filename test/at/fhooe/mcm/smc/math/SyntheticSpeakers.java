@@ -0,0 +1,166 @@
+package at.fhooe.mcm.smc.math;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes synthetic recordings in place of the sample recordings of
+ * {@link GmmTest}, which are not part of the repository. Each speaker is a
+ * source filter model: glottal pulses with the speaker's pitch, jitter and
+ * breathiness, or noise for unvoiced segments, through a spectral tilt and
+ * four cascaded formant resonators. The formants move between vowel targets
+ * scaled by the speaker's vocal tract length, with pauses in between.
+ * <p>
+ * The speakers are far more regular than real voices, so error rates and
+ * thresholds measured on these recordings are only a first estimate. The
+ * recordings are deterministic, run with the output directory as argument,
+ * then {@link GmmTest} with the same directory.
+ */
+public class SyntheticSpeakers {
+	public static final int SAMPLERATE = 8000;
+	/** Names of the enrolled speakers, as expected by GmmTest. */
+	public static final String[] SPEAKERS = { "Tk", "maddow", "olbermann",
+			"chomsky", "finkelstein" };
+	public static final int SPEAKER_SECONDS = 90;
+	public static final int TEST_SECONDS = 15;
+
+	/** Formants F1 to F4 in Hz of eight vowels. */
+	private static final double[][] VOWELS = { { 730, 1090, 2440, 3300 },
+			{ 530, 1840, 2480, 3400 }, { 270, 2290, 3010, 3600 },
+			{ 570, 840, 2410, 3300 }, { 300, 870, 2240, 3300 },
+			{ 660, 1720, 2410, 3400 }, { 490, 1350, 1690, 3200 },
+			{ 440, 1020, 2240, 3300 } };
+
+	private final double pitch;
+	private final double formantScale;
+	private final double tilt;
+	private final double breathiness;
+	private final double jitter;
+	private final double bandwidthScale;
+	private final Random r;
+
+	/**
+	 * @param speaker
+	 *            selects the voice
+	 * @param seed
+	 *            selects what the voice says
+	 */
+	public SyntheticSpeakers(long speaker, long seed) {
+		Random voice = new Random(speaker * 7919);
+		pitch = 95 + voice.nextDouble() * 130;
+		formantScale = 0.82 + voice.nextDouble() * 0.36;
+		tilt = 0.85 + voice.nextDouble() * 0.12;
+		breathiness = 0.02 + voice.nextDouble() * 0.12;
+		jitter = 0.005 + voice.nextDouble() * 0.03;
+		bandwidthScale = 0.7 + voice.nextDouble() * 0.8;
+		r = new Random(seed);
+	}
+
+	/** Returns the given number of seconds of 16 bit samples. */
+	public double[] generate(double seconds) {
+		int n = (int) (seconds * SAMPLERATE);
+		double[] samples = new double[n];
+		double[][] resonators = new double[4][2];
+		double[] formants = VOWELS[r.nextInt(VOWELS.length)].clone();
+		double[] target = formants;
+		int segmentLeft = 0;
+		boolean voiced = true;
+		boolean silent = false;
+		double phase = 0, segmentPitch = pitch, lowPass = 0;
+		for (int i = 0; i < n; i++) {
+			if (segmentLeft-- <= 0) {
+				double u = r.nextDouble();
+				silent = u < 0.12;
+				voiced = u >= 0.22;
+				segmentLeft = (int) (SAMPLERATE * (silent ? 0.1 + r.nextDouble() * 0.3
+						: 0.06 + r.nextDouble() * 0.2));
+				target = VOWELS[r.nextInt(VOWELS.length)];
+				segmentPitch = pitch * (0.85 + 0.3 * r.nextDouble());
+			}
+			for (int k = 0; k < 4; k++) {
+				formants[k] += (target[k] * formantScale - formants[k]) * 0.004;
+			}
+
+			double source = 0;
+			if (voiced && !silent) {
+				phase += segmentPitch * (1 + jitter * r.nextGaussian()) / SAMPLERATE;
+				if (phase >= 1) {
+					phase -= 1;
+					source = 1;
+				}
+				source += breathiness * r.nextGaussian();
+			} else if (!silent) {
+				source = 0.3 * r.nextGaussian();
+			}
+			lowPass = tilt * lowPass + (1 - tilt) * source * 8;
+
+			double x = lowPass;
+			for (int k = 0; k < 4; k++) {
+				double frequency = Math.min(formants[k], SAMPLERATE / 2 - 200);
+				double bandwidth = (60 + 40 * k) * bandwidthScale;
+				double radius = Math.exp(-Math.PI * bandwidth / SAMPLERATE);
+				double a1 = 2 * radius * Math.cos(2 * Math.PI * frequency / SAMPLERATE);
+				double a2 = -radius * radius;
+				double y = (1 - radius) * x + a1 * resonators[k][0] + a2 * resonators[k][1];
+				resonators[k][1] = resonators[k][0];
+				resonators[k][0] = y;
+				x = y;
+			}
+			samples[i] = x;
+		}
+
+		double max = 0;
+		for (double sample : samples) {
+			max = Math.max(max, Math.abs(sample));
+		}
+		for (int i = 0; i < n; i++) {
+			samples[i] = samples[i] / max * 12000 + 30 * r.nextGaussian();
+		}
+		return samples;
+	}
+
+	/** Writes the samples as 16 bit mono PCM wave file. */
+	public static void write(File file, double[] samples) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			int dataSize = samples.length * 2;
+			out.writeBytes("RIFF");
+			out.writeInt(Integer.reverseBytes(36 + dataSize));
+			out.writeBytes("WAVEfmt ");
+			out.writeInt(Integer.reverseBytes(16));
+			out.writeShort(Short.reverseBytes((short) 1));
+			out.writeShort(Short.reverseBytes((short) 1));
+			out.writeInt(Integer.reverseBytes(SAMPLERATE));
+			out.writeInt(Integer.reverseBytes(SAMPLERATE * 2));
+			out.writeShort(Short.reverseBytes((short) 2));
+			out.writeShort(Short.reverseBytes((short) 16));
+			out.writeBytes("data");
+			out.writeInt(Integer.reverseBytes(dataSize));
+			for (double sample : samples) {
+				long value = Math.max(-32768, Math.min(32767, Math.round(sample)));
+				out.writeShort(Short.reverseBytes((short) value));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String args[]) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "samples");
+		dir.mkdirs();
+		for (int i = 0; i < SPEAKERS.length; i++) {
+			write(new File(dir, SPEAKERS[i] + ".wav"), new SyntheticSpeakers(i,
+					100 + i).generate(SPEAKER_SECONDS));
+		}
+		// another recording of the first speaker, and an unknown speaker
+		write(new File(dir, "Tk1.wav"),
+				new SyntheticSpeakers(0, 999).generate(TEST_SECONDS));
+		write(new File(dir, "You.wav"),
+				new SyntheticSpeakers(42, 1000).generate(TEST_SECONDS));
+	}
+}
@@ -0,0 +1,166 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.math.gmm.GaussianMixture;
+import at.fhooe.mcm.smc.math.gmm.SequentialGmmVerifier;
+import at.fhooe.mcm.smc.math.gmm.UbmScorer;
+import at.fhooe.mcm.smc.math.mfcc.FeatureVector;
+import at.fhooe.mcm.smc.math.vq.KMeans;
+import at.fhooe.mcm.smc.math.vq.SequentialVerifier.Decision;
+
+public class UbmScorerTest extends TestCase {
+	private static final int dimension = 6;
+	private static final int components = 32;
+
+	private final Random r = new Random(7);
+	/** Cluster centers shared by all speakers. */
+	private final double[] centers = new double[components * dimension];
+
+	@Override
+	protected void setUp() throws Exception {
+		for (int i = 0; i < centers.length; i++) {
+			centers[i] = r.nextGaussian() * 10;
+		}
+	}
+
+	/** Frames around the shared centers, shifted by a speaker offset. */
+	private FeatureVector createSpeaker(double[] shift, int count) {
+		FeatureVector fv = new FeatureVector(dimension, count);
+		double[] point = new double[dimension];
+		for (int t = 0; t < count; t++) {
+			int c = r.nextInt(components);
+			for (int d = 0; d < dimension; d++) {
+				point[d] = centers[c * dimension + d] + shift[d] + r.nextGaussian();
+			}
+			fv.add(point);
+		}
+		return fv;
+	}
+
+	private double[] createShift() {
+		double[] shift = new double[dimension];
+		for (int d = 0; d < dimension; d++) {
+			shift[d] = r.nextGaussian();
+		}
+		return shift;
+	}
+
+	private GaussianMixture trainUbm(FeatureVector fv) {
+		KMeans kmeans = new KMeans(components, fv, 20, new Random(1));
+		kmeans.runAccelerated();
+		GaussianMixture ubm = GaussianMixture.fromKMeans(kmeans, fv);
+		ubm.runEM(fv);
+		return ubm;
+	}
+
+	public void testAdaptationKeepsComponents() {
+		FeatureVector background = createSpeaker(new double[dimension], 4000);
+		GaussianMixture ubm = trainUbm(background);
+		FeatureVector speaker = createSpeaker(createShift(), 1000);
+		GaussianMixture adapted = ubm.adapt(speaker,
+				GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+
+		assertTrue(adapted.isAdaptedFrom(ubm));
+		assertFalse(ubm.isAdaptedFrom(trainUbm(speaker)));
+		assertTrue(adapted.getAverageLogLikelihood(speaker) > ubm
+				.getAverageLogLikelihood(speaker));
+	}
+
+	public void testShortlistMatchesFullRatio() {
+		FeatureVector background = createSpeaker(new double[dimension], 4000);
+		GaussianMixture ubm = trainUbm(background);
+		FeatureVector speaker = createSpeaker(createShift(), 1000);
+		GaussianMixture adapted = ubm.adapt(speaker,
+				GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+
+		FeatureVector test = createSpeaker(new double[dimension], 300);
+		double full = adapted.getAverageLogLikelihood(test)
+				- ubm.getAverageLogLikelihood(test);
+		double all = new UbmScorer(ubm, components).getLogLikelihoodRatio(
+				test, adapted);
+		double top = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS)
+				.getLogLikelihoodRatio(test, adapted);
+
+		assertEquals(full, all, 1e-9);
+		assertEquals(full, top, 0.05);
+	}
+
+	public void testGenuineSpeakerScoresHigher() {
+		FeatureVector background = createSpeaker(new double[dimension], 4000);
+		GaussianMixture ubm = trainUbm(background);
+		double[] shiftA = createShift();
+		double[] shiftB = createShift();
+		GaussianMixture a = ubm.adapt(createSpeaker(shiftA, 1000),
+				GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+		GaussianMixture b = ubm.adapt(createSpeaker(shiftB, 1000),
+				GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+
+		UbmScorer scorer = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS);
+		double[] ratiosA = scorer.getLogLikelihoodRatios(
+				createSpeaker(shiftA, 200), new GaussianMixture[] { a, b });
+		double[] ratiosB = scorer.getLogLikelihoodRatios(
+				createSpeaker(shiftB, 200), new GaussianMixture[] { a, b });
+
+		assertTrue(ratiosA[0] > 0);
+		assertTrue(ratiosA[0] > ratiosA[1]);
+		assertTrue(ratiosB[1] > 0);
+		assertTrue(ratiosB[1] > ratiosB[0]);
+	}
+
+	public void testSequentialVerifierMatchesRatio() {
+		FeatureVector background = createSpeaker(new double[dimension], 4000);
+		GaussianMixture ubm = trainUbm(background);
+		double[] shift = createShift();
+		GaussianMixture adapted = ubm.adapt(createSpeaker(shift, 1000),
+				GaussianMixture.DEFAULT_RELEVANCE_FACTOR);
+		UbmScorer scorer = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS);
+
+		FeatureVector test = createSpeaker(shift, 200);
+		// never decides early
+		SequentialGmmVerifier verifier = new SequentialGmmVerifier(scorer,
+				adapted, 0, test.size() + 1, 0);
+		for (int t = 0; t < test.size(); t++) {
+			assertEquals(Decision.UNDECIDED,
+					verifier.add(test.getData(), test.getOffset(t)));
+		}
+		assertEquals(Decision.ACCEPT, verifier.finish());
+		assertEquals(scorer.getLogLikelihoodRatio(test, adapted),
+				verifier.getAverageMargin(), 1e-9);
+
+		SequentialGmmVerifier early = new SequentialGmmVerifier(scorer,
+				adapted, 0);
+		for (int t = 0; t < test.size()
+				&& early.getDecision() == Decision.UNDECIDED; t++) {
+			early.add(test.getData(), test.getOffset(t));
+		}
+		assertEquals(Decision.ACCEPT, early.getDecision());
+		assertTrue(early.getFrameCount() < test.size());
+	}
+
+	public void testRejectsModelsNotAdaptedFromUbm() {
+		FeatureVector background = createSpeaker(new double[dimension], 4000);
+		GaussianMixture ubm = trainUbm(background);
+		FeatureVector speaker = createSpeaker(createShift(), 1000);
+		UbmScorer scorer = new UbmScorer(ubm, UbmScorer.DEFAULT_TOP_COMPONENTS);
+		try {
+			scorer.getLogLikelihoodRatio(speaker, trainUbm(speaker));
+			fail("models not adapted from the UBM must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new SequentialGmmVerifier(scorer, trainUbm(speaker), 0);
+			fail("models not adapted from the UBM must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new UbmScorer(ubm, components + 1);
+			fail("more top components than UBM components must be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package at.fhooe.mcm.smc.math;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import at.fhooe.mcm.smc.sample.VoiceActivityDetector;
+
+public class VoiceActivityDetectorTest extends TestCase {
+	private static final int windowSize = 512;
+	private static final int sampleRate = 8000;
+
+	private Random r = new Random(3);
+
+	/** Appends len samples of noise with the given deviation, plus a sine. */
+	private void fill(double[] samples, int offset, int len, double noise,
+			double amplitude, double frequency) {
+		for (int i = offset; i < offset + len; i++) {
+			samples[i] = r.nextGaussian() * noise + amplitude
+					* Math.sin(2 * Math.PI * frequency * i / sampleRate);
+		}
+	}
+
+	private boolean[] classify(double[] samples) {
+		VoiceActivityDetector vad = new VoiceActivityDetector(windowSize);
+		boolean[] speech = new boolean[samples.length / windowSize];
+		for (int i = 0; i < speech.length; i++) {
+			speech[i] = vad.isSpeech(samples, i * windowSize);
+		}
+		return speech;
+	}
+
+	public void testToneInNoise() {
+		double[] samples = new double[30 * windowSize];
+		fill(samples, 0, 10 * windowSize, 10, 0, 0);
+		fill(samples, 10 * windowSize, 10 * windowSize, 10, 3000, 500);
+		fill(samples, 20 * windowSize, 10 * windowSize, 10, 0, 0);
+
+		boolean[] speech = classify(samples);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(speech[i]);
+		}
+		for (int i = 10; i < 20; i++) {
+			assertTrue(speech[i]);
+		}
+		// hangover keeps two windows
+		assertTrue(speech[20]);
+		assertTrue(speech[21]);
+		for (int i = 22; i < 30; i++) {
+			assertFalse(speech[i]);
+		}
+	}
+
+	public void testZeroCrossings() {
+		// weak white noise is a fricative, an equally weak hum is not
+		double[] samples = new double[30 * windowSize];
+		fill(samples, 0, 10 * windowSize, 10, 0, 0);
+		fill(samples, 10 * windowSize, 5 * windowSize, 15, 0, 0);
+		fill(samples, 15 * windowSize, 5 * windowSize, 10, 0, 0);
+		fill(samples, 20 * windowSize, 10 * windowSize, 10, 16, 50);
+
+		boolean[] speech = classify(samples);
+		for (int i = 10; i < 15; i++) {
+			assertTrue(speech[i]);
+		}
+		for (int i = 20; i < 30; i++) {
+			assertFalse(speech[i]);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package at.fhooe.mcm.smc.wav;
+
+import junit.framework.TestCase;
+
+public class PcmRingBufferTest extends TestCase {
+
+	public void testWrapAround() {
+		PcmRingBuffer ring = new PcmRingBuffer(10);
+		assertEquals(16, ring.getCapacity());
+
+		byte[] in = new byte[12];
+		byte[] out = new byte[12];
+		byte next = 0;
+		byte expected = 0;
+		for (int round = 0; round < 5; round++) {
+			for (int i = 0; i < in.length; i++) {
+				in[i] = next++;
+			}
+			assertEquals(12, ring.write(in, 0, 12));
+			assertEquals(12, ring.available());
+			assertEquals(12, ring.read(out, 0, 12));
+			for (int i = 0; i < out.length; i++) {
+				assertEquals(expected++, out[i]);
+			}
+		}
+		assertEquals(0, ring.read(out, 0, 12));
+	}
+
+	public void testDropWhenFull() {
+		PcmRingBuffer ring = new PcmRingBuffer(8);
+		assertEquals(8, ring.write(new byte[10], 0, 10));
+		assertEquals(2, ring.getDroppedBytes());
+		assertEquals(0, ring.write(new byte[1], 0, 1));
+		assertEquals(3, ring.getDroppedBytes());
+	}
+
+	public void testConcurrentTransfer() throws InterruptedException {
+		final PcmRingBuffer ring = new PcmRingBuffer(1024);
+		final int total = 1 << 20;
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				byte[] chunk = new byte[300];
+				int written = 0;
+				while (written < total) {
+					int n = Math.min(chunk.length, total - written);
+					for (int i = 0; i < n; i++) {
+						chunk[i] = (byte) (written + i);
+					}
+					int done = 0;
+					while (done < n) {
+						done += ring.write(chunk, done, n - done);
+					}
+					written += n;
+				}
+			}
+		};
+		writer.start();
+
+		byte[] chunk = new byte[257];
+		int read = 0;
+		while (read < total) {
+			int n = ring.read(chunk, 0, chunk.length);
+			for (int i = 0; i < n; i++) {
+				assertEquals((byte) (read + i), chunk[i]);
+			}
+			read += n;
+		}
+		writer.join();
+		assertEquals(0, ring.available());
+	}
+}
@@ -0,0 +1,174 @@
+package at.fhooe.mcm.smc.wav;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+public class WavReaderTest extends TestCase {
+
+	private File file;
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (file != null) {
+			file.delete();
+		}
+	}
+
+	/** Writes a canonical 16 bit mono WAV file. */
+	private File writeWav(short[] samples) throws IOException {
+		ByteBuffer payload = ByteBuffer.allocate(samples.length * 2);
+		payload.order(ByteOrder.LITTLE_ENDIAN);
+		for (short s : samples) {
+			payload.putShort(s);
+		}
+		return writeWav(1, 1, 16, payload.array(), false);
+	}
+
+	/**
+	 * Writes a WAV file, optionally with a LIST chunk of odd length before and
+	 * a fact chunk after the fmt chunk.
+	 */
+	private File writeWav(int format, int channels, int bits, byte[] payload,
+			boolean extraChunks) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(80 + payload.length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put("RIFF".getBytes("US-ASCII"));
+		buffer.putInt(0);
+		buffer.put("WAVE".getBytes("US-ASCII"));
+		if (extraChunks) {
+			buffer.put("LIST".getBytes("US-ASCII"));
+			buffer.putInt(3);
+			buffer.put(new byte[] { 1, 2, 3, 0 });
+		}
+		int frameSize = channels * bits / 8;
+		buffer.put("fmt ".getBytes("US-ASCII"));
+		buffer.putInt(16);
+		buffer.putShort((short) format);
+		buffer.putShort((short) channels);
+		buffer.putInt(8000);
+		buffer.putInt(8000 * frameSize);
+		buffer.putShort((short) frameSize);
+		buffer.putShort((short) bits);
+		if (extraChunks) {
+			buffer.put("fact".getBytes("US-ASCII"));
+			buffer.putInt(4);
+			buffer.putInt(payload.length / frameSize);
+		}
+		buffer.put("data".getBytes("US-ASCII"));
+		buffer.putInt(payload.length);
+		buffer.put(payload);
+		buffer.putInt(4, buffer.position() - 8);
+
+		file = File.createTempFile("wavreader", ".wav");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(buffer.array(), 0, buffer.position());
+		out.close();
+		return file;
+	}
+
+	private short[] createSamples(int count) {
+		short[] samples = new short[count];
+		for (int i = 0; i < count; i++) {
+			samples[i] = (short) (i * 131 - 20000);
+		}
+		// low byte >= 0x80
+		samples[0] = (short) 0x1280;
+		samples[1] = (short) 0xff80;
+		return samples;
+	}
+
+	public void testReadShorts() throws IOException {
+		short[] samples = createSamples(10001);
+		WavReader reader = new WavReader(writeWav(samples).getPath());
+		assertEquals(8000, reader.getSampleRate());
+		assertEquals(samples.length, reader.getSampleCount());
+
+		short[] read = new short[samples.length];
+		assertEquals(3000, reader.readSamples(read, 0, 3000));
+		assertEquals(samples.length - 3000,
+				reader.readSamples(read, 3000, samples.length));
+		assertEquals(-1, reader.readSamples(read, 0, 1));
+		for (int i = 0; i < samples.length; i++) {
+			assertEquals(samples[i], read[i]);
+		}
+		reader.close();
+	}
+
+	public void testReadDoubles() throws IOException {
+		short[] samples = createSamples(10001);
+		WavReader reader = new WavReader(writeWav(samples).getPath());
+
+		// raw bytes and samples continue from each other
+		byte[] bytes = new byte[4];
+		assertEquals(4, reader.read(bytes, 0, 4));
+		assertEquals((byte) 0x80, bytes[0]);
+		assertEquals((byte) 0x12, bytes[1]);
+
+		double[] read = new double[samples.length];
+		assertEquals(samples.length - 2, reader.readSamples(read, 2, samples.length));
+		for (int i = 2; i < samples.length; i++) {
+			assertEquals((double) samples[i], read[i]);
+		}
+
+		reader.reset();
+		assertEquals(1, reader.readSamples(read, 0, 1));
+		assertEquals((double) 0x1280, read[0]);
+		reader.close();
+	}
+
+	public void testChunksAndFormats() throws IOException {
+		// 24 bit stereo, the channels are averaged
+		byte[] pcm24 = new byte[] { 0, 0, 1, 0, 0, 3, (byte) 0x80, 0, (byte) 0xff,
+				(byte) 0x80, 0, (byte) 0xff };
+		WavReader reader = new WavReader(writeWav(1, 2, 24, pcm24, true).getPath());
+		assertEquals(2, reader.getChannels());
+		assertEquals(2, reader.getSampleCount());
+		double[] read = new double[2];
+		assertEquals(2, reader.readSamples(read, 0, 10));
+		assertEquals(512d, read[0]);
+		assertEquals(-255.5, read[1]);
+		reader.close();
+
+		// unsigned 8 bit
+		reader = new WavReader(writeWav(1, 1, 8, new byte[] { 0, (byte) 128,
+				(byte) 255 }, true).getPath());
+		short[] shorts = new short[3];
+		assertEquals(3, reader.readSamples(shorts, 0, 3));
+		assertEquals(-32768, shorts[0]);
+		assertEquals(0, shorts[1]);
+		assertEquals(32512, shorts[2]);
+		reader.close();
+
+		// 32 bit float
+		ByteBuffer floats = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		floats.putFloat(0.5f).putFloat(-1f);
+		reader = new WavReader(writeWav(3, 1, 32, floats.array(), false).getPath());
+		WavReader.SampleIterator it = reader.iterator();
+		assertEquals(2, it.remaining());
+		assertEquals(16384d, it.next());
+		assertEquals(-32768d, it.next());
+		assertFalse(it.hasNext());
+		reader.close();
+	}
+
+	public void testIteratorMatchesBulkRead() throws IOException {
+		short[] samples = createSamples(5000);
+		WavReader reader = new WavReader(writeWav(samples).getPath());
+		double[] read = new double[100];
+		reader.readSamples(read, 0, read.length);
+
+		// the iterator starts at the beginning, independent of the reader
+		WavReader.SampleIterator it = reader.iterator();
+		for (int i = 0; i < samples.length; i++) {
+			assertTrue(it.hasNext());
+			assertEquals((double) samples[i], it.next());
+		}
+		assertFalse(it.hasNext());
+		reader.close();
+	}
+}